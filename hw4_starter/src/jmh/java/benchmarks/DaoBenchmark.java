@@ -0,0 +1,66 @@
+package benchmarks;
+
+import com.j256.ormlite.dao.Dao;
+import model.Employer;
+import model.Job;
+import org.openjdk.jmh.annotations.*;
+import persistence.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// The ORMLite DAOs on a seeded temporary SQLite file: single-row create (one transaction each, as the
+// tests and the single-row endpoints do it), lookup by id, and a filtered query on an indexed column.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private File file;
+    private Database database;
+    private Dao<Job, Integer> jobDao;
+    private Employer employer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        file = Seed.databaseFile(rows);
+        database = Seed.open(file);
+        jobDao = database.getJobDao();
+        employer = database.getEmployerDao().queryForId(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int create() throws SQLException {
+        Date now = new Date();
+        return jobDao.create(new Job("Benchmark job", now, now, "eng", "Baltimore", true, true, "none", 1, employer));
+    }
+
+    @Benchmark
+    public Job queryForId() throws SQLException {
+        return jobDao.queryForId(1 + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    // the 50 newest jobs in one location, through the (location, datePosted) index
+    @Benchmark
+    public List<Job> queryByLocation() throws SQLException {
+        String location = Seed.LOCATIONS[ThreadLocalRandom.current().nextInt(Seed.LOCATIONS.length)];
+        return jobDao.queryBuilder().orderBy("datePosted", false).limit(50L).where().eq("location", location).query();
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import api.Json;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import model.Job;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Serializing a List<Job> with the shared Gson instance: into one String, as the paginated routes do, and
+// streamed to a writer, as the unpaginated routes do.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GsonBenchmark {
+
+    private static final Type JOB_LIST = new TypeToken<List<Job>>() { }.getType();
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private List<Job> jobs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jobs = Seed.jobs(rows, Seed.employers(rows));
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return Json.GSON.toJson(jobs, JOB_LIST);
+    }
+
+    @Benchmark
+    public long toJsonStream() throws IOException {
+        CountingWriter out = new CountingWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (Job job : jobs) {
+            Json.GSON.toJson(job, Job.class, writer);
+        }
+        writer.endArray();
+        writer.flush();
+        return out.count;
+    }
+
+    // discards what is written, but counts it so the work cannot be optimized away
+    private static final class CountingWriter extends Writer {
+
+        private long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
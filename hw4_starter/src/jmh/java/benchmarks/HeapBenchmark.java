@@ -0,0 +1,71 @@
+package benchmarks;
+
+import model.Job;
+import org.openjdk.jmh.annotations.*;
+import persistence.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The heap a full load of the jobs table through the DAO holds on to (as the job snapshot's load does): the
+// heap still in use after a GC, per row, reported as the retained.bytesPerRow secondary result next to the
+// time of the load. Seeding the million rows takes a while.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class HeapBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    private File file;
+    private Database database;
+    private long baseline;
+    // the rows of the last load, kept so that the next one is measured without them
+    private List<Job> loaded;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retained {
+        public long bytesPerRow;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        file = Seed.databaseFile(rows);
+        database = Seed.open(file);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        loaded = null;
+        baseline = heapUsedAfterGc();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int queryForAll(Retained retained) throws SQLException {
+        loaded = database.getJobDao().queryForAll();
+        retained.bytesPerRow = (heapUsedAfterGc() - baseline) / loaded.size();
+        return loaded.size();
+    }
+
+    private static long heapUsedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import model.Job;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Job.equals / hashCode, on their own and as a HashSet uses them.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobEqualityBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private List<Job> jobs;
+    private List<Job> copies;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jobs = Seed.jobs(rows, Seed.employers(rows));
+        copies = Seed.jobs(rows, Seed.employers(rows));
+    }
+
+    @Benchmark
+    public int hashCodeOfOne() {
+        return jobs.get(nextIndex()).hashCode();
+    }
+
+    // equal but not identical jobs, so equals compares every field
+    @Benchmark
+    public boolean equalsOfOne() {
+        int i = nextIndex();
+        return jobs.get(i).equals(copies.get(i));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Set<Job> hashSetOfAll() {
+        return new HashSet<>(jobs);
+    }
+
+    private int nextIndex() {
+        next = next + 1 == rows ? 0 : next + 1;
+        return next;
+    }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import spark.Spark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+// Whole requests against the app as Main wires it (pool, caches, routes), started in this JVM on a seeded
+// temporary database and called over loopback HTTP. With caches=off the entity and response body caches
+// are disabled, so every request runs the queries and the serialization.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    @Param({"on", "off"})
+    public String caches;
+
+    private File file;
+    private HttpClient client;
+    private String base;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = Seed.databaseFile(rows);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.setProperty("jbapp.db.url", "jdbc:sqlite:" + file.getPath());
+        System.setProperty("jbapp.http.port", Integer.toString(port));
+        if (caches.equals("off")) {
+            System.setProperty("jbapp.cache.enabled", "false");
+            System.setProperty("jbapp.http.bodyCache.maxBytes", "0");
+        }
+        // Main is in the default package, which cannot be imported
+        Class.forName("Main").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        Spark.awaitInitialization();
+        client = HttpClient.newHttpClient();
+        base = "http://localhost:" + port;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Spark.stop();
+        Spark.awaitStop();
+        file.delete();
+    }
+
+    @Benchmark
+    public int firstPageOfJobs() throws IOException, InterruptedException {
+        return get("/jobs?limit=50&sort=datePosted");
+    }
+
+    @Benchmark
+    public int filteredPageOfJobs() throws IOException, InterruptedException {
+        return get("/jobs?limit=50&location=Boston&fullTime=true&expand=employer");
+    }
+
+    @Benchmark
+    public int search() throws IOException, InterruptedException {
+        return get("/jobs/search?q=engineer&limit=20");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int allJobs() throws IOException, InterruptedException {
+        return get("/jobs");
+    }
+
+    // the body length, so the response is read in full
+    private int get(String path) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(URI.create(base + path)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(path + " answered " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import cache.CacheConfig;
+import cache.EntityCaches;
+import model.Employer;
+import model.Job;
+import persistence.Database;
+import persistence.DatabaseConfig;
+import persistence.EmployerRepository;
+import persistence.JobRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic test data for the benchmarks: the same row count always gives the same rows, so results of
+// different commits are comparable.
+final class Seed {
+
+    static final String[] LOCATIONS = {"Baltimore", "Washington", "New York", "Boston", "Remote"};
+    static final String[] DOMAINS = {"eng", "sales", "finance", "design", "ops"};
+    private static final String[] SECTORS = {"Tech", "Food", "Energy", "Finance", "Health"};
+    private static final long FIRST_POSTED = 1_600_000_000_000L;
+
+    private Seed() {
+    }
+
+    // one employer per 100 jobs
+    static List<Employer> employers(int jobs) {
+        List<Employer> employers = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, jobs / 100); i++) {
+            Employer employer = new Employer("Employer " + i, SECTORS[i % SECTORS.length], "Summary of employer " + i);
+            employer.setId(i + 1);
+            employers.add(employer);
+        }
+        return employers;
+    }
+
+    static List<Job> jobs(int rows, List<Employer> employers) {
+        Random random = new Random(42);
+        List<Job> jobs = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Date posted = new Date(FIRST_POSTED + i * 60_000L);
+            Date deadline = new Date(posted.getTime() + 30L * 24 * 3600 * 1000);
+            jobs.add(new Job("Job " + i + " " + DOMAINS[random.nextInt(DOMAINS.length)] + " engineer", posted, deadline,
+                    DOMAINS[random.nextInt(DOMAINS.length)], LOCATIONS[random.nextInt(LOCATIONS.length)],
+                    random.nextBoolean(), random.nextBoolean(), "Requirements of job " + i,
+                    30_000 + random.nextInt(150_000), employers.get(random.nextInt(employers.size()))));
+        }
+        return jobs;
+    }
+
+    // a new temporary database file with the given number of jobs
+    static File databaseFile(int rows) throws IOException, SQLException {
+        File file = File.createTempFile("jbapp-jmh", ".db");
+        file.deleteOnExit();
+        try (Database database = open(file)) {
+            EntityCaches caches = new EntityCaches(CacheConfig.disabled());
+            List<Employer> employers = employers(rows);
+            for (Employer employer : employers) {
+                // let the database assign ids; they are 1..n in a new file, like the ones employers() gives
+                employer.setId(null);
+            }
+            new EmployerRepository(database, caches).createAll(employers);
+            new JobRepository(database, caches).createAll(jobs(rows, employers));
+        }
+        return file;
+    }
+
+    static Database open(File file) throws SQLException {
+        return Database.open(new DatabaseConfig("jdbc:sqlite:" + file.getPath(), 4, 60_000L, 5_000L));
+    }
+}
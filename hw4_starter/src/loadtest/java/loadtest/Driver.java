@@ -0,0 +1,92 @@
+package loadtest;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Sends the workload's requests for a while and records each one's latency in the results.
+//
+// Closed loop: `concurrency` clients, each sending its next request as soon as the previous one is answered,
+// so the offered load drops when the server slows down. Open loop: requests are due on a fixed schedule of
+// `rate` per second, and latency is measured from when a request was due rather than when it was sent, so
+// a server that falls behind shows up as growing latency (no coordinated omission). `concurrency` then only
+// bounds how many requests are in flight.
+final class Driver {
+
+    private final OkHttpClient client;
+    private final Workload workload;
+    private final Options options;
+
+    Driver(OkHttpClient client, Workload workload, Options options) {
+        this.client = client;
+        this.workload = workload;
+        this.options = options;
+    }
+
+    void run(int seconds, Results results) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, options.rate);
+        AtomicLong slots = new AtomicLong();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < options.concurrency; i++) {
+            Runnable loop = options.isOpenLoop()
+                    ? () -> openLoop(start, end, interval, slots, results)
+                    : () -> closedLoop(end, results);
+            Thread thread = new Thread(loop, "loadtest-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            clients.add(thread);
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+        results.setElapsedNanos(System.nanoTime() - start);
+    }
+
+    private void closedLoop(long end, Results results) {
+        while (System.nanoTime() < end) {
+            Operation operation = workload.next();
+            long sent = System.nanoTime();
+            boolean ok = send(operation);
+            results.record(operation, System.nanoTime() - sent, ok);
+        }
+    }
+
+    private void openLoop(long start, long end, long interval, AtomicLong slots, Results results) {
+        while (true) {
+            long due = start + slots.getAndIncrement() * interval;
+            if (due >= end) {
+                return;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = workload.next();
+            boolean ok = send(operation);
+            results.record(operation, System.nanoTime() - due, ok);
+        }
+    }
+
+    // whether the request was answered with a 2xx status; the body is read in full either way
+    private boolean send(Operation operation) {
+        try (Response response = client.newCall(operation.newRequest()).execute()) {
+            ResponseBody body = response.body();
+            if (body != null) {
+                body.source().readAll(Okio.blackhole());
+            }
+            return response.isSuccessful();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
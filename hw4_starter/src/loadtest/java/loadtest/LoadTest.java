@@ -0,0 +1,144 @@
+package loadtest;
+
+import api.Json;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import spark.Spark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Load test for the app: starts it on a temporary database (unless --url points at a running one), seeds
+// --employers employers and --jobs jobs through the batch endpoints, warms up, then runs the workload for
+// --duration seconds and prints throughput, error rate and p50 / p99 / p99.9 latency per operation.
+// Run with e.g. gradle loadtest -Ploadtest.args='--mode=open --rate=2000 --concurrency=64 --writeRatio=0.1'
+public class LoadTest {
+
+    private static final MediaType NDJSON = MediaType.get("application/x-ndjson");
+    private static final int SEED_BATCH = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        String baseUrl = options.url != null ? options.url : startApp();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(options.concurrency, 5, TimeUnit.MINUTES))
+                .readTimeout(1, TimeUnit.MINUTES)
+                .build();
+
+        System.out.printf("seeding %d employers and %d jobs%n", options.employers, options.jobs);
+        List<Integer> employerIds = seed(client, baseUrl, options);
+        if (employerIds.isEmpty()) {
+            throw new IllegalStateException("there are no employers to post jobs for");
+        }
+
+        Workload workload = new Workload(baseUrl, employerIds, options);
+        Driver driver = new Driver(client, workload, options);
+        System.out.printf("warming up for %d s%n", options.warmupSeconds);
+        driver.run(options.warmupSeconds, new Results(workload));
+        System.out.printf("running %s loop for %d s (concurrency %d%s, %.0f%% writes)%n", options.mode,
+                options.durationSeconds, options.concurrency,
+                options.isOpenLoop() ? ", " + options.rate + " req/s" : "", options.writeRatio * 100);
+        Results results = new Results(workload);
+        driver.run(options.durationSeconds, results);
+        System.out.print(results.format());
+
+        if (options.out != null) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("options", options);
+            report.put("results", results.summary());
+            try (Writer out = Files.newBufferedWriter(Paths.get(options.out), StandardCharsets.UTF_8)) {
+                Json.GSON.toJson(report, out);
+            }
+            System.out.println("results written to " + options.out);
+        }
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        if (options.url == null) {
+            Spark.stop();
+        }
+    }
+
+    // start Main in this JVM on a free port and a new temporary database; returns its base URL
+    private static String startApp() throws Exception {
+        File file = File.createTempFile("jbapp-loadtest", ".db");
+        file.deleteOnExit();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.setProperty("jbapp.db.url", "jdbc:sqlite:" + file.getPath());
+        System.setProperty("jbapp.http.port", Integer.toString(port));
+        // Main is in the default package, which cannot be imported
+        Class.forName("Main").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        Spark.awaitInitialization();
+        return "http://localhost:" + port;
+    }
+
+    // create the employers and jobs; returns the ids of the employers jobs can be posted for (the seeded
+    // ones, or when none are seeded, the first page of the existing ones)
+    private static List<Integer> seed(OkHttpClient client, String baseUrl, Options options) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Integer> employerIds = new ArrayList<>();
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        for (int from = 0; from < options.employers; from += SEED_BATCH) {
+            StringBuilder rows = new StringBuilder();
+            for (int i = from; i < Math.min(from + SEED_BATCH, options.employers); i++) {
+                rows.append(Workload.employerJson(random, "Employer " + run + "-" + i)).append('\n');
+            }
+            for (JsonElement id : post(client, baseUrl + "/employers/batch", rows).getAsJsonArray("ids")) {
+                employerIds.add(id.getAsInt());
+            }
+        }
+        if (employerIds.isEmpty()) {
+            try (Response response = client.newCall(new Request.Builder().url(baseUrl + "/employers?limit=500").build())
+                    .execute()) {
+                JsonObject page = Json.GSON.fromJson(response.body().string(), JsonObject.class);
+                for (JsonElement employer : page.getAsJsonArray("items")) {
+                    employerIds.add(employer.getAsJsonObject().get("id").getAsInt());
+                }
+            }
+        }
+        for (int from = 0; from < options.jobs && !employerIds.isEmpty(); from += SEED_BATCH) {
+            StringBuilder rows = new StringBuilder();
+            for (int i = from; i < Math.min(from + SEED_BATCH, options.jobs); i++) {
+                rows.append(Workload.jobJson(random, employerIds.get(random.nextInt(employerIds.size())))).append('\n');
+            }
+            post(client, baseUrl + "/jobs/batch", rows);
+        }
+        return employerIds;
+    }
+
+    private static JsonObject post(OkHttpClient client, String url, CharSequence ndjson) throws IOException {
+        Request request = new Request.Builder().url(url).post(RequestBody.create(ndjson.toString(), NDJSON)).build();
+        try (Response response = client.newCall(request).execute()) {
+            String body = response.body().string();
+            if (!response.isSuccessful()) {
+                throw new IOException(url + " answered " + response.code() + ": " + body);
+            }
+            JsonObject report = Json.GSON.fromJson(body, JsonObject.class);
+            JsonArray errors = report.getAsJsonArray("errors");
+            if (errors.size() > 0) {
+                throw new IOException(url + " rejected rows while seeding: " + errors.get(0));
+            }
+            return report;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package loadtest;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+// One kind of request of the workload, e.g. "a page of jobs filtered by location". Each call builds a new
+// request, so that the parameters vary the way they would between real clients.
+final class Operation {
+
+    private static final MediaType NDJSON = MediaType.get("application/x-ndjson");
+
+    private final String name;
+    private final boolean write;
+    private final Function<ThreadLocalRandom, Request.Builder> builder;
+
+    private Operation(String name, boolean write, Function<ThreadLocalRandom, Request.Builder> builder) {
+        this.name = name;
+        this.write = write;
+        this.builder = builder;
+    }
+
+    // a GET of the path, with the query built per request
+    static Operation get(String name, String baseUrl, Function<ThreadLocalRandom, String> pathAndQuery) {
+        return new Operation(name, false, random -> new Request.Builder().url(baseUrl + pathAndQuery.apply(random)));
+    }
+
+    // a POST of a one-line NDJSON body built per request
+    static Operation post(String name, String baseUrl, String path, Function<ThreadLocalRandom, String> row) {
+        return new Operation(name, true, random -> new Request.Builder().url(baseUrl + path)
+                .post(RequestBody.create(row.apply(random) + "\n", NDJSON)));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isWrite() {
+        return write;
+    }
+
+    Request newRequest() {
+        return builder.apply(ThreadLocalRandom.current()).build();
+    }
+}
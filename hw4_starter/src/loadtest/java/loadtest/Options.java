@@ -0,0 +1,83 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Command line options of the load test, as --name=value pairs.
+final class Options {
+
+    // base URL of a running app; when null the app is started in this JVM on a seeded temporary database
+    String url;
+    int employers = 100;
+    int jobs = 10_000;
+    // closed: `concurrency` clients that each send their next request when the last one is answered.
+    // open: `rate` requests per second on a fixed schedule, whether or not earlier ones were answered.
+    String mode = "closed";
+    int concurrency = 16;
+    int rate = 500;
+    int warmupSeconds = 5;
+    int durationSeconds = 30;
+    // share of requests that are writes (a one-row POST /jobs/batch or /employers/batch)
+    double writeRatio = 0.05;
+    // more GET paths to mix into the reads, e.g. endpoints added after this tool
+    List<String> extraGets = new ArrayList<>();
+    // where to write the report as JSON, if anywhere
+    String out;
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("expected --name=value but got '" + arg + "'");
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "url":
+                    options.url = value;
+                    break;
+                case "employers":
+                    options.employers = Integer.parseInt(value);
+                    break;
+                case "jobs":
+                    options.jobs = Integer.parseInt(value);
+                    break;
+                case "mode":
+                    if (!value.equals("open") && !value.equals("closed")) {
+                        throw new IllegalArgumentException("mode must be open or closed but was '" + value + "'");
+                    }
+                    options.mode = value;
+                    break;
+                case "concurrency":
+                    options.concurrency = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    options.rate = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "writeRatio":
+                    options.writeRatio = Double.parseDouble(value);
+                    break;
+                case "get":
+                    options.extraGets.addAll(Arrays.asList(value.split(",")));
+                    break;
+                case "out":
+                    options.out = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option --" + name);
+            }
+        }
+        return options;
+    }
+
+    boolean isOpenLoop() {
+        return mode.equals("open");
+    }
+}
@@ -0,0 +1,90 @@
+package loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histograms (microseconds, up to a minute, 3 significant digits) and error counts per operation
+// and over all operations.
+final class Results {
+
+    private static final String ALL = "all";
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<String, ConcurrentHistogram> latencies = new LinkedHashMap<>();
+    private final Map<String, LongAdder> errors = new LinkedHashMap<>();
+    private long elapsedNanos;
+
+    Results(Workload workload) {
+        for (Operation operation : workload.getOperations()) {
+            add(operation.getName());
+        }
+        add(ALL);
+    }
+
+    void record(Operation operation, long nanos, boolean ok) {
+        long micros = Math.min(MAX_MICROS, Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        latencies.get(operation.getName()).recordValue(micros);
+        latencies.get(ALL).recordValue(micros);
+        if (!ok) {
+            errors.get(operation.getName()).increment();
+            errors.get(ALL).increment();
+        }
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // per operation that was sent at least once, and "all": requests, requests per second, error rate and
+    // the latency percentiles in milliseconds
+    Map<String, Map<String, Object>> summary() {
+        double seconds = elapsedNanos / 1e9;
+        Map<String, Map<String, Object>> summary = new LinkedHashMap<>();
+        latencies.forEach((name, histogram) -> {
+            long count = histogram.getTotalCount();
+            if (count == 0) {
+                return;
+            }
+            long failed = errors.get(name).sum();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("requests", count);
+            row.put("throughput", round(count / seconds));
+            row.put("errors", failed);
+            row.put("errorRate", round((double) failed / count));
+            row.put("p50", millis(histogram, 50));
+            row.put("p99", millis(histogram, 99));
+            row.put("p99.9", millis(histogram, 99.9));
+            row.put("max", round(histogram.getMaxValue() / 1000.0));
+            summary.put(name, row);
+        });
+        return summary;
+    }
+
+    // the summary as a table
+    String format() {
+        StringBuilder table = new StringBuilder(String.format("%-32s %9s %10s %8s %9s %9s %9s %9s%n",
+                "operation", "requests", "req/s", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        summary().forEach((name, row) -> table.append(String.format("%-32s %9d %10.1f %8d %9.2f %9.2f %9.2f %9.2f%n",
+                name, row.get("requests"), row.get("throughput"), row.get("errors"), row.get("p50"), row.get("p99"),
+                row.get("p99.9"), row.get("max"))));
+        return table.toString();
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return round(histogram.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private void add(String name) {
+        latencies.put(name, new ConcurrentHistogram(MAX_MICROS, 3));
+        errors.put(name, new LongAdder());
+    }
+}
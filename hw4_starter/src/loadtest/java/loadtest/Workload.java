@@ -0,0 +1,73 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// The mix of requests the load test sends: a write with probability writeRatio, otherwise a read, each
+// picked uniformly among the operations of its kind.
+final class Workload {
+
+    static final String[] LOCATIONS = {"Baltimore", "Washington", "New York", "Boston", "Remote"};
+    static final String[] DOMAINS = {"eng", "sales", "finance", "design", "ops"};
+    static final String[] WORDS = {"engineer", "analyst", "designer", "manager", "intern"};
+
+    private final List<Operation> reads = new ArrayList<>();
+    private final List<Operation> writes = new ArrayList<>();
+    private final double writeRatio;
+
+    Workload(String baseUrl, List<Integer> employerIds, Options options) {
+        this.writeRatio = options.writeRatio;
+        reads.add(Operation.get("GET /jobs?limit", baseUrl, random -> "/jobs?limit=50"));
+        reads.add(Operation.get("GET /jobs?sort=datePosted", baseUrl, random -> "/jobs?limit=50&sort=datePosted"));
+        reads.add(Operation.get("GET /jobs?location&payMin", baseUrl, random -> "/jobs?limit=50&location="
+                + pick(random, LOCATIONS).replace(" ", "%20") + "&payMin=" + 10_000 * random.nextInt(15)));
+        reads.add(Operation.get("GET /jobs?employerId&expand", baseUrl, random -> "/jobs?limit=50&expand=employer"
+                + "&employerId=" + employerIds.get(random.nextInt(employerIds.size()))));
+        reads.add(Operation.get("GET /jobs/search", baseUrl, random -> "/jobs/search?limit=20&q="
+                + pick(random, WORDS)));
+        reads.add(Operation.get("GET /employers?limit", baseUrl, random -> "/employers?limit=50"));
+        for (String path : options.extraGets) {
+            reads.add(Operation.get("GET " + path, baseUrl, random -> path));
+        }
+        writes.add(Operation.post("POST /jobs/batch", baseUrl, "/jobs/batch",
+                random -> jobJson(random, employerIds.get(random.nextInt(employerIds.size())))));
+        writes.add(Operation.post("POST /employers/batch", baseUrl, "/employers/batch",
+                random -> employerJson(random, "Load " + UUID.randomUUID())));
+    }
+
+    Operation next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Operation> kind = random.nextDouble() < writeRatio ? writes : reads;
+        return kind.get(random.nextInt(kind.size()));
+    }
+
+    List<Operation> getOperations() {
+        List<Operation> all = new ArrayList<>(reads);
+        all.addAll(writes);
+        return all;
+    }
+
+    static String jobJson(ThreadLocalRandom random, int employerId) {
+        long posted = System.currentTimeMillis() - random.nextLong(365L * 24 * 3600 * 1000);
+        return "{\"title\":\"" + pick(random, WORDS) + " " + random.nextInt(1_000_000) + "\""
+                + ",\"datePosted\":" + posted
+                + ",\"deadline\":" + (posted + 30L * 24 * 3600 * 1000)
+                + ",\"domain\":\"" + pick(random, DOMAINS) + "\""
+                + ",\"location\":\"" + pick(random, LOCATIONS) + "\""
+                + ",\"fullTime\":" + random.nextBoolean()
+                + ",\"salaryBased\":" + random.nextBoolean()
+                + ",\"requirements\":\"" + pick(random, WORDS) + " experience\""
+                + ",\"payAmount\":" + (30_000 + random.nextInt(150_000))
+                + ",\"employer\":{\"id\":" + employerId + "}}";
+    }
+
+    static String employerJson(ThreadLocalRandom random, String name) {
+        return "{\"name\":\"" + name + "\",\"sector\":\"" + pick(random, DOMAINS) + "\",\"summary\":\"Load test\"}";
+    }
+
+    private static String pick(ThreadLocalRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -1,54 +1,288 @@
-import com.google.gson.Gson;
-import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.jdbc.JdbcConnectionSource;
-import com.j256.ormlite.support.ConnectionSource;
-import com.j256.ormlite.table.TableUtils;
-import model.Employer;
-import model.Job;
+import api.AutocompleteRoutes;
+import api.ChangeRoutes;
+import api.Compression;
+import api.ConditionalGet;
+import api.EmployerRoutes;
+import api.HttpMetrics;
+import api.JettyServers;
+import api.JobRoutes;
+import api.Json;
+import api.Routes;
+import api.ServerConfig;
+import cache.CacheConfig;
+import cache.EntityCaches;
+import cache.LruCache;
+import config.AppConfig;
+import metrics.DatabaseMetrics;
+import metrics.MetricsRegistry;
+import model.InternedStringType;
+import persistence.AutocompleteIndex;
+import persistence.ChangeLog;
+import persistence.Database;
+import persistence.DatabaseBusyException;
+import persistence.DatabaseConfig;
+import persistence.DatabaseExecutor;
+import persistence.EmployerRepository;
+import persistence.ExternalWriteWatcher;
+import persistence.JobArchiver;
+import persistence.JobRepository;
+import persistence.JobShards;
+import persistence.JobSnapshot;
+import persistence.PooledConnectionSource;
+import persistence.ResyncRequiredException;
+import persistence.TableVersions;
+import persistence.WriteBehindQueue;
+import persistence.WriteListener;
 import spark.Spark;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Main {
 
-    private static Dao getEmployerORMLiteDao() throws SQLException {
-        final String URI = "jdbc:sqlite:./JBApp.db";
-        ConnectionSource connectionSource = new JdbcConnectionSource(URI);
-        TableUtils.createTableIfNotExists(connectionSource, Employer.class);
-        return DaoManager.createDao(connectionSource, Employer.class);
-    }
-    
-    private static Dao getJobORMLiteDao() throws SQLException {
-        final String URI = "jdbc:sqlite:./JBApp.db";
-        ConnectionSource connectionSource = new JdbcConnectionSource(URI);
-        TableUtils.createTableIfNotExists(connectionSource, Job.class);
-        return DaoManager.createDao(connectionSource, Job.class);
-    }
+    public static void main(String[] args) throws SQLException {
+
+        // request, statement and connection pool metrics, scraped from /metrics
+        MetricsRegistry metrics = new MetricsRegistry();
+        DatabaseMetrics databaseMetrics = new DatabaseMetrics(metrics,
+                AppConfig.getLong("metrics.slowStatementMillis", 100L));
+
+        // open the pool and bootstrap the schema once; every request shares the same DAOs
+        Database database = Database.open(DatabaseConfig.fromAppConfig(), databaseMetrics);
+        // optionally, the jobs are spread over db.shards files of their own, each with its own pool and writer, and
+        // the database keeps the employers (copied to every shard); listings ask all shards at once
+        int shardCount = AppConfig.getInt("db.shards", 1);
+        if (shardCount > 1) {
+            // these read or write the jobs table of the database itself
+            for (String setting : new String[]{"jobs.snapshot.enabled", "writes.writeBehind.enabled",
+                    "multiInstance.enabled"}) {
+                if (AppConfig.getBoolean(setting, false)) {
+                    throw new IllegalArgumentException(setting + " is not supported with db.shards > 1");
+                }
+            }
+        }
+        if (shardCount <= 1) {
+            JobShards.requireUnsharded(database);
+        }
+        JobShards shards = shardCount > 1
+                ? JobShards.open(database, shardCount, AppConfig.getInt("db.shards.idBlockSize", 100), databaseMetrics)
+                : null;
+        // with shards, the change feed hears of job writes from the repository and commits them in groups, with
+        // the writes.writeBehind.* queue settings
+        WriteBehindQueue changeAppends = shards != null
+                ? new WriteBehindQueue(database, AppConfig.getInt("writes.writeBehind.capacity", 10_000),
+                        AppConfig.getInt("writes.writeBehind.maxBatch", 500),
+                        AppConfig.getLong("writes.writeBehind.windowMillis", 2L), 1)
+                : null;
+        // optionally, single-row creates and updates are queued and committed in groups by one writer thread,
+        // writes.writeBehind.*; whatever is still queued at shutdown is written before the database closes
+        WriteBehindQueue writeBehind = AppConfig.getBoolean("writes.writeBehind.enabled", false)
+                ? new WriteBehindQueue(database, AppConfig.getInt("writes.writeBehind.capacity", 10_000),
+                        AppConfig.getInt("writes.writeBehind.maxBatch", 500),
+                        AppConfig.getLong("writes.writeBehind.windowMillis", 2L),
+                        AppConfig.getInt("writes.writeBehind.idBlockSize", 100))
+                : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+            if (shards != null) {
+                shards.close();
+            }
+            if (changeAppends != null) {
+                changeAppends.close();
+            }
+            database.closeQuietly();
+        }));
 
-    public static void main(String[] args) {
+        // port and request threads (platform or virtual) come from http.* settings
+        HttpMetrics httpMetrics = new HttpMetrics(metrics);
+        JettyServers.configure(ServerConfig.fromAppConfig(), httpMetrics);
+        httpMetrics.install();
+        // gzip for clients that accept it, http.compression.*
+        Compression compression = Compression.fromAppConfig();
+        compression.install();
+        registerPoolMetrics(metrics, database.getConnectionSource(), database.getExecutor());
 
-        final int PORT_NUM = 7000;
-        Spark.port(PORT_NUM);
+        // reads go through the entity caches; writes through the repositories invalidate them
+        EntityCaches caches = new EntityCaches(CacheConfig.fromAppConfig());
+        // every write bumps the version of its table, which drives the ETags of conditional GETs
+        TableVersions versions = new TableVersions();
+        // optionally, filtered job listings are served from an in-memory copy of the jobs table; it reloads
+        // written rows before the versions change, so a new ETag never goes with an old listing
+        JobSnapshot snapshot = AppConfig.getBoolean("jobs.snapshot.enabled", false) ? JobSnapshot.load(database) : null;
+        // every job / employer write is recorded in the change feed (by triggers), keeping changes.retention
+        // changes; the log also wakes the streams waiting for changes
+        ChangeLog changeLog = ChangeLog.install(database, AppConfig.getLong("changes.retention", 100_000L),
+                changeAppends);
+        // completions for job titles, employer names and locations, from memory (autocomplete.enabled)
+        AutocompleteIndex autocomplete = AppConfig.getBoolean("autocomplete.enabled", true)
+                ? shards != null ? AutocompleteIndex.load(shards) : AutocompleteIndex.load(database)
+                : null;
+        ConditionalGet conditionalGet = new ConditionalGet(versions,
+                new LruCache<>("responseBodies", AppConfig.getLong("http.bodyCache.maxBytes", 32L << 20),
+                        AppConfig.getLong("http.bodyCache.ttlMillis", 600_000L), body -> body.length),
+                AppConfig.getInt("http.bodyCache.maxBodyBytes", 4 << 20), compression);
+        // the in-memory copies first, so they have the write before the versions change
+        List<WriteListener> listeners = new ArrayList<>();
+        if (snapshot != null) {
+            listeners.add(snapshot);
+        }
+        if (autocomplete != null) {
+            listeners.add(autocomplete);
+        }
+        listeners.add(conditionalGet);
+        listeners.add(versions);
+        listeners.add(changeLog);
+        WriteListener listener = WriteListener.of(listeners.toArray(new WriteListener[0]));
+        EmployerRepository employers = shards != null
+                ? new EmployerRepository(shards, caches, listener)
+                : new EmployerRepository(database, caches, listener, writeBehind);
+        JobRepository jobs = shards != null
+                ? new JobRepository(shards, caches, listener, changeLog)
+                : new JobRepository(database, caches, listener, snapshot, writeBehind);
+        if (writeBehind != null) {
+            metrics.gauge("jbapp_write_behind_queued_rows", "Rows waiting for the write-behind writer",
+                    writeBehind::getQueued);
+            metrics.counterFunction("jbapp_write_behind_flushes_total", "Write-behind transactions committed",
+                    writeBehind::getFlushCount);
+            metrics.counterFunction("jbapp_write_behind_rows_total", "Write-behind rows committed",
+                    writeBehind::getWrittenCount);
+            metrics.counterFunction("jbapp_write_behind_failures_total", "Queued rows that could not be written",
+                    writeBehind::getFailedCount);
+        }
+        // several instances may share the database file (multiInstance.enabled): each one then follows the writes
+        // of the others through the change feed, polling it every multiInstance.pollMillis, and invalidates its
+        // caches and in-memory copies as for its own writes
+        ExternalWriteWatcher watcher = AppConfig.getBoolean("multiInstance.enabled", false)
+                ? ExternalWriteWatcher.start(changeLog, jobs, employers, caches, listener, database,
+                        AppConfig.getLong("multiInstance.pollMillis", 250L))
+                : null;
+        if (watcher != null) {
+            metrics.counterFunction("jbapp_external_writes_total", "Change feed entries applied by the watcher",
+                    watcher::getAppliedCount);
+            metrics.counterFunction("jbapp_external_write_resyncs_total",
+                    "Times the watcher fell behind the change feed and reloaded everything", watcher::getResyncCount);
+            metrics.counterFunction("jbapp_external_write_poll_failures_total", "Change feed polls that failed",
+                    watcher::getFailureCount);
+        }
+        // optionally, jobs past their deadline move to the jobs_archive table in the background, jobs.archive.*;
+        // listings show them with includeArchived=true
+        JobArchiver archiver = AppConfig.getBoolean("jobs.archive.enabled", false)
+                ? JobArchiver.start(jobs, database, AppConfig.getLong("jobs.archive.intervalMillis", 60_000L),
+                        AppConfig.getInt("jobs.archive.batchSize", 100),
+                        AppConfig.getLong("jobs.archive.pauseMillis", 50L),
+                        AppConfig.getLong("jobs.archive.graceMillis", 0L))
+                : null;
+        if (archiver != null) {
+            metrics.counterFunction("jbapp_jobs_archived_total", "Jobs moved to the archive",
+                    archiver::getArchivedCount);
+            metrics.counterFunction("jbapp_jobs_archive_backoffs_total",
+                    "Archiver runs stopped early because the database was busy", archiver::getBackoffCount);
+            metrics.counterFunction("jbapp_jobs_archive_failures_total", "Archiver runs that failed",
+                    archiver::getFailureCount);
+        }
+
+        new EmployerRoutes(employers, conditionalGet).register();
+
+        // Task 4: Similar to employers endpoint above, write a "jobs" (http get) endpoint
+        //  to return all rows in the "jobs" table a JSON!
+        new JobRoutes(jobs, employers, conditionalGet).register();
 
-        Spark.get("/employers", (req, res) -> {
-            String results = new Gson().toJson(getEmployerORMLiteDao().queryForAll());
+        new ChangeRoutes(changeLog, jobs, employers, AppConfig.getInt("changes.stream.maxClients", 64),
+                AppConfig.getLong("changes.stream.maxMillis", 300_000L),
+                AppConfig.getLong("changes.stream.heartbeatMillis", 15_000L)).register();
+
+        if (autocomplete != null) {
+            new AutocompleteRoutes(autocomplete).register();
+        }
+
+        // Prometheus text format
+        Routes.get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            res.status(200);
+            return metrics.scrape();
+        });
+
+        // the most recent statements slower than metrics.slowStatementMillis, with their SQL
+        Routes.get("/admin/slow-statements", (req, res) -> {
             res.type("application/json");
             res.status(200);
-            return results;
+            return Json.GSON.toJson(databaseMetrics.recentSlowStatements());
         });
 
-        // Task 4: Similar to employers endpoint above, write a "jobs" (http get) endpoint
-        //  to return all rows in the "jobs" table a JSON!
-        //  Note: For this endpoint to work properly, similar to getEmployerORMLiteDao you
-        //  would need to write a new method to create "jobs" table, create a Job Dao and
-        //  return it from the method!
-        Spark.get("/jobs", (req, res) -> {
-            String results = new Gson().toJson(getJobORMLiteDao().queryForAll());
+        // connection pool settings and usage
+        Routes.get("/admin/db", (req, res) -> {
             res.type("application/json");
             res.status(200);
-            return results;
+            if (shards == null) {
+                return Json.GSON.toJson(database.describePool());
+            }
+            Map<String, Object> pools = new LinkedHashMap<>(database.describePool());
+            pools.put("jobShards", shards.describe());
+            return Json.GSON.toJson(pools);
         });
 
+        // entity cache sizes and hit / miss / eviction counters
+        Routes.get("/admin/cache", (req, res) -> {
+            res.type("application/json");
+            res.status(200);
+            Map<String, Object> stats = new LinkedHashMap<>(caches.describe());
+            stats.put("responseBodies", conditionalGet.describe());
+            if (snapshot != null) {
+                stats.put("jobSnapshot", snapshot.describe());
+            }
+            if (autocomplete != null) {
+                stats.put("autocomplete", autocomplete.describe());
+            }
+            stats.put("internedStrings", InternedStringType.describe());
+            return Json.GSON.toJson(stats);
+        });
+
+        // bad query parameters (limit, cursor, sort, ...) are the client's fault
+        Spark.exception(IllegalArgumentException.class, (e, req, res) -> {
+            res.type("application/json");
+            res.status(400);
+            res.body(Json.GSON.toJson(Collections.singletonMap("error", e.getMessage())));
+        });
+
+        // the client is further behind than the change feed goes back: it has to read everything again
+        Spark.exception(ResyncRequiredException.class, (e, req, res) -> {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("error", e.getMessage());
+            body.put("latest", e.getLatest());
+            res.type("application/json");
+            res.status(410);
+            res.body(Json.GSON.toJson(body));
+        });
+
+        // the database executor's queue is full: ask the client to come back instead of queueing without bound
+        Spark.exception(DatabaseBusyException.class, (e, req, res) -> {
+            res.type("application/json");
+            res.status(503);
+            res.header("Retry-After", "1");
+            res.body(Json.GSON.toJson(Collections.singletonMap("error", e.getMessage())));
+        });
+
+    }
+
+    // pool usage, read from the pool when /metrics is scraped
+    private static void registerPoolMetrics(MetricsRegistry metrics, PooledConnectionSource pool,
+                                            DatabaseExecutor executor) {
+        metrics.gauge("jbapp_db_pool_active_connections", "Connections handed out", pool::getActiveConnections);
+        metrics.gauge("jbapp_db_pool_idle_connections", "Open connections not handed out", pool::getIdleConnections);
+        metrics.gauge("jbapp_db_pool_waiting_threads", "Threads waiting for a connection", pool::getWaitingThreads);
+        metrics.gauge("jbapp_db_pool_waiting_writers", "Threads waiting for the writer connection",
+                pool::getWaitingWriters);
+        metrics.gauge("jbapp_db_pool_max_connections", "Pool size", pool::getMaxConnections);
+        metrics.counterFunction("jbapp_db_pool_opened_connections_total", "Connections opened", pool::getOpenedCount);
+        metrics.counterFunction("jbapp_db_pool_closed_connections_total", "Connections closed", pool::getClosedCount);
+        metrics.gauge("jbapp_db_executor_queued_tasks", "Tasks waiting for a database thread", executor::getQueued);
+        metrics.counterFunction("jbapp_db_executor_rejected_total", "Tasks turned away because the queue was full",
+                executor::getRejectedCount);
     }
 }
@@ -0,0 +1,40 @@
+package api;
+
+import persistence.AutocompleteIndex;
+
+import java.util.Collections;
+
+// The search box completions, answered from memory without a database round-trip.
+public class AutocompleteRoutes {
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 50;
+
+    private final AutocompleteIndex index;
+
+    public AutocompleteRoutes(AutocompleteIndex index) {
+        this.index = index;
+    }
+
+    public void register() {
+        // {"items": [{"value": ..., "count": ...}]}: the limit (default 10) most frequent job titles, employer
+        // names or job locations (field=title|employer|location) with a word starting with prefix, ignoring
+        // case; count is the number of jobs with the title / location, or of the employer
+        Routes.get("/autocomplete", (req, res) -> {
+            AutocompleteIndex.Field field = AutocompleteIndex.Field.fromParam(req.queryParams("field"));
+            String prefix = Params.string(req, "prefix");
+            if (prefix == null || prefix.trim().isEmpty()) {
+                throw new IllegalArgumentException("prefix is required");
+            }
+            Integer limit = Params.integer(req, "limit");
+            if (limit != null && (limit < 1 || limit > MAX_LIMIT)) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+            }
+            String body = Json.GSON.toJson(Collections.singletonMap("items",
+                    index.complete(field, prefix, limit == null ? DEFAULT_LIMIT : limit)));
+            res.type("application/json");
+            res.status(200);
+            return body;
+        });
+    }
+}
@@ -0,0 +1,185 @@
+package api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import config.AppConfig;
+import persistence.BatchResult;
+import spark.Request;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The rows of a batch request body: a JSON array of objects, or NDJSON (one object per line). A row that
+// does not parse into the entity (say, a number where a date belongs) is reported on its own, like a row
+// that fails validation; only a body whose structure is broken is rejected as a whole. Single-row bodies
+// (readOne) are parsed the same way.
+final class BatchInput<T> {
+
+    private static final int MAX_ROWS = AppConfig.getInt("http.batch.maxRows", 10_000);
+
+    // dates may also be given as epoch milliseconds or ISO-8601, like the date query parameters
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Date.class, (JsonDeserializer<Date>) (json, type, context) -> {
+                String value = json.getAsString();
+                try {
+                    return Params.parseDate("date", value);
+                } catch (IllegalArgumentException e) {
+                    try {
+                        // the format the GET endpoints write
+                        return Json.GSON.fromJson(json, Date.class);
+                    } catch (JsonParseException notDefault) {
+                        throw new JsonParseException("dates must be epoch milliseconds or ISO-8601 but one was '"
+                                + value + "'");
+                    }
+                }
+            })
+            .create();
+
+    // the parsed rows, and the position in the body of each of them
+    private final List<T> rows = new ArrayList<>();
+    private final List<Integer> positions = new ArrayList<>();
+    // rows that did not parse, by position in the body
+    private final Map<Integer, String> errors = new TreeMap<>();
+    private int received;
+
+    private BatchInput() {
+    }
+
+    static <T> BatchInput<T> read(Request req, Class<T> type) throws IOException {
+        BatchInput<T> input = new BatchInput<>();
+        PushbackReader body = new PushbackReader(new BufferedReader(
+                new InputStreamReader(req.raw().getInputStream(), StandardCharsets.UTF_8)));
+        int first = skipWhitespace(body);
+        if (first == '[') {
+            input.readArray(body, type);
+        } else if (first != -1) {
+            input.readLines(body, type);
+        }
+        return input;
+    }
+
+    // a body holding a single row, a JSON object; one that does not parse into the entity is a client error
+    static <T> T readOne(Request req, Class<T> type) {
+        JsonElement element;
+        try {
+            element = JsonParser.parseString(req.body());
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("the body is not valid JSON: " + e.getMessage());
+        }
+        if (!element.isJsonObject()) {
+            throw new IllegalArgumentException("the body is not a JSON object");
+        }
+        try {
+            return GSON.fromJson(element, type);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("invalid row: " + e.getMessage());
+        }
+    }
+
+    List<T> getRows() {
+        return rows;
+    }
+
+    // the response body: how many rows were received and created, the created ids in input order, and
+    // an error for every other row, by its position in the body (counting from 0)
+    Map<String, Object> report(BatchResult result) {
+        Map<Integer, String> allErrors = new TreeMap<>(errors);
+        result.getErrors().forEach((row, error) -> allErrors.put(positions.get(row), error));
+        List<Map<String, Object>> errorList = new ArrayList<>();
+        allErrors.forEach((row, error) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("row", row);
+            entry.put("error", error);
+            errorList.add(entry);
+        });
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("received", received);
+        report.put("created", result.getIds().size());
+        report.put("ids", result.getIds());
+        report.put("errors", errorList);
+        return report;
+    }
+
+    private void readArray(Reader body, Class<T> type) {
+        JsonReader reader = new JsonReader(body);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                add(JsonParser.parseReader(reader), type);
+            }
+            reader.endArray();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IllegalArgumentException("the body has more after the JSON array");
+            }
+        } catch (JsonParseException | IllegalStateException | IOException e) {
+            throw new IllegalArgumentException("the body is not a JSON array: " + e.getMessage());
+        }
+    }
+
+    private void readLines(Reader body, Class<T> type) throws IOException {
+        BufferedReader lines = new BufferedReader(body);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonElement element;
+            try {
+                element = JsonParser.parseString(line);
+            } catch (JsonParseException e) {
+                countRow();
+                errors.put(received - 1, "not valid JSON: " + e.getMessage());
+                continue;
+            }
+            add(element, type);
+        }
+    }
+
+    private void add(JsonElement element, Class<T> type) {
+        int position = countRow();
+        if (!element.isJsonObject()) {
+            errors.put(position, "not a JSON object");
+            return;
+        }
+        try {
+            rows.add(GSON.fromJson(element, type));
+            positions.add(position);
+        } catch (JsonParseException | IllegalArgumentException e) {
+            errors.put(position, "invalid row: " + e.getMessage());
+        }
+    }
+
+    private int countRow() {
+        if (received == MAX_ROWS) {
+            throw new IllegalArgumentException("a batch holds at most " + MAX_ROWS + " rows");
+        }
+        return received++;
+    }
+
+    private static int skipWhitespace(PushbackReader body) throws IOException {
+        int c;
+        do {
+            c = body.read();
+        } while (c != -1 && Character.isWhitespace(c));
+        if (c != -1) {
+            body.unread(c);
+        }
+        return c;
+    }
+}
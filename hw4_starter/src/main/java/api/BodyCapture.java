@@ -0,0 +1,82 @@
+package api;
+
+import spark.Request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Keeps a copy of a response body that a route streams, so that it can be cached. Bodies larger than
+// maxBytes are not kept: once the copy grows past the limit it is dropped and the rest is only streamed.
+final class BodyCapture {
+
+    private static final String ATTRIBUTE = BodyCapture.class.getName();
+
+    private final int maxBytes;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private boolean used;
+
+    BodyCapture(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // capture what routes stream for this request
+    void attachTo(Request req) {
+        req.attribute(ATTRIBUTE, this);
+    }
+
+    // the stream a route writes its body to: the given stream, copied if a capture is attached to the request
+    static OutputStream wrap(Request req, OutputStream out) {
+        BodyCapture capture = req.attribute(ATTRIBUTE);
+        return capture == null ? out : capture.wrap(out);
+    }
+
+    // whether the route streamed its body (instead of returning it)
+    boolean isUsed() {
+        return used;
+    }
+
+    // the whole streamed body, or null if it was larger than maxBytes
+    byte[] getBytes() {
+        return copy == null ? null : copy.toByteArray();
+    }
+
+    private OutputStream wrap(OutputStream out) {
+        used = true;
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                if (copy != null) {
+                    copy.write(b);
+                    checkSize();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                if (copy != null) {
+                    copy.write(b, off, len);
+                    checkSize();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    private void checkSize() {
+        if (copy.size() > maxBytes) {
+            copy = null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import model.Change;
+import model.Employer;
+import model.Job;
+import persistence.ChangeBatch;
+import persistence.ChangeLog;
+import persistence.EmployerRepository;
+import persistence.JobRepository;
+import persistence.ResyncRequiredException;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The change feed endpoints: what changed in jobs and employers after a sequence the client saw, so it can
+// keep a copy in sync without reading /jobs and /employers again. A client reads the latest sequence
+// (GET /changes), reads everything once, then asks for the changes since that sequence, either by polling
+// GET /changes?since= or through the server-sent events of /changes/stream. A client that fell behind
+// further than the feed's retention gets 410 Gone (or a "resync" event) and starts over.
+public class ChangeRoutes {
+
+    // how long an EventSource waits before it reconnects after the stream ended
+    private static final int RETRY_MILLIS = 3_000;
+
+    private final ChangeLog changes;
+    private final JobRepository jobs;
+    private final EmployerRepository employers;
+    private final int maxStreams;
+    private final long streamMillis;
+    private final long heartbeatMillis;
+    private final AtomicInteger streams = new AtomicInteger();
+
+    // every stream holds a request thread: at most maxStreams run at once, each for at most streamMillis
+    // (clients reconnect with Last-Event-ID), with a comment line every heartbeatMillis when there is no change
+    public ChangeRoutes(ChangeLog changes, JobRepository jobs, EmployerRepository employers, int maxStreams,
+                        long streamMillis, long heartbeatMillis) {
+        this.changes = changes;
+        this.jobs = jobs;
+        this.employers = employers;
+        this.maxStreams = maxStreams;
+        this.streamMillis = streamMillis;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    public void register() {
+        // {"changes": [...], "next": <seq>, "latest": <seq>, "more": <bool>}: up to limit (default 50) changes
+        // after since, oldest first, as {"seq", "type" (job / employer), "id", "op" (upsert / delete), "at"}
+        // plus the current job / employer for upserts. Only the last change of each job / employer is listed.
+        // Without since there are no changes, just the latest sequence. 410 if since is too old.
+        Routes.get("/changes", (req, res) -> {
+            Long since = Params.longInteger(req, "since");
+            ChangeBatch batch;
+            if (since == null) {
+                // read once: a write between two reads would give a cursor past the latest sequence reported
+                long latest = changes.latestSeq();
+                batch = new ChangeBatch(Collections.emptyList(), latest, latest);
+            } else {
+                batch = changes.read(since, Pagination.limit(req));
+            }
+            res.type("application/json");
+            res.status(200);
+            return Json.GSON.toJson(toJson(batch));
+        });
+
+        // server-sent events: a "changes" event (with the same data as GET /changes, its id the next sequence)
+        // whenever there are changes after since (or the Last-Event-ID header, or the latest sequence); a
+        // "resync" event, after which the stream ends, if the client fell too far behind
+        Routes.get("/changes/stream", this::stream);
+    }
+
+    private Object stream(Request req, Response res) throws SQLException, InterruptedException {
+        Long since = Params.longInteger(req, "since");
+        String lastEventId = req.headers("Last-Event-ID");
+        if (since == null && lastEventId != null && !lastEventId.isEmpty()) {
+            try {
+                since = Long.parseLong(lastEventId);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Last-Event-ID must be a number but was '" + lastEventId + "'");
+            }
+        }
+        if (streams.incrementAndGet() > maxStreams) {
+            streams.decrementAndGet();
+            res.type("application/json");
+            res.status(503);
+            res.header("Retry-After", Integer.toString(RETRY_MILLIS / 1000));
+            return Json.GSON.toJson(Collections.singletonMap("error", "Too many change streams"));
+        }
+        try {
+            stream(res.raw(), since == null ? changes.latestSeq() : since);
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            streams.decrementAndGet();
+        }
+        return "";
+    }
+
+    private void stream(HttpServletResponse raw, long since) throws IOException, SQLException, InterruptedException {
+        raw.setStatus(200);
+        raw.setContentType("text/event-stream");
+        raw.setCharacterEncoding("UTF-8");
+        raw.setHeader("Cache-Control", "no-cache");
+        Writer out = new OutputStreamWriter(raw.getOutputStream(), StandardCharsets.UTF_8);
+        out.write("retry: " + RETRY_MILLIS + "\n\n");
+        long end = System.currentTimeMillis() + streamMillis;
+        long now;
+        while ((now = System.currentTimeMillis()) < end) {
+            // a write after this count is seen by the read below or wakes the wait after it
+            long seen = changes.getWriteCount();
+            ChangeBatch batch;
+            try {
+                batch = changes.read(since, Pagination.MAX_LIMIT);
+            } catch (ResyncRequiredException e) {
+                JsonObject data = new JsonObject();
+                data.addProperty("error", e.getMessage());
+                data.addProperty("latest", e.getLatest());
+                event(out, "resync", null, data);
+                break;
+            }
+            if (!batch.getChanges().isEmpty()) {
+                event(out, "changes", batch.getNext(), toJson(batch));
+                since = batch.getNext();
+            }
+            if (batch.hasMore()) {
+                continue;
+            }
+            out.flush();
+            // writes by other processes wake it too with multiInstance.enabled, else they are picked up with the
+            // heartbeat
+            if (changes.awaitWrite(seen, Math.min(heartbeatMillis, end - now)) == seen) {
+                out.write(": keepalive\n\n");
+            }
+        }
+        out.flush();
+    }
+
+    private static void event(Writer out, String name, Long id, JsonObject data) throws IOException {
+        if (id != null) {
+            out.write("id: " + id + "\n");
+        }
+        out.write("event: " + name + "\ndata: " + Json.GSON.toJson(data) + "\n\n");
+    }
+
+    private JsonObject toJson(ChangeBatch batch) throws SQLException {
+        // the last change of each job / employer, in sequence order
+        Map<String, Change> last = new LinkedHashMap<>();
+        for (Change change : batch.getChanges()) {
+            String key = change.getType() + ":" + change.getId();
+            last.remove(key);
+            last.put(key, change);
+        }
+        List<Integer> jobIds = new ArrayList<>();
+        List<Integer> employerIds = new ArrayList<>();
+        for (Change change : last.values()) {
+            if (change.getOp().equals(Change.UPSERT)) {
+                (change.getType().equals(Change.JOB) ? jobIds : employerIds).add(change.getId());
+            }
+        }
+        Map<Integer, Job> jobsById = jobIds.isEmpty() ? Collections.emptyMap() : jobs.findByIds(jobIds);
+        Map<Integer, Employer> employersById = employerIds.isEmpty()
+                ? Collections.emptyMap() : employers.findByIds(employerIds);
+        JsonArray items = new JsonArray();
+        for (Change change : last.values()) {
+            JsonObject item = Json.GSON.toJsonTree(change).getAsJsonObject();
+            if (change.getOp().equals(Change.UPSERT)) {
+                // gone by now if a later change, not read yet, deleted it
+                Object entity = change.getType().equals(Change.JOB)
+                        ? jobsById.get(change.getId()) : employersById.get(change.getId());
+                if (entity != null) {
+                    item.add(change.getType(), Json.GSON.toJsonTree(entity));
+                }
+            }
+            items.add(item);
+        }
+        JsonObject body = new JsonObject();
+        body.add("changes", items);
+        body.addProperty("next", batch.getNext());
+        body.addProperty("latest", batch.getLatest());
+        body.addProperty("more", batch.hasMore());
+        return body;
+    }
+}
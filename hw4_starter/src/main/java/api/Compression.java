@@ -0,0 +1,204 @@
+package api;
+
+import config.AppConfig;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// gzip for response bodies of at least minBytes, for clients that accept it (Accept-Encoding). Smaller
+// bodies are sent as they are: compressing them costs more time than it saves. Bodies routes return are
+// compressed by Spark (see install); streamed bodies by the stream JsonStream writes to (see wrap), which
+// holds back the first minBytes to decide; and ConditionalGet caches compressed bodies next to plain ones,
+// so an unchanged result set is compressed once.
+public class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String IDENTITY = "identity";
+
+    private static final String ATTRIBUTE = Compression.class.getName();
+    // appended to the ETag of a gzipped body, which is a different representation than the plain one
+    private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+    private final boolean enabled;
+    private final int minBytes;
+    private final int level;
+
+    public Compression(boolean enabled, int minBytes, int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be between 1 and 9 but was " + level);
+        }
+        this.enabled = enabled;
+        this.minBytes = minBytes;
+        this.level = level;
+    }
+
+    // build the settings from jbapp.http.compression.* system properties / environment variables
+    public static Compression fromAppConfig() {
+        return new Compression(
+                AppConfig.getBoolean("http.compression.enabled", true),
+                AppConfig.getInt("http.compression.minBytes", 1024),
+                AppConfig.getInt("http.compression.level", 6));
+    }
+
+    // negotiate the encoding of every response, and have Spark compress the large bodies routes return
+    public void install() {
+        if (!enabled) {
+            return;
+        }
+        Spark.before((req, res) -> {
+            res.header("Vary", "Accept-Encoding");
+            if (acceptsGzip(req.headers("Accept-Encoding"))) {
+                req.attribute(ATTRIBUTE, this);
+            }
+        });
+        // Spark gzips the body it writes when the response says Content-Encoding: gzip; routes that wrote
+        // their body themselves return "", which leaves no body here
+        Spark.after((req, res) -> {
+            String body = res.body();
+            if (isAccepted(req) && body != null && body.length() >= minBytes
+                    && res.raw().getHeader("Content-Encoding") == null) {
+                markGzipped(res);
+            }
+        });
+    }
+
+    // whether the response to the request may be compressed
+    public static boolean isAccepted(Request req) {
+        return req.attribute(ATTRIBUTE) != null;
+    }
+
+    public boolean shouldCompress(Request req, int length) {
+        return isAccepted(req) && length >= minBytes;
+    }
+
+    public byte[] gzip(byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (OutputStream out = newGzipStream(bytes)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // the stream a route streams its body to: the given stream, through gzip once the body reaches minBytes if
+    // the client accepts it. The caller must close it to finish the body; closing leaves the given stream open.
+    static OutputStream wrap(Request req, Response res, OutputStream out) {
+        Compression compression = req.attribute(ATTRIBUTE);
+        return compression == null ? out : compression.new DeferredGzipStream(res, out);
+    }
+
+    // say that the body is gzipped, and give it the gzip variant of the ETag set so far (if any): a strong ETag
+    // names one exact sequence of bytes, so the plain and the gzipped body cannot share one
+    static void markGzipped(Response res) {
+        res.header("Content-Encoding", GZIP);
+        String etag = res.raw().getHeader("ETag");
+        if (etag != null) {
+            // replaced, not added to (res.header adds)
+            res.raw().setHeader("ETag", gzipEtag(etag));
+        }
+    }
+
+    // "<tag>" as the ETag of the gzipped body: "<tag>-gzip"
+    public static String gzipEtag(String etag) {
+        return etag.endsWith("\"")
+                ? etag.substring(0, etag.length() - 1) + GZIP_ETAG_SUFFIX + "\""
+                : etag + GZIP_ETAG_SUFFIX;
+    }
+
+    // whether gzip is in the Accept-Encoding header with a non-zero quality, e.g. "gzip, deflate, br"
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase(GZIP) && !name.equals("*")) {
+                continue;
+            }
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            return q > 0;
+        }
+        return false;
+    }
+
+    private GZIPOutputStream newGzipStream(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    // holds back the first minBytes of a body: a body that ends before that is sent as it is, a longer one is
+    // sent gzipped, with Content-Encoding set before anything has been written
+    private final class DeferredGzipStream extends OutputStream {
+
+        private final Response res;
+        private final OutputStream out;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private GZIPOutputStream gzip;
+
+        DeferredGzipStream(Response res, OutputStream out) {
+            this.res = res;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (gzip != null) {
+                gzip.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() >= minBytes) {
+                markGzipped(res);
+                gzip = newGzipStream(out);
+                pending.writeTo(gzip);
+                pending = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // undecided bytes stay back until there are enough of them or the body ends
+            if (gzip != null) {
+                gzip.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (gzip != null) {
+                gzip.finish();
+            } else if (pending != null) {
+                pending.writeTo(out);
+                pending = null;
+            }
+            out.flush();
+        }
+    }
+}
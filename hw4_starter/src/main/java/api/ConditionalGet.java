@@ -0,0 +1,206 @@
+package api;
+
+import cache.LruCache;
+import persistence.TableVersions;
+import persistence.TableVersions.Table;
+import persistence.WriteListener;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// HTTP conditional GET for JSON routes that are built from whole tables. The ETag and Last-Modified of a
+// response come from the versions of the tables it is built from (the ETag of a gzipped body with a -gzip
+// suffix, see Compression), so If-None-Match / If-Modified-Since are answered with 304 before the route runs,
+// without touching a DAO or Gson. Bodies of 200 responses are cached by URL, ETag and encoding, so repeated
+// reads of unchanged tables are served from memory, and compressed only the first time. Writes make the
+// cached bodies unreachable through the versions; when any row may have been written (allWritten), they are
+// dropped outright.
+public class ConditionalGet implements WriteListener {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final TableVersions versions;
+    private final LruCache<String, byte[]> bodies;
+    private final int maxBodyBytes;
+    private final Compression compression;
+
+    public ConditionalGet(TableVersions versions, LruCache<String, byte[]> bodies, int maxBodyBytes,
+                          Compression compression) {
+        this.versions = versions;
+        this.bodies = bodies;
+        this.maxBodyBytes = maxBodyBytes;
+        this.compression = compression;
+    }
+
+    // the route, made conditional; tables tells which tables a request's response is built from
+    public Route wrap(Function<Request, Table[]> tables, Route route) {
+        return (req, res) -> {
+            Table[] sources = tables.apply(req);
+            String etag = versions.etag(sources);
+            long lastModified = versions.lastModified(sources);
+            res.header("ETag", etag);
+            res.header("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(lastModified)));
+            // clients may keep the body but must revalidate it before every use
+            res.header("Cache-Control", "no-cache");
+            if (isNotModified(req, etag, lastModified)) {
+                // the client holds the plain or the gzipped body; the 304 names the one it holds
+                if (holds(req, Compression.gzipEtag(etag))) {
+                    res.raw().setHeader("ETag", Compression.gzipEtag(etag));
+                }
+                res.status(304);
+                return "";
+            }
+            String key = cacheKey(req, etag);
+            byte[] gzipped = Compression.isAccepted(req) ? cachedGzip(req, key) : null;
+            if (gzipped != null) {
+                write(res, gzipped, Compression.GZIP);
+                return "";
+            }
+            byte[] cached = bodies.get(key + "|" + Compression.IDENTITY);
+            if (cached != null) {
+                write(res, cached, Compression.IDENTITY);
+                return "";
+            }
+            BodyCapture capture = new BodyCapture(maxBodyBytes);
+            capture.attachTo(req);
+            Object body = route.handle(req, res);
+            if (res.status() != 200) {
+                return body;
+            }
+            if (capture.isUsed()) {
+                // streamed, and compressed on the way if it was large enough
+                byte[] bytes = capture.getBytes();
+                if (bytes != null) {
+                    String encoding = res.raw().getHeader("Content-Encoding");
+                    bodies.put(key + "|" + (encoding == null ? Compression.IDENTITY : encoding), bytes);
+                }
+                return body;
+            }
+            byte[] bytes = toBytes(body);
+            if (bytes == null || bytes.length > maxBodyBytes) {
+                return body;
+            }
+            if (compression.shouldCompress(req, bytes.length)) {
+                byte[] compressed = compression.gzip(bytes);
+                bodies.put(key + "|" + Compression.GZIP, compressed);
+                write(res, compressed, Compression.GZIP);
+                return "";
+            }
+            bodies.put(key + "|" + Compression.IDENTITY, bytes);
+            return body;
+        };
+    }
+
+    // the cached gzipped body, compressed from the cached plain one the first time a client accepts gzip
+    private byte[] cachedGzip(Request req, String key) {
+        byte[] gzipped = bodies.get(key + "|" + Compression.GZIP);
+        if (gzipped != null) {
+            return gzipped;
+        }
+        byte[] plain = bodies.get(key + "|" + Compression.IDENTITY);
+        if (plain == null || !compression.shouldCompress(req, plain.length)) {
+            return null;
+        }
+        gzipped = compression.gzip(plain);
+        bodies.put(key + "|" + Compression.GZIP, gzipped);
+        return gzipped;
+    }
+
+    private static void write(Response res, byte[] body, String encoding) throws IOException {
+        res.type("application/json");
+        res.status(200);
+        if (encoding.equals(Compression.GZIP)) {
+            Compression.markGzipped(res);
+        }
+        res.raw().setContentLength(body.length);
+        res.raw().getOutputStream().write(body);
+    }
+
+    public Route wrap(Table table, Route route) {
+        Table[] tables = {table};
+        return wrap(req -> tables, route);
+    }
+
+    public Map<String, Object> describe() {
+        return bodies.describe();
+    }
+
+    // the versions move on with every write, and the bodies with them
+    @Override
+    public void jobWritten(int id) {
+    }
+
+    @Override
+    public void employerWritten(int id) {
+    }
+
+    @Override
+    public void jobsWritten(Collection<Integer> ids) {
+    }
+
+    @Override
+    public void employersWritten(Collection<Integer> ids) {
+    }
+
+    @Override
+    public void allWritten(Collection<Integer> jobIds, Collection<Integer> employerIds) {
+        bodies.invalidateAll();
+    }
+
+    private static boolean isNotModified(Request req, String etag, long lastModified) {
+        String ifNoneMatch = req.headers("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since; either encoding of the body is current
+            return holds(req, "*") || holds(req, etag) || holds(req, Compression.gzipEtag(etag));
+        }
+        String ifModifiedSince = req.headers("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = Instant.from(HTTP_DATE.parse(ifModifiedSince)).toEpochMilli();
+                // HTTP dates have whole seconds
+                return lastModified / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // whether the tag is one of the If-None-Match tags
+    private static boolean holds(Request req, String etag) {
+        String ifNoneMatch = req.headers("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            if (tag.trim().equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // path, query parameters in a fixed order, and the ETag the body belongs to
+    private static String cacheKey(Request req, String etag) {
+        Map<String, String> params = new TreeMap<>();
+        for (String name : req.queryParams()) {
+            params.put(name, String.join(",", req.queryParamsValues(name)));
+        }
+        return req.pathInfo() + "?" + params + "#" + etag;
+    }
+
+    private static byte[] toBytes(Object body) {
+        return body instanceof String ? ((String) body).getBytes(StandardCharsets.UTF_8) : null;
+    }
+}
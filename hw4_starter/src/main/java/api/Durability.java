@@ -0,0 +1,65 @@
+package api;
+
+import config.AppConfig;
+import spark.Request;
+import spark.Response;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// When a single-row write is answered (durability=queued / committed, default writes.durability): committed
+// waits until the row is in the database; queued answers as soon as the row is checked, has its id and is
+// queued for the write-behind writer, at the risk of losing it if the process stops first. Without a
+// write-behind queue (writes.writeBehind.enabled) every write is committed before it is answered.
+enum Durability {
+    QUEUED("queued"),
+    COMMITTED("committed");
+
+    private static final Durability DEFAULT = fromParam(AppConfig.getString("writes.durability", "committed"));
+
+    private final String param;
+
+    Durability(String param) {
+        this.param = param;
+    }
+
+    static Durability fromRequest(Request req) {
+        String value = Params.string(req, "durability");
+        return value == null ? DEFAULT : fromParam(value);
+    }
+
+    static Durability fromParam(String param) {
+        for (Durability durability : values()) {
+            if (durability.param.equals(param)) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException("durability must be queued or committed but was '" + param + "'");
+    }
+
+    // the response to a write of the row with the id: {"id", "status"}, with the given status once the row is
+    // committed, or 202 Accepted while it is still queued. A write that failed is thrown (a SQLException).
+    String respond(Response res, int id, CompletableFuture<Void> written, int committedStatus)
+            throws SQLException, InterruptedException {
+        if (this == COMMITTED || written.isDone()) {
+            try {
+                written.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new IllegalStateException("Could not write row " + id, e.getCause());
+            }
+        }
+        boolean committed = written.isDone();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", id);
+        body.put("status", committed ? COMMITTED.param : QUEUED.param);
+        res.type("application/json");
+        res.status(committed ? committedStatus : 202);
+        return Json.GSON.toJson(body);
+    }
+}
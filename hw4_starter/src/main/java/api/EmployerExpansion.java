@@ -0,0 +1,76 @@
+package api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import model.Employer;
+import model.Job;
+import persistence.EmployerRepository;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Serializes jobs with their full employer (?expand=employer) for one response. Job.employer only holds
+// the employer id, so instead of one lookup per job the employers of a whole batch of jobs are loaded
+// with a single IN query. Each distinct employer is loaded and serialized once per response and the same
+// JSON tree is reused for every job that references it.
+class EmployerExpansion {
+
+    static final String PARAM = "expand";
+    static final String EMPLOYER = "employer";
+
+    private final EmployerRepository employers;
+    private final Map<Integer, JsonElement> employerJson = new HashMap<>();
+
+    EmployerExpansion(EmployerRepository employers) {
+        this.employers = employers;
+    }
+
+    // whether the request asked for expanded employers; any other expand value is rejected
+    static boolean isRequested(spark.Request req) {
+        String expand = req.queryParams(PARAM);
+        if (expand == null || expand.isEmpty()) {
+            return false;
+        }
+        if (!EMPLOYER.equals(expand)) {
+            throw new IllegalArgumentException("Unknown expand '" + expand + "'");
+        }
+        return true;
+    }
+
+    // load the employers of this batch that previous batches have not loaded yet
+    void load(List<Job> jobs) throws SQLException {
+        Set<Integer> missing = new LinkedHashSet<>();
+        for (Job job : jobs) {
+            Employer employer = job.getEmployer();
+            if (employer != null && employer.getId() != null && !employerJson.containsKey(employer.getId())) {
+                missing.add(employer.getId());
+            }
+        }
+        Map<Integer, Employer> loaded = employers.findByIds(missing);
+        for (Integer id : missing) {
+            Employer employer = loaded.get(id);
+            // a dangling employer_id keeps its id-only stub
+            employerJson.put(id, employer == null ? stub(id) : Json.GSON.toJsonTree(employer));
+        }
+    }
+
+    // the job as JSON with its employer replaced by the full employer; load() must have seen the job
+    JsonElement toJson(Job job) {
+        JsonObject json = Json.GSON.toJsonTree(job).getAsJsonObject();
+        Employer employer = job.getEmployer();
+        if (employer != null && employer.getId() != null) {
+            json.add(EMPLOYER, employerJson.get(employer.getId()));
+        }
+        return json;
+    }
+
+    private static JsonElement stub(int id) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        return json;
+    }
+}
@@ -0,0 +1,69 @@
+package api;
+
+import model.Employer;
+import persistence.EmployerRepository;
+import persistence.TableVersions.Table;
+
+import java.util.concurrent.CompletableFuture;
+
+// The "employers" endpoints.
+public class EmployerRoutes {
+
+    private final EmployerRepository employers;
+    private final ConditionalGet conditionalGet;
+
+    public EmployerRoutes(EmployerRepository employers, ConditionalGet conditionalGet) {
+        this.employers = employers;
+        this.conditionalGet = conditionalGet;
+    }
+
+    public void register() {
+        // all employers as a streamed JSON array, or one page ({"items": [...], "next": "<cursor>"}) when
+        // a limit or cursor is given. Supports conditional GET.
+        Routes.get("/employers", conditionalGet.wrap(Table.EMPLOYERS, (req, res) -> {
+            if (!Pagination.isRequested(req)) {
+                JsonStream.writeArray(req, res, employers.iterateAll(), Employer.class);
+                return "";
+            }
+            String results = Json.GSON.toJson(employers.page(Pagination.cursor(req), Pagination.limit(req)));
+            res.type("application/json");
+            res.status(200);
+            return results;
+        }));
+
+        // create one employer from a JSON object; answers {"id", "status"}, 201 once it is committed or 202
+        // while it is queued (durability=queued, with writes.writeBehind.enabled)
+        Routes.post("/employers", (req, res) -> {
+            // the body first: reading a query parameter can consume a form-encoded body
+            Employer employer = BatchInput.readOne(req, Employer.class);
+            Durability durability = Durability.fromRequest(req);
+            // the id is the server's to give
+            employer.setId(null);
+            CompletableFuture<Void> written = employers.submitCreate(employer);
+            return durability.respond(res, employer.getId(), written, 201);
+        });
+
+        // replace the employer with the id (404 if there is none); answers like POST /employers, with 200
+        // once committed
+        Routes.put("/employers/:id", (req, res) -> {
+            int id = Params.pathInteger(req, ":id");
+            Employer employer = BatchInput.readOne(req, Employer.class);
+            Durability durability = Durability.fromRequest(req);
+            if (!employers.exists(id)) {
+                return Routes.notFound(res, "employer " + id + " does not exist");
+            }
+            employer.setId(id);
+            return durability.respond(res, id, employers.submitUpdate(employer), 200);
+        });
+
+        // create many employers from a JSON array or NDJSON body, a few hundred per transaction; reports the
+        // created ids and an error for every row that was rejected
+        Routes.post("/employers/batch", (req, res) -> {
+            BatchInput<Employer> input = BatchInput.read(req, Employer.class);
+            String results = Json.GSON.toJson(input.report(employers.createAll(input.getRows())));
+            res.type("application/json");
+            res.status(200);
+            return results;
+        });
+    }
+}
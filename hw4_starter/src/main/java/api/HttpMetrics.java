@@ -0,0 +1,57 @@
+package api;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import spark.Spark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Request counts by route and status, and latency and response size histograms by route, for every request.
+// They are recorded by Jetty's request log once the response is complete, so they include the body written
+// after the route returned and requests that failed, and the size is what was actually sent (streamed or
+// not). Requests that matched no route registered through Routes are reported as route "unmatched".
+public class HttpMetrics implements RequestLog {
+
+    private static final String START_ATTRIBUTE = HttpMetrics.class.getName() + ".start";
+    private static final String UNMATCHED = "unmatched";
+
+    private final MetricsRegistry registry;
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> sizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> requests = new ConcurrentHashMap<>();
+
+    public HttpMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    // start measuring every request; the metrics are recorded when Jetty logs the request, so this must also
+    // be the server's request log (see JettyServers)
+    public void install() {
+        Spark.before((req, res) -> req.attribute(START_ATTRIBUTE, System.nanoTime()));
+    }
+
+    @Override
+    public void log(Request request, Response response) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - (Long) start;
+        Object name = request.getAttribute(Routes.NAME_ATTRIBUTE);
+        String route = name == null ? UNMATCHED : (String) name;
+        int status = response.getStatus();
+        requests.computeIfAbsent(route + "|" + status, key -> registry.counter("jbapp_http_requests_total",
+                "HTTP requests by route and status", "route", route, "status", Integer.toString(status))).inc();
+        latencies.computeIfAbsent(route, key -> registry.histogram("jbapp_http_request_duration_seconds",
+                "Time from the start of a request until its response was complete", Histogram.LATENCY_BUCKETS,
+                "route", route)).observeNanos(nanos);
+        sizes.computeIfAbsent(route, key -> registry.histogram("jbapp_http_response_bytes",
+                "Size of response bodies", Histogram.SIZE_BUCKETS,
+                "route", route)).observe(request.getHttpChannel().getBytesWritten());
+    }
+}
@@ -0,0 +1,56 @@
+package api;
+
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+// Configures the Jetty server Spark embeds: its port, its request threads, and a request log that sees every
+// completed response. Call before any route is registered, as registering the first route starts the server.
+public final class JettyServers {
+
+    private static final Logger log = LoggerFactory.getLogger(JettyServers.class);
+
+    private JettyServers() {
+    }
+
+    public static void configure(ServerConfig config, RequestLog requestLog) {
+        Spark.port(config.getPort());
+        ThreadPool threadPool = threadPool(config);
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory(new JettyServerFactory() {
+            @Override
+            public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+                return create(threadPool);
+            }
+
+            @Override
+            public Server create(ThreadPool ignored) {
+                Server server = new Server(threadPool);
+                server.setRequestLog(requestLog);
+                return server;
+            }
+        }));
+        log.info("Configured {}, request threads: {}", config, threadPool.getClass().getSimpleName());
+    }
+
+    private static ThreadPool threadPool(ServerConfig config) {
+        if (config.getThreadMode() == ServerConfig.ThreadMode.VIRTUAL) {
+            VirtualThreadPool pool = VirtualThreadPool.create();
+            if (pool != null) {
+                return pool;
+            }
+            log.warn("This JVM ({}) has no virtual threads; handling requests on platform threads instead",
+                    System.getProperty("java.version"));
+        }
+        QueuedThreadPool pool = new QueuedThreadPool(config.getMaxThreads(), config.getMinThreads(),
+                config.getIdleTimeoutMillis());
+        pool.setName("http");
+        return pool;
+    }
+}
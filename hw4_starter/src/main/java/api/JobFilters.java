@@ -0,0 +1,29 @@
+package api;
+
+import persistence.JobFilter;
+import spark.Request;
+
+// Reads the /jobs filter query parameters.
+final class JobFilters {
+
+    private JobFilters() {
+    }
+
+    static JobFilter fromRequest(Request req) {
+        JobFilter filter = new JobFilter();
+        filter.setLocation(Params.string(req, "location"));
+        filter.setDomain(Params.string(req, "domain"));
+        filter.setFullTime(Params.bool(req, "fullTime"));
+        filter.setSalaryBased(Params.bool(req, "salaryBased"));
+        filter.setPayMin(Params.integer(req, "payMin"));
+        filter.setPayMax(Params.integer(req, "payMax"));
+        filter.setPostedAfter(Params.date(req, "postedAfter"));
+        filter.setPostedBefore(Params.date(req, "postedBefore"));
+        filter.setDeadlineAfter(Params.date(req, "deadlineAfter"));
+        filter.setDeadlineBefore(Params.date(req, "deadlineBefore"));
+        filter.setEmployerId(Params.integer(req, "employerId"));
+        filter.setSector(Params.string(req, "sector"));
+        filter.setIncludeArchived(Boolean.TRUE.equals(Params.bool(req, "includeArchived")));
+        return filter;
+    }
+}
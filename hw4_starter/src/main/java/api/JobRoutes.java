@@ -0,0 +1,179 @@
+package api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import model.Job;
+import persistence.EmployerRepository;
+import persistence.JobFilter;
+import persistence.JobRepository;
+import persistence.JobSort;
+import persistence.Page;
+import persistence.TableVersions.Table;
+import spark.Request;
+import spark.Response;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// The "jobs" endpoints.
+public class JobRoutes {
+
+    // jobs per page when streaming all jobs with ?expand=employer or ?includeArchived=true
+    private static final int STREAM_PAGE_SIZE = 500;
+    // jobs /jobs/top returns without k
+    private static final int DEFAULT_TOP = 10;
+
+    // responses built from jobs only, and from jobs and their employers
+    private static final Table[] JOBS = {Table.JOBS};
+    private static final Table[] JOBS_AND_EMPLOYERS = {Table.JOBS, Table.EMPLOYERS};
+
+    private final JobRepository jobs;
+    private final EmployerRepository employers;
+    private final ConditionalGet conditionalGet;
+
+    public JobRoutes(JobRepository jobs, EmployerRepository employers, ConditionalGet conditionalGet) {
+        this.jobs = jobs;
+        this.employers = employers;
+        this.conditionalGet = conditionalGet;
+    }
+
+    public void register() {
+        Routes.get("/jobs", conditionalGet.wrap(JobRoutes::tables, this::list));
+
+        Routes.get("/jobs/top", conditionalGet.wrap(JobRoutes::tables, this::top));
+
+        // search results depend on employers too: the index covers employer names and sectors
+        Routes.get("/jobs/search", conditionalGet.wrap(req -> JOBS_AND_EMPLOYERS, this::search));
+
+        // create one job from a JSON object; answers {"id", "status"}, 201 once it is committed or 202 while it
+        // is queued (durability=queued, with writes.writeBehind.enabled)
+        Routes.post("/jobs", (req, res) -> {
+            // the body first: reading a query parameter can consume a form-encoded body
+            Job job = BatchInput.readOne(req, Job.class);
+            Durability durability = Durability.fromRequest(req);
+            // the id is the server's to give
+            job.setId(0);
+            CompletableFuture<Void> written = jobs.submitCreate(job);
+            return durability.respond(res, job.getId(), written, 201);
+        });
+
+        // replace the job with the id (404 if there is none); answers like POST /jobs, with 200 once committed
+        Routes.put("/jobs/:id", (req, res) -> {
+            int id = Params.pathInteger(req, ":id");
+            Job job = BatchInput.readOne(req, Job.class);
+            Durability durability = Durability.fromRequest(req);
+            if (!jobs.exists(id)) {
+                return Routes.notFound(res, "job " + id + " does not exist");
+            }
+            job.setId(id);
+            return durability.respond(res, id, jobs.submitUpdate(job), 200);
+        });
+
+        // create many jobs from a JSON array or NDJSON body, a few hundred per transaction; reports the
+        // created ids and an error for every row that was rejected
+        Routes.post("/jobs/batch", (req, res) -> {
+            BatchInput<Job> input = BatchInput.read(req, Job.class);
+            String results = Json.GSON.toJson(input.report(jobs.createAll(input.getRows())));
+            res.type("application/json");
+            res.status(200);
+            return results;
+        });
+    }
+
+    // all jobs as a streamed JSON array, or one page ({"items": [...], "next": "<cursor>"}) when a
+    // limit or cursor is given. sort=id (default) lists in id order, sort=datePosted lists newest first,
+    // sort=payAmount best paid first.
+    // expand=employer replaces the id-only employer of each job with the full employer. The listing can
+    // be filtered by location, domain, fullTime, salaryBased, payMin / payMax (inclusive), postedAfter /
+    // postedBefore and deadlineAfter / deadlineBefore (on or after / before), employerId and sector (of the
+    // employer). Jobs past their deadline may have been archived (jobs.archive.enabled); includeArchived=true
+    // lists them too.
+    private Object list(Request req, Response res) throws Exception {
+        JobFilter filter = JobFilters.fromRequest(req);
+        boolean expand = EmployerExpansion.isRequested(req);
+        if (!Pagination.isRequested(req)) {
+            if (expand || filter.isIncludeArchived()) {
+                // page by page: expanded jobs look up their employers per page, archived jobs are merged in
+                EmployerExpansion expansion = expand ? new EmployerExpansion(employers) : null;
+                JsonStream.writePages(req, res,
+                        cursor -> jobs.page(filter, JobSort.ID, cursor, STREAM_PAGE_SIZE),
+                        (rows, writer) -> {
+                            if (expansion != null) {
+                                expansion.load(rows);
+                            }
+                            for (Job job : rows) {
+                                if (expansion != null) {
+                                    Json.GSON.toJson(expansion.toJson(job), writer);
+                                } else {
+                                    Json.GSON.toJson(job, Job.class, writer);
+                                }
+                            }
+                        });
+            } else {
+                JsonStream.writeArray(req, res, jobs.iterate(filter), Job.class);
+            }
+            return "";
+        }
+        JobSort sort = JobSort.fromParam(req.queryParams("sort"));
+        Page<Job> page = jobs.page(filter, sort, Pagination.cursor(req), Pagination.limit(req));
+        res.type("application/json");
+        res.status(200);
+        return pageJson(page, expand);
+    }
+
+    // the k (default 10) best paid jobs matching the /jobs filters, highest pay first, as {"items": [...]}.
+    // by=payAmount is the only ranking so far; supports expand=employer. Pay ranges are /jobs?payMin=&payMax=,
+    // with sort=payAmount to page through them best paid first.
+    private Object top(Request req, Response res) throws Exception {
+        String by = req.queryParams("by");
+        if (by != null && !by.equals(JobSort.PAY_AMOUNT.getParam())) {
+            throw new IllegalArgumentException("Unknown ranking '" + by + "'");
+        }
+        Integer k = Params.integer(req, "k");
+        if (k != null && (k < 1 || k > Pagination.MAX_LIMIT)) {
+            throw new IllegalArgumentException("k must be between 1 and " + Pagination.MAX_LIMIT);
+        }
+        List<Job> top = jobs.topByPay(JobFilters.fromRequest(req), k == null ? DEFAULT_TOP : k);
+        res.type("application/json");
+        res.status(200);
+        return pageJson(new Page<>(top, null), EmployerExpansion.isRequested(req));
+    }
+
+    // the tables a listing is built from: the sector filter and expand=employer read employers too
+    private static Table[] tables(Request req) {
+        return EmployerExpansion.isRequested(req) || req.queryParams("sector") != null ? JOBS_AND_EMPLOYERS : JOBS;
+    }
+
+    // keyword search over title, requirements, domain, location and the employer's name and sector.
+    // Returns one page of jobs, best match first; supports limit, cursor and expand=employer.
+    private Object search(Request req, Response res) throws Exception {
+        String query = req.queryParams("q");
+        if (query == null) {
+            throw new IllegalArgumentException("q is required");
+        }
+        boolean expand = EmployerExpansion.isRequested(req);
+        Page<Job> page = jobs.search(query, Pagination.cursor(req), Pagination.limit(req));
+        res.type("application/json");
+        res.status(200);
+        return pageJson(page, expand);
+    }
+
+    private String pageJson(Page<Job> page, boolean expand) throws SQLException {
+        if (!expand) {
+            return Json.GSON.toJson(page);
+        }
+        EmployerExpansion expansion = new EmployerExpansion(employers);
+        expansion.load(page.getItems());
+        JsonArray items = new JsonArray();
+        for (Job job : page.getItems()) {
+            items.add(expansion.toJson(job));
+        }
+        JsonObject body = new JsonObject();
+        body.add("items", items);
+        if (page.getNext() != null) {
+            body.addProperty("next", page.getNext());
+        }
+        return Json.GSON.toJson(body);
+    }
+}
@@ -0,0 +1,12 @@
+package api;
+
+import com.google.gson.Gson;
+
+// The Gson instance shared by all routes; Gson is thread-safe, so there is no need for one per request.
+public final class Json {
+
+    public static final Gson GSON = new Gson();
+
+    private Json() {
+    }
+}
@@ -0,0 +1,72 @@
+package api;
+
+import com.google.gson.stream.JsonWriter;
+import com.j256.ormlite.dao.CloseableIterator;
+import persistence.Page;
+import spark.Request;
+import spark.Response;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
+
+// Writes a JSON array straight into the HTTP response while rows are read from the database. Only the
+// current row (or page of rows) is held in memory, and since no Content-Length is known up front Jetty
+// sends the body with chunked transfer encoding, so the client gets the first rows before the last ones
+// have been read. The body is gzipped on the way if the client accepts it (see Compression).
+final class JsonStream {
+
+    // reads the page after the given cursor (null for the first page)
+    interface PageReader<T> {
+        Page<T> read(String cursor) throws SQLException;
+    }
+
+    // writes the array elements for one page of rows
+    interface PageWriter<T> {
+        void write(List<T> rows, JsonWriter writer) throws IOException, SQLException;
+    }
+
+    private JsonStream() {
+    }
+
+    // stream all rows of the iterator as a JSON array and close it; the route must return "" afterwards
+    static <T> void writeArray(Request req, Response res, CloseableIterator<T> rows, Class<T> type) throws IOException {
+        try (CloseableIterator<T> iterator = rows) {
+            JsonWriter writer = open(req, res);
+            writer.beginArray();
+            while (iterator.hasNext()) {
+                Json.GSON.toJson(iterator.next(), type, writer);
+            }
+            writer.endArray();
+            writer.close();
+        }
+    }
+
+    // stream the rows of all pages as one JSON array; the route must return "" afterwards. Unlike an
+    // iterator this holds no database connection between pages, so pageWriter may run queries of its own.
+    static <T> void writePages(Request req, Response res, PageReader<T> pages, PageWriter<T> pageWriter)
+            throws IOException, SQLException {
+        JsonWriter writer = open(req, res);
+        writer.beginArray();
+        String cursor = null;
+        do {
+            Page<T> page = pages.read(cursor);
+            pageWriter.write(page.getItems(), writer);
+            cursor = page.getNext();
+        } while (cursor != null);
+        writer.endArray();
+        writer.close();
+    }
+
+    private static JsonWriter open(Request req, Response res) throws IOException {
+        res.type("application/json");
+        res.status(200);
+        // the capture sees the body as it is sent, i.e. compressed if it is
+        OutputStream out = Compression.wrap(req, res, BodyCapture.wrap(req, res.raw().getOutputStream()));
+        return new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,40 @@
+package api;
+
+import spark.Request;
+
+// The "limit" and "cursor" query parameters of paginated listings.
+final class Pagination {
+
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+
+    private Pagination() {
+    }
+
+    // a listing is paginated as soon as the client asks for a limit or passes a cursor
+    static boolean isRequested(Request req) {
+        return req.queryParams("limit") != null || req.queryParams("cursor") != null;
+    }
+
+    static String cursor(Request req) {
+        String cursor = req.queryParams("cursor");
+        return cursor == null || cursor.isEmpty() ? null : cursor;
+    }
+
+    static int limit(Request req) {
+        String param = req.queryParams("limit");
+        if (param == null) {
+            return DEFAULT_LIMIT;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(param);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a number but was '" + param + "'");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,93 @@
+package api;
+
+import spark.Request;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+// Typed query parameters. A missing or empty parameter is null; a malformed one is a client error
+// (IllegalArgumentException, answered with 400).
+final class Params {
+
+    private Params() {
+    }
+
+    static String string(Request req, String name) {
+        String value = req.queryParams(name);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    static Integer integer(Request req, String name) {
+        String value = string(req, name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number but was '" + value + "'");
+        }
+    }
+
+    static Long longInteger(Request req, String name) {
+        String value = string(req, name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number but was '" + value + "'");
+        }
+    }
+
+    // a path parameter (":id") that must be a number
+    static int pathInteger(Request req, String name) {
+        String value = req.params(name);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name.substring(1) + " must be a number but was '" + value + "'");
+        }
+    }
+
+    static Boolean bool(Request req, String name) {
+        String value = string(req, name);
+        if (value == null) {
+            return null;
+        }
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException(name + " must be true or false but was '" + value + "'");
+        }
+        return Boolean.valueOf(value);
+    }
+
+    // epoch milliseconds, an ISO-8601 instant (2021-10-01T12:00:00Z) or an ISO-8601 date (2021-10-01,
+    // meaning its start in the server's time zone)
+    static Date date(Request req, String name) {
+        String value = string(req, name);
+        if (value == null) {
+            return null;
+        }
+        return parseDate(name, value);
+    }
+
+    // a date in one of the formats date() accepts; name is only used in the error message
+    static Date parseDate(String name, String value) {
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return new Date(Long.parseLong(value));
+            }
+            if (value.length() == 10) {
+                return Date.from(LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            }
+            return Date.from(Instant.parse(value));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be epoch milliseconds or an ISO-8601 date but was '"
+                    + value + "'");
+        }
+    }
+}
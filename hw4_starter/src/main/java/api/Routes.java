@@ -0,0 +1,43 @@
+package api;
+
+import spark.Response;
+import spark.Route;
+import spark.Spark;
+
+import java.util.Collections;
+
+// Registers routes with Spark under a name ("GET /jobs") that request metrics report instead of the URL,
+// which would give a series per distinct path once a route takes path parameters.
+public final class Routes {
+
+    static final String NAME_ATTRIBUTE = Routes.class.getName() + ".name";
+
+    private Routes() {
+    }
+
+    public static void get(String path, Route route) {
+        Spark.get(path, named("GET " + path, route));
+    }
+
+    public static void post(String path, Route route) {
+        Spark.post(path, named("POST " + path, route));
+    }
+
+    public static void put(String path, Route route) {
+        Spark.put(path, named("PUT " + path, route));
+    }
+
+    // a 404 response with {"error": message}
+    static String notFound(Response res, String message) {
+        res.type("application/json");
+        res.status(404);
+        return Json.GSON.toJson(Collections.singletonMap("error", message));
+    }
+
+    private static Route named(String name, Route route) {
+        return (req, res) -> {
+            req.attribute(NAME_ATTRIBUTE, name);
+            return route.handle(req, res);
+        };
+    }
+}
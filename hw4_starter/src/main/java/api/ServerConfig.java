@@ -0,0 +1,84 @@
+package api;
+
+import config.AppConfig;
+
+// Settings for the embedded Jetty server: the port, and which threads handle requests.
+//
+// PLATFORM: a bounded pool of platform threads (Jetty's QueuedThreadPool). A request that blocks on the
+// database holds one of them, so many slow requests can use them all up.
+// VIRTUAL: a new virtual thread per task (Java 21+), so blocked requests cost next to nothing. Pair it with
+// db.executor.enabled, so that the blocking SQLite calls (native code, which pins a virtual thread to its
+// carrier) run on the bounded database executor instead. On older JVMs it falls back to PLATFORM.
+public class ServerConfig {
+
+    public enum ThreadMode {
+        PLATFORM, VIRTUAL
+    }
+
+    private final int port;
+    private final ThreadMode threadMode;
+    private final int maxThreads;
+    private final int minThreads;
+    private final int idleTimeoutMillis;
+
+    public ServerConfig(int port, ThreadMode threadMode, int maxThreads, int minThreads, int idleTimeoutMillis) {
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("need 1 <= minThreads <= maxThreads but got " + minThreads + " and "
+                    + maxThreads);
+        }
+        this.port = port;
+        this.threadMode = threadMode;
+        this.maxThreads = maxThreads;
+        this.minThreads = minThreads;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    // build the configuration from jbapp.http.* system properties / JBAPP_HTTP_* environment variables
+    public static ServerConfig fromAppConfig() {
+        String mode = AppConfig.getString("http.threads.mode", "platform");
+        ThreadMode threadMode;
+        try {
+            threadMode = ThreadMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("http.threads.mode must be platform or virtual but was '" + mode + "'");
+        }
+        return new ServerConfig(
+                AppConfig.getInt("http.port", 7000),
+                threadMode,
+                AppConfig.getInt("http.threads.max", 200),
+                AppConfig.getInt("http.threads.min", 8),
+                AppConfig.getInt("http.threads.idleTimeoutMillis", 60_000));
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    // the most platform threads (PLATFORM only)
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig{" +
+                "port=" + port +
+                ", threadMode=" + threadMode +
+                ", maxThreads=" + maxThreads +
+                ", minThreads=" + minThreads +
+                ", idleTimeoutMillis=" + idleTimeoutMillis +
+                '}';
+    }
+}
@@ -0,0 +1,73 @@
+package api;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A Jetty thread pool that runs every task on a new virtual thread. Jetty 9.4 predates virtual threads, and
+// this code has to compile for Java 17, so the executor is looked up reflectively; create() returns null on
+// a JVM without them.
+final class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ExecutorService executor;
+    private final AtomicInteger running = new AtomicInteger();
+
+    private VirtualThreadPool(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // a pool on Executors.newVirtualThreadPerTaskExecutor(), or null if this JVM has no virtual threads
+    static VirtualThreadPool create() {
+        try {
+            Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadPool((ExecutorService) executor);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // no such method before Java 19; preview only (UnsupportedOperationException) on 19 and 20
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            running.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        super.doStop();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    // the tasks running right now; a virtual thread exists only while it runs one
+    @Override
+    public int getThreads() {
+        return running.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    // never: there is always another virtual thread
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
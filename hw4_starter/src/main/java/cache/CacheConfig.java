@@ -0,0 +1,45 @@
+package cache;
+
+import config.AppConfig;
+
+import java.util.function.ToIntFunction;
+
+// Size and time-to-live of the entity caches. Weights count entities: a cached employer or job weighs 1,
+// a cached page weighs the number of rows on it (at least 1).
+public class CacheConfig {
+
+    private final long maxEntities;
+    private final long ttlMillis;
+
+    public CacheConfig(long maxEntities, long ttlMillis) {
+        this.maxEntities = maxEntities;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // build the configuration from jbapp.cache.* system properties / JBAPP_CACHE_* environment variables
+    public static CacheConfig fromAppConfig() {
+        if (!AppConfig.getBoolean("cache.enabled", true)) {
+            return disabled();
+        }
+        return new CacheConfig(
+                AppConfig.getLong("cache.maxEntities", 50_000L),
+                AppConfig.getLong("cache.ttlMillis", 60_000L));
+    }
+
+    // caches that never keep anything
+    public static CacheConfig disabled() {
+        return new CacheConfig(0, 0);
+    }
+
+    public long getMaxEntities() {
+        return maxEntities;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public <K, V> LruCache<K, V> newCache(String name, ToIntFunction<V> weigher) {
+        return new LruCache<>(name, maxEntities, ttlMillis, weigher);
+    }
+}
@@ -0,0 +1,98 @@
+package cache;
+
+import model.Employer;
+import model.Job;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The caches in front of the employer and job tables, and which of their entries each kind of write
+// makes stale. The repositories read through these caches and report every write here.
+public class EntityCaches {
+
+    // prefix of the job page keys that hold search results, which also depend on employer names / sectors
+    public static final String SEARCH_PAGE_PREFIX = "search|";
+    // prefix of the job page keys whose filter matches on the employer's sector
+    public static final String SECTOR_PAGE_PREFIX = "sector|";
+
+    private final LruCache<Integer, Employer> employersById;
+    private final LruCache<String, List<Employer>> employerPages;
+    private final LruCache<Integer, Job> jobsById;
+    private final LruCache<String, List<Job>> jobPages;
+
+    public EntityCaches(CacheConfig config) {
+        employersById = config.newCache("employersById", employer -> 1);
+        employerPages = config.newCache("employerPages", page -> Math.max(1, page.size()));
+        jobsById = config.newCache("jobsById", job -> 1);
+        jobPages = config.newCache("jobPages", page -> Math.max(1, page.size()));
+    }
+
+    public LruCache<Integer, Employer> employersById() {
+        return employersById;
+    }
+
+    // pages of employers (the rows of a page including the look-ahead row), keyed by cursor and limit
+    public LruCache<String, List<Employer>> employerPages() {
+        return employerPages;
+    }
+
+    public LruCache<Integer, Job> jobsById() {
+        return jobsById;
+    }
+
+    // pages of jobs (the rows of a page including the look-ahead row), keyed by filter, sort, cursor and
+    // limit, or by search query, cursor and limit
+    public LruCache<String, List<Job>> jobPages() {
+        return jobPages;
+    }
+
+    // a job was created, updated or deleted: its own entry and every page may be stale
+    public void jobWritten(int id) {
+        jobsById.invalidate(id);
+        jobPages.invalidateAll();
+    }
+
+    // many jobs were written at once: their own entries, and every page once rather than once per job
+    public void jobsWritten(Collection<Integer> ids) {
+        ids.forEach(jobsById::invalidate);
+        jobPages.invalidateAll();
+    }
+
+    // an employer was created, updated or deleted: its own entry, every employer page, the job search
+    // results (which match on employer name and sector) and the job pages filtered by sector may be stale.
+    // Other job pages only hold employer ids.
+    public void employerWritten(int id) {
+        employersById.invalidate(id);
+        employerPages.invalidateAll();
+        jobPages.invalidateIf(EntityCaches::dependsOnEmployers);
+    }
+
+    // many employers were written at once; see employerWritten
+    public void employersWritten(Collection<Integer> ids) {
+        ids.forEach(employersById::invalidate);
+        employerPages.invalidateAll();
+        jobPages.invalidateIf(EntityCaches::dependsOnEmployers);
+    }
+
+    // any row may have been written: every entry may be stale
+    public void invalidateAll() {
+        employersById.invalidateAll();
+        employerPages.invalidateAll();
+        jobsById.invalidateAll();
+        jobPages.invalidateAll();
+    }
+
+    private static boolean dependsOnEmployers(String jobPageKey) {
+        return jobPageKey.startsWith(SEARCH_PAGE_PREFIX) || jobPageKey.startsWith(SECTOR_PAGE_PREFIX);
+    }
+
+    public Map<String, Object> describe() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (LruCache<?, ?> cache : new LruCache<?, ?>[]{employersById, employerPages, jobsById, jobPages}) {
+            stats.put(cache.getName(), cache.describe());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,167 @@
+package cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// A bounded in-process cache. Entries are evicted least-recently-used first once the total weight of
+// the entries exceeds maxWeight (the weigher decides what an entry weighs, e.g. 1 per entity or the
+// number of rows of a page), and they expire ttlMillis after they were stored.
+public class LruCache<K, V> {
+
+    // loads a value on a cache miss
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    private final String name;
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final ToIntFunction<V> weigher;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    // bumped by every invalidation so that a value loaded before it is not stored after it
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public LruCache(String name, long maxWeight, long ttlMillis, ToIntFunction<V> weigher) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+        this.weigher = weigher;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // the cached value, or null on a miss
+    public V get(K key) {
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                remove(key, entry);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        }
+    }
+
+    // the cached value, or on a miss the value of loader, which is then cached
+    public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+        long loadGeneration;
+        synchronized (this) {
+            V value = get(key);
+            if (value != null) {
+                return value;
+            }
+            loadGeneration = generation;
+        }
+        V value = loader.load();
+        if (value != null) {
+            synchronized (this) {
+                if (generation == loadGeneration) {
+                    put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        int entryWeight = weigher.applyAsInt(value);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        Entry<V> previous = entries.put(key, new Entry<>(value, entryWeight, System.currentTimeMillis() + ttlMillis));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+        Iterator<Map.Entry<K, Entry<V>>> eldestFirst = entries.entrySet().iterator();
+        while (weight > maxWeight && eldestFirst.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = eldestFirst.next();
+            eldestFirst.remove();
+            weight -= eldest.getValue().weight;
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+            invalidations.increment();
+        }
+    }
+
+    public synchronized void invalidateIf(Predicate<K> keyFilter) {
+        generation++;
+        Iterator<Map.Entry<K, Entry<V>>> all = entries.entrySet().iterator();
+        while (all.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = all.next();
+            if (keyFilter.test(entry.getKey())) {
+                all.remove();
+                weight -= entry.getValue().weight;
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        invalidateIf(key -> true);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // settings, size and hit / miss / eviction counters, e.g. for the /admin/cache endpoint
+    public Map<String, Object> describe() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("maxWeight", maxWeight);
+            stats.put("ttlMillis", ttlMillis);
+            stats.put("entries", entries.size());
+            stats.put("weight", weight);
+        }
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private void remove(K key, Entry<V> entry) {
+        entries.remove(key);
+        weight -= entry.weight;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final int weight;
+        private final long expiresAt;
+
+        private Entry(V value, int weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
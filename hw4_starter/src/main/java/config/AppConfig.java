@@ -0,0 +1,36 @@
+package config;
+
+// Reads JBApp settings. A setting named "db.pool.maxConnections" can be given either as the
+// system property -Djbapp.db.pool.maxConnections=... or as the environment variable
+// JBAPP_DB_POOL_MAXCONNECTIONS; the system property wins when both are set.
+public final class AppConfig {
+
+    private static final String PROPERTY_PREFIX = "jbapp.";
+    private static final String ENV_PREFIX = "JBAPP_";
+
+    private AppConfig() {
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key);
+        if (value == null) {
+            value = System.getenv(ENV_PREFIX + key.toUpperCase().replace('.', '_'));
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
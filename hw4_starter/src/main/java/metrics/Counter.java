@@ -0,0 +1,21 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A count that only goes up. Increments from many threads do not contend (LongAdder).
+public class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void inc() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,129 @@
+package metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import persistence.DatabaseListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// Statement latencies by operation (select, insert, ...) and table, connection pool wait times, and a log of
+// slow statements with their SQL. Statements are labelled by operation and table rather than by SQL text,
+// which can hold literal values and so would make an unbounded number of series.
+public class DatabaseMetrics implements DatabaseListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseMetrics.class);
+    private static final int RECENT_SLOW = 100;
+    // the operations labelled with a table; for others (create, pragma, ...) the table is "none"
+    private static final Set<String> DML = new HashSet<>(Arrays.asList("select", "insert", "update", "delete",
+            "replace", "with"));
+
+    private final MetricsRegistry registry;
+    private final long slowNanos;
+    private final Histogram poolWait;
+    private final Counter poolTimeouts;
+    private final Counter slowStatements;
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> failures = new ConcurrentHashMap<>();
+    private final Deque<Map<String, Object>> recentSlow = new ArrayDeque<>();
+
+    public DatabaseMetrics(MetricsRegistry registry, long slowMillis) {
+        this.registry = registry;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.poolWait = registry.histogram("jbapp_db_pool_wait_seconds",
+                "Time spent waiting for a pooled connection", Histogram.LATENCY_BUCKETS);
+        this.poolTimeouts = registry.counter("jbapp_db_pool_timeouts_total",
+                "Waits for a pooled connection that timed out");
+        this.slowStatements = registry.counter("jbapp_db_slow_statements_total",
+                "Statements that took longer than " + slowMillis + " ms");
+    }
+
+    @Override
+    public void connectionAcquired(long waitNanos, boolean timedOut) {
+        poolWait.observeNanos(waitNanos);
+        if (timedOut) {
+            poolTimeouts.inc();
+        }
+    }
+
+    @Override
+    public void statementExecuted(String sql, long nanos, boolean failed) {
+        String operation = operation(sql);
+        String table = DML.contains(operation) ? table(sql) : "none";
+        String key = operation + "|" + table;
+        latencies.computeIfAbsent(key, k -> registry.histogram("jbapp_db_statement_duration_seconds",
+                "Time to run a statement (for a query: until the first row is ready)", Histogram.LATENCY_BUCKETS,
+                "operation", operation, "table", table)).observeNanos(nanos);
+        if (failed) {
+            failures.computeIfAbsent(key, k -> registry.counter("jbapp_db_statement_errors_total",
+                    "Statements that failed", "operation", operation, "table", table)).inc();
+        }
+        if (nanos >= slowNanos) {
+            slowStatements.inc();
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            log.warn("Slow statement ({} ms{}): {}", millis, failed ? ", failed" : "", sql);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("at", System.currentTimeMillis());
+            entry.put("millis", millis);
+            entry.put("failed", failed);
+            entry.put("sql", sql);
+            synchronized (recentSlow) {
+                if (recentSlow.size() == RECENT_SLOW) {
+                    recentSlow.removeLast();
+                }
+                recentSlow.addFirst(entry);
+            }
+        }
+    }
+
+    // the most recent slow statements, newest first
+    public List<Map<String, Object>> recentSlowStatements() {
+        synchronized (recentSlow) {
+            return new ArrayList<>(recentSlow);
+        }
+    }
+
+    // the first keyword, e.g. select, insert, pragma
+    static String operation(String sql) {
+        String trimmed = sql.trim();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? "other" : trimmed.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    // the table after the first FROM / INTO / UPDATE, or "none"
+    static String table(String sql) {
+        String upper = sql.toUpperCase(Locale.ROOT);
+        int at = -1;
+        for (String keyword : new String[]{"FROM ", "INTO ", "UPDATE "}) {
+            int found = upper.indexOf(keyword);
+            if (found >= 0 && (at < 0 || found < at)) {
+                at = found + keyword.length();
+            }
+        }
+        if (at < 0) {
+            return "none";
+        }
+        while (at < sql.length() && (sql.charAt(at) == ' ' || sql.charAt(at) == '`' || sql.charAt(at) == '"')) {
+            at++;
+        }
+        int end = at;
+        while (end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) {
+            end++;
+        }
+        return end == at ? "none" : sql.substring(at, end).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,66 @@
+package metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// The distribution of observed values over fixed buckets, as a Prometheus histogram: a count per bucket
+// upper bound (non-cumulative here, cumulative when written), plus the count and sum of all values.
+// Observations are lock-free; a scrape that races them may be off by the observations in flight.
+public class Histogram {
+
+    // seconds, from half a millisecond to ten seconds
+    public static final double[] LATENCY_BUCKETS =
+            {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    // bytes, from 256 B to 64 MB
+    public static final double[] SIZE_BUCKETS =
+            {256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216, 67108864};
+
+    private final double[] bounds;
+    // one more than bounds: the last one counts values above the largest bound (+Inf)
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    public Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observe(double value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    double[] getBounds() {
+        return bounds;
+    }
+
+    // the number of observations at most bounds[i] (or of all observations for i == bounds.length)
+    long getCumulativeCount(int i) {
+        long total = 0;
+        for (int b = 0; b <= i; b++) {
+            total += buckets[b].sum();
+        }
+        return total;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+}
@@ -0,0 +1,133 @@
+package metrics;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleSupplier;
+
+// The counters, histograms and gauges of the app, by name and labels, and their Prometheus text exposition
+// (format 0.0.4). A metric is created the first time it is asked for; later lookups of the same name and
+// labels return it again. Labels are given as name / value pairs: counter("x_total", "...", "route", "/a").
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labelString(labels),
+                key -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) family(name, help, "histogram").series.computeIfAbsent(labelString(labels),
+                key -> new Histogram(buckets));
+    }
+
+    // a value read when the metrics are scraped, e.g. the number of connections in use
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").series.put(labelString(labels), value);
+    }
+
+    // a count kept elsewhere (e.g. by the connection pool), read when the metrics are scraped
+    public void counterFunction(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").series.put(labelString(labels), value);
+    }
+
+    // all metrics in the Prometheus text format, sorted by name
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : new TreeMap<>(families).values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                write(out, family.name, series.getKey(), series.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    private static void write(StringBuilder out, String name, String labels, Object metric) {
+        if (metric instanceof Counter) {
+            sample(out, name, labels, ((Counter) metric).get());
+        } else if (metric instanceof DoubleSupplier) {
+            sample(out, name, labels, ((DoubleSupplier) metric).getAsDouble());
+        } else {
+            Histogram histogram = (Histogram) metric;
+            double[] bounds = histogram.getBounds();
+            for (int i = 0; i <= bounds.length; i++) {
+                String le = i < bounds.length
+                        ? BigDecimal.valueOf(bounds[i]).stripTrailingZeros().toPlainString()
+                        : "+Inf";
+                String bucketLabels = labels.isEmpty() ? "le=\"" + le + "\"" : labels + ",le=\"" + le + "\"";
+                sample(out, name + "_bucket", bucketLabels, histogram.getCumulativeCount(i));
+            }
+            sample(out, name + "_sum", labels, histogram.getSum());
+            sample(out, name + "_count", labels, histogram.getCount());
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(number(value)).append('\n');
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    // name="value" pairs, in the given order, with the value escaped as the format requires
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name / value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    out.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(ch);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        // by label string: a Counter, a Histogram or a DoubleSupplier
+        private final ConcurrentMap<String, Object> series = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package model;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+// One entry of the change feed: a job or employer was created / updated ("upsert") or deleted. Rows are
+// written by triggers on the jobs and employers tables, numbered by an increasing sequence.
+@DatabaseTable(tableName = "changes")
+public class Change {
+
+    public static final String JOB = "job";
+    public static final String EMPLOYER = "employer";
+    public static final String UPSERT = "upsert";
+    public static final String DELETE = "delete";
+
+    @DatabaseField(generatedId = true)
+    private long seq;
+    @DatabaseField(canBeNull = false)
+    private String type;
+    @DatabaseField(canBeNull = false, columnName = "entity_id")
+    private int id;
+    @DatabaseField(canBeNull = false)
+    private String op;
+    // epoch milliseconds
+    @DatabaseField(canBeNull = false)
+    private long at;
+
+    public Change() {
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public long getAt() {
+        return at;
+    }
+
+    @Override
+    public String toString() {
+        return seq + ": " + op + " " + type + " " + id;
+    }
+}
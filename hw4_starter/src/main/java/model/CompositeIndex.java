@@ -0,0 +1,27 @@
+package model;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Declares an index over several columns of a table. ORMLite's @DatabaseField can only put a column into
+// one index, so indexes that combine columns (which may also have an index of their own) are declared
+// on the model class with this annotation; they are created when the database is opened.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(CompositeIndex.List.class)
+public @interface CompositeIndex {
+
+    String name();
+
+    // column names, in index order
+    String[] columns();
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface List {
+        CompositeIndex[] value();
+    }
+}
@@ -11,10 +11,14 @@ public class Employer {
     private Integer id;
     @DatabaseField(canBeNull = false, unique = true)
     private String name;
-    @DatabaseField(canBeNull = false)
+    // a handful of distinct values over all the employers, so the rows read share one copy of each
+    @DatabaseField(canBeNull = false, persisterClass = InternedStringType.class)
     private String sector;
     @DatabaseField
     private String summary;
+    // the hash of the name, sector and summary, worked out by the first hashCode and cleared by the setters;
+    // the id is added on every call, as ORMLite sets the id of a created row without setId
+    private transient int hash;
 
     public Employer() {
     }
@@ -47,14 +51,17 @@ public class Employer {
 
     public void setName(String name) {
         this.name = name;
+        hash = 0;
     }
 
     public void setSector(String sector) {
         this.sector = sector;
+        hash = 0;
     }
 
     public void setSummary(String summary) {
         this.summary = summary;
+        hash = 0;
     }
 
     @Override
@@ -77,6 +84,11 @@ public class Employer {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, name, sector, summary);
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(name, sector, summary);
+            hash = h;
+        }
+        return 31 * h + Objects.hashCode(id);
     }
 }
@@ -0,0 +1,73 @@
+package model;
+
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.field.types.StringType;
+import com.j256.ormlite.support.DatabaseResults;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// A string column whose values repeat a lot (a location, a domain, a sector): every row read through a DAO
+// gets the one shared copy of its value from a process-wide dictionary instead of a String of its own, so a
+// list of a million jobs holds a handful of location strings, not a million. Use it with
+// @DatabaseField(persisterClass = InternedStringType.class).
+//
+// The dictionary only grows, up to MAX_ENTRIES distinct values; once it is full, values it does not know yet
+// are returned as read (not shared), so a column that turns out not to repeat costs at most that many entries.
+public class InternedStringType extends StringType {
+
+    private static final InternedStringType SINGLETON = new InternedStringType();
+
+    // distinct values kept, across all interned columns
+    static final int MAX_ENTRIES = 100_000;
+
+    private static final Map<String, String> dictionary = new ConcurrentHashMap<>();
+    private static final LongAdder shared = new LongAdder();
+    private static final LongAdder unshared = new LongAdder();
+
+    private InternedStringType() {
+        super(SqlType.STRING);
+    }
+
+    // ORMLite looks the persister up by this name
+    public static InternedStringType getSingleton() {
+        return SINGLETON;
+    }
+
+    @Override
+    public Object resultToSqlArg(FieldType fieldType, DatabaseResults results, int columnPos) throws SQLException {
+        return intern(results.getString(columnPos));
+    }
+
+    // the dictionary's copy of the value, adding it if there is room
+    public static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String known = dictionary.get(value);
+        if (known != null) {
+            shared.increment();
+            return known;
+        }
+        if (dictionary.size() >= MAX_ENTRIES) {
+            unshared.increment();
+            return value;
+        }
+        known = dictionary.putIfAbsent(value, value);
+        return known == null ? value : known;
+    }
+
+    // the dictionary's size and how many values read were replaced by a shared copy, for /admin/cache
+    public static Map<String, Object> describe() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", dictionary.size());
+        stats.put("maxSize", MAX_ENTRIES);
+        stats.put("shared", shared.sum());
+        stats.put("unshared", unshared.sum());
+        return stats;
+    }
+}
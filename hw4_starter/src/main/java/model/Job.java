@@ -1,5 +1,6 @@
 package model;
 
+import com.j256.ormlite.field.DataType;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
@@ -10,19 +11,23 @@ import java.util.Objects;
 //  ORMLite annotations so that you can easily create the "jobs" table in Main.java
 //  using ORMLite's TableUtil class.
 @DatabaseTable(tableName = "jobs")
+@CompositeIndex(name = "jobs_location_datePosted_idx", columns = {"location", "datePosted"})
+@CompositeIndex(name = "jobs_domain_datePosted_idx", columns = {"domain", "datePosted"})
 public class Job {
 
     @DatabaseField(generatedId = true)
     private int id;
     @DatabaseField(canBeNull = false)
     private String title;
-    @DatabaseField(canBeNull = false) 
+    // dates are stored as epoch milliseconds, so ranges and sorts compare integers
+    @DatabaseField(canBeNull = false, index = true, dataType = DataType.DATE_LONG)
     private Date datePosted;
-    @DatabaseField 
+    @DatabaseField(index = true, dataType = DataType.DATE_LONG)
     private Date deadline;
-    @DatabaseField 
+    // a handful of distinct values over all the rows, so the rows read share one copy of each
+    @DatabaseField(persisterClass = InternedStringType.class)
     private String domain;
-    @DatabaseField(canBeNull = false)
+    @DatabaseField(canBeNull = false, persisterClass = InternedStringType.class)
     private String location;
     @DatabaseField
     private boolean fullTime;
@@ -30,10 +35,13 @@ public class Job {
     private boolean salaryBased;
     @DatabaseField
     private String requirements;
-    @DatabaseField
+    @DatabaseField(index = true)
     private int payAmount;
-    @DatabaseField(foreign = true) //columnDefinition = "ON UPDATE CASCADE ON DELETE CASCADE")
+    @DatabaseField(foreign = true, index = true) //columnDefinition = "ON UPDATE CASCADE ON DELETE CASCADE")
     private Employer employer;
+    // the hash of every field but the ids, worked out by the first hashCode and cleared by the setters (0: not
+    // worked out). The ids are added to it on every call: ORMLite sets the id of a created row without setId.
+    private transient int hash;
 
     public Job() {
     }
@@ -100,42 +108,52 @@ public class Job {
 
     public void setTitle(String title) {
         this.title = title;
+        hash = 0;
     }
 
     public void setDatePosted(Date datePosted) {
         this.datePosted = datePosted;
+        hash = 0;
     }
 
     public void setDeadline(Date deadline) {
         this.deadline = deadline;
+        hash = 0;
     }
 
     public void setDomain(String domain) {
         this.domain = domain;
+        hash = 0;
     }
 
     public void setLocation(String location) {
         this.location = location;
+        hash = 0;
     }
 
     public void setFullTime(boolean fullTime) {
         this.fullTime = fullTime;
+        hash = 0;
     }
 
     public void setSalaryBased(boolean salaryBased) {
         this.salaryBased = salaryBased;
+        hash = 0;
     }
 
     public void setRequirements(String requirements) {
         this.requirements = requirements;
+        hash = 0;
     }
 
     public void setPayAmount(int payAmount) {
         this.payAmount = payAmount;
+        hash = 0;
     }
 
     public void setEmployer(Employer employer) {
         this.employer = employer;
+        hash = 0;
     }
 
     @Override
@@ -146,8 +164,16 @@ public class Job {
         return id == job.id && fullTime == job.fullTime && salaryBased == job.salaryBased && payAmount == job.payAmount && title.equals(job.title) && Objects.equals(datePosted, job.datePosted) && Objects.equals(deadline, job.deadline) && Objects.equals(domain, job.domain) && Objects.equals(location, job.location) && Objects.equals(requirements, job.requirements) && Objects.equals(employer, job.employer);
     }
 
+    // the employer counts by its id only: equal employers have the same id, and the rest of it may change
+    // without the job knowing
     @Override
     public int hashCode() {
-        return Objects.hash(id, title, datePosted, deadline, domain, location, fullTime, salaryBased, requirements, payAmount, employer);
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(title, datePosted, deadline, domain, location, fullTime, salaryBased, requirements,
+                    payAmount);
+            hash = h;
+        }
+        return 31 * (31 * h + id) + (employer == null ? 0 : Objects.hashCode(employer.getId()));
     }
 }
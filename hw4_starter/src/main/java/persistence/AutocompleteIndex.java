@@ -0,0 +1,432 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import model.Employer;
+import model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Completions for a search box, answered from memory: the distinct job titles, job locations and employer
+// names, each with a frequency (jobs with that title / location, jobs of that employer). A value is found by
+// a prefix of any of its words, case-insensitively ("eng" finds "Software Engineer"). Every field keeps its
+// values in a sorted map keyed by the lower-cased value from each word start, so a prefix is a range of
+// the map, from which a bounded heap picks the most frequent values.
+//
+// It is loaded once and then follows every write through the repositories (it is a WriteListener), like
+// JobSnapshot. With job shards, the jobs are read from every shard and the employers from the catalog.
+public class AutocompleteIndex implements WriteListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AutocompleteIndex.class);
+
+    // rows reloaded per IN query, below SQLite's limit on bound variables
+    private static final int RELOAD_CHUNK = 500;
+
+    public enum Field {
+        TITLE("title"),
+        EMPLOYER("employer"),
+        LOCATION("location");
+
+        private final String param;
+
+        Field(String param) {
+            this.param = param;
+        }
+
+        public String getParam() {
+            return param;
+        }
+
+        public static Field fromParam(String param) {
+            for (Field field : values()) {
+                if (field.param.equals(param)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("Unknown field '" + param + "'");
+        }
+    }
+
+    // a completion and how many jobs have it
+    public static class Completion {
+        private final String value;
+        private final int count;
+
+        Completion(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    private final JobShards jobShards;
+    private final Dao<Employer, Integer> employerDao;
+    private final DatabaseExecutor executor;
+    // readers hold the read lock; writes are applied under the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // one reload of the same rows at a time, so a reload that read older rows cannot apply them after a newer
+    // one: a job is only ever in one shard, so every shard's jobs have a lock of their own
+    private final Object reloadingEmployers = new Object();
+    private final List<Object> reloadingJobs = new ArrayList<>();
+
+    private final Terms titles = new Terms();
+    private final Terms locations = new Terms();
+    private final Terms employerNames = new Terms();
+    // what each job and employer added to the terms, to take it back when it changes
+    private final Map<Integer, IndexedJob> jobs = new HashMap<>();
+    private final Map<Integer, String> employerNameById = new HashMap<>();
+    private final Map<Integer, Integer> jobsByEmployer = new HashMap<>();
+
+    private AutocompleteIndex(JobShards jobShards) {
+        this.jobShards = jobShards;
+        this.employerDao = jobShards.getCatalog().getEmployerDao();
+        this.executor = jobShards.getCatalog().getExecutor();
+        for (int i = 0; i < jobShards.getCount(); i++) {
+            reloadingJobs.add(new Object());
+        }
+    }
+
+    // read the titles, locations and employers of all jobs and the names of all employers
+    public static AutocompleteIndex load(Database database) throws SQLException {
+        return load(JobShards.single(database));
+    }
+
+    public static AutocompleteIndex load(JobShards jobShards) throws SQLException {
+        AutocompleteIndex index = new AutocompleteIndex(jobShards);
+        long start = System.nanoTime();
+        index.lock.writeLock().lock();
+        try {
+            for (String[] row : index.executor.call(() -> rows(index.employerDao, "SELECT id, name FROM employers"))) {
+                index.putEmployer(Integer.parseInt(row[0]), row[1]);
+            }
+            for (Database shard : jobShards.getShards()) {
+                for (String[] row : shard.getExecutor().call(() -> rows(shard.getJobDao(),
+                        "SELECT id, title, location, employer_id FROM jobs"))) {
+                    index.putJob(Integer.parseInt(row[0]),
+                            new IndexedJob(row[1], row[2], row[3] == null ? 0 : Integer.parseInt(row[3])));
+                }
+            }
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+        log.info("Loaded {} jobs into the autocomplete index in {} ms", index.jobs.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    private static List<String[]> rows(Dao<?, ?> dao, String sql) throws SQLException {
+        GenericRawResults<String[]> results = dao.queryRaw(sql);
+        try {
+            return results.getResults();
+        } finally {
+            try {
+                results.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+
+    // the (at most) limit most frequent values of the field with a word starting with the prefix, most
+    // frequent first, then alphabetically
+    public List<Completion> complete(Field field, String prefix, int limit) {
+        String key = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            return terms(field).top(key, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Terms terms(Field field) {
+        switch (field) {
+            case TITLE:
+                return titles;
+            case LOCATION:
+                return locations;
+            default:
+                return employerNames;
+        }
+    }
+
+    @Override
+    public void jobWritten(int id) {
+        jobsWritten(Collections.singletonList(id));
+    }
+
+    @Override
+    public void employerWritten(int id) {
+        employersWritten(Collections.singletonList(id));
+    }
+
+    @Override
+    public void jobsWritten(Collection<Integer> written) {
+        for (Map.Entry<Integer, List<Integer>> shard : jobShards.byShard(written).entrySet()) {
+            synchronized (reloadingJobs.get(shard.getKey())) {
+                Database database = jobShards.getShards().get(shard.getKey());
+                Map<Integer, Job> current = reload(database.getJobDao(), database.getExecutor(), shard.getValue(),
+                        "id", "title", "location", "employer_id");
+                lock.writeLock().lock();
+                try {
+                    for (Integer id : shard.getValue()) {
+                        removeJob(id);
+                        Job job = current.get(id);
+                        if (job != null) {
+                            putJob(id, new IndexedJob(job.getTitle(), job.getLocation(),
+                                    job.getEmployer() == null || job.getEmployer().getId() == null
+                                            ? 0 : job.getEmployer().getId()));
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void employersWritten(Collection<Integer> written) {
+        synchronized (reloadingEmployers) {
+            Map<Integer, Employer> current = reload(employerDao, executor, written, "id", "name");
+            lock.writeLock().lock();
+            try {
+                for (Integer id : written) {
+                    String old = employerNameById.remove(id);
+                    if (old != null) {
+                        employerNames.add(old, -1, -jobsByEmployer.getOrDefault(id, 0));
+                    }
+                    Employer employer = current.get(id);
+                    if (employer != null) {
+                        putEmployer(id, employer.getName());
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // reload the rows the tables hold now and the ones held here, so the rows that are gone are removed
+    @Override
+    public void allWritten(Collection<Integer> jobIds, Collection<Integer> employerIds) {
+        Set<Integer> reloadJobs = new HashSet<>(jobIds);
+        Set<Integer> reloadEmployers = new HashSet<>(employerIds);
+        lock.readLock().lock();
+        try {
+            reloadJobs.addAll(jobs.keySet());
+            reloadEmployers.addAll(employerNameById.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+        employersWritten(reloadEmployers);
+        jobsWritten(reloadJobs);
+    }
+
+    public Map<String, Object> describe() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("jobs", jobs.size());
+            stats.put("titles", titles.size());
+            stats.put("locations", locations.size());
+            stats.put("employers", employerNames.size());
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void putEmployer(int id, String name) {
+        if (name == null) {
+            return;
+        }
+        employerNameById.put(id, name);
+        employerNames.add(name, 1, jobsByEmployer.getOrDefault(id, 0));
+    }
+
+    private void putJob(int id, IndexedJob job) {
+        jobs.put(id, job);
+        titles.add(job.title, 1, 1);
+        locations.add(job.location, 1, 1);
+        if (job.employerId != 0) {
+            jobsByEmployer.merge(job.employerId, 1, Integer::sum);
+            String name = employerNameById.get(job.employerId);
+            if (name != null) {
+                employerNames.add(name, 0, 1);
+            }
+        }
+    }
+
+    private void removeJob(int id) {
+        IndexedJob job = jobs.remove(id);
+        if (job == null) {
+            return;
+        }
+        titles.add(job.title, -1, -1);
+        locations.add(job.location, -1, -1);
+        if (job.employerId != 0) {
+            jobsByEmployer.computeIfPresent(job.employerId, (employer, count) -> count == 1 ? null : count - 1);
+            String name = employerNameById.get(job.employerId);
+            if (name != null) {
+                employerNames.add(name, 0, -1);
+            }
+        }
+    }
+
+    private static <T> Map<Integer, T> reload(Dao<T, Integer> source, DatabaseExecutor executor,
+                                              Collection<Integer> written, String... columns) {
+        List<Integer> ids = new ArrayList<>(written);
+        DatabaseExecutor.Work<Map<Integer, T>> work = () -> {
+            Map<Integer, T> byId = new HashMap<>();
+            for (int from = 0; from < ids.size(); from += RELOAD_CHUNK) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + RELOAD_CHUNK));
+                for (T row : source.queryBuilder().selectColumns(columns).where().in("id", chunk).query()) {
+                    byId.put(source.extractId(row), row);
+                }
+            }
+            return byId;
+        };
+        try {
+            try {
+                return executor.call(work);
+            } catch (DatabaseBusyException e) {
+                // the write itself went through: reading it back on this thread beats missing it
+                return work.call();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reload written rows into the autocomplete index", e);
+        }
+    }
+
+    static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // what a job added to the terms
+    private static final class IndexedJob {
+        private final String title;
+        private final String location;
+        private final int employerId;
+
+        IndexedJob(String title, String location, int employerId) {
+            this.title = title;
+            this.location = location;
+            this.employerId = employerId;
+        }
+    }
+
+    // a distinct value (case-insensitively; shown as first seen), the rows that have it and its frequency
+    private static final class Term {
+        private final String value;
+        private int refs;
+        private int count;
+
+        Term(String value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Terms {
+        // most frequent first, then alphabetically
+        private static final Comparator<Term> RANK = Comparator.<Term>comparingInt(term -> -term.count)
+                .thenComparing(term -> term.value);
+
+        private final Map<String, Term> byValue = new HashMap<>();
+        // "<lower-cased value from a word start>\0<lower-cased value>" to its term; the suffix keeps the keys
+        // of values that share a word apart
+        private final TreeMap<String, Term> byWord = new TreeMap<>();
+
+        // add (or with negative deltas, take back) rows and frequency of a value; a value no row has is dropped
+        void add(String value, int refs, int count) {
+            if (value == null || value.trim().isEmpty()) {
+                return;
+            }
+            String normalized = normalize(value);
+            Term term = byValue.get(normalized);
+            if (term == null) {
+                if (refs <= 0) {
+                    return;
+                }
+                term = new Term(value.trim());
+                byValue.put(normalized, term);
+                for (String key : keys(normalized)) {
+                    byWord.put(key, term);
+                }
+            }
+            term.refs += refs;
+            term.count += count;
+            if (term.refs <= 0) {
+                byValue.remove(normalized);
+                for (String key : keys(normalized)) {
+                    byWord.remove(key);
+                }
+            }
+        }
+
+        List<Completion> top(String prefix, int limit) {
+            // the heap's head is the least frequent of the best so far
+            PriorityQueue<Term> best = new PriorityQueue<>(limit + 1, RANK.reversed());
+            Set<Term> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Term term : byWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                if (!seen.add(term)) {
+                    continue;
+                }
+                if (best.size() < limit) {
+                    best.add(term);
+                } else if (RANK.compare(term, best.peek()) < 0) {
+                    best.poll();
+                    best.add(term);
+                }
+            }
+            List<Term> sorted = new ArrayList<>(best);
+            sorted.sort(RANK);
+            List<Completion> completions = new ArrayList<>(sorted.size());
+            for (Term term : sorted) {
+                completions.add(new Completion(term.value, term.count));
+            }
+            return completions;
+        }
+
+        int size() {
+            return byValue.size();
+        }
+
+        // one key per word start: the first character, and every letter or digit after one that is neither
+        private static List<String> keys(String normalized) {
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < normalized.length(); i++) {
+                if (i == 0 || (Character.isLetterOrDigit(normalized.charAt(i))
+                        && !Character.isLetterOrDigit(normalized.charAt(i - 1)))) {
+                    keys.add(normalized.substring(i) + '\0' + normalized);
+                }
+            }
+            return keys;
+        }
+    }
+}
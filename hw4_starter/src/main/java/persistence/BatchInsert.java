@@ -0,0 +1,153 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Inserts many rows of one table in a few transactions instead of one transaction (and fsync) per row.
+// Before inserting, the rows are checked against the constraints their ORMLite annotations declare
+// (canBeNull = false, unique = true), so that a bad row is reported on its own instead of failing the
+// transaction it is in.
+final class BatchInsert<T> {
+
+    private final Dao<T, Integer> dao;
+    private final int batchSize;
+    private final List<FieldType> notNull = new ArrayList<>();
+    private final List<FieldType> unique = new ArrayList<>();
+
+    BatchInsert(Dao<T, Integer> dao, int batchSize) {
+        this.dao = dao;
+        this.batchSize = batchSize;
+        for (FieldType field : dao.getTableInfo().getFieldTypes()) {
+            if (field.isGeneratedId()) {
+                continue;
+            }
+            if (!field.isCanBeNull()) {
+                notNull.add(field);
+            }
+            if (field.isUnique()) {
+                unique.add(field);
+            }
+        }
+    }
+
+    // check the rows that have no error yet, then insert the ones that pass; errors are keyed by position in rows
+    BatchResult run(List<T> rows, Map<Integer, String> errors) throws SQLException {
+        check(rows, errors);
+        List<Integer> ids = insert(rows, errors);
+        return new BatchResult(ids, new TreeMap<>(errors));
+    }
+
+    // the first constraint a single row violates, or null; an update keeps its own unique values, so those are
+    // only checked for a row to be created
+    String check(T row, boolean creating) throws SQLException {
+        Map<Integer, String> errors = new HashMap<>();
+        List<T> rows = Collections.singletonList(row);
+        checkNotNull(rows, errors);
+        if (creating) {
+            for (FieldType field : unique) {
+                checkUnique(field, rows, errors);
+            }
+        }
+        return errors.get(0);
+    }
+
+    // check the rows that have no error yet and add an error for each one that violates a constraint
+    private void check(List<T> rows, Map<Integer, String> errors) throws SQLException {
+        checkNotNull(rows, errors);
+        for (FieldType field : unique) {
+            checkUnique(field, rows, errors);
+        }
+    }
+
+    private void checkNotNull(List<T> rows, Map<Integer, String> errors) throws SQLException {
+        for (int i = 0; i < rows.size(); i++) {
+            for (FieldType field : notNull) {
+                if (!errors.containsKey(i) && field.extractJavaFieldValue(rows.get(i)) == null) {
+                    errors.put(i, field.getColumnName() + " must not be null");
+                }
+            }
+        }
+    }
+
+    // insert the rows that have no error, batchSize rows per transaction; returns the ids of the created rows
+    private List<Integer> insert(List<T> rows, Map<Integer, String> errors) throws SQLException {
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (!errors.containsKey(i)) {
+                pending.add(i);
+            }
+        }
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            List<Integer> chunk = pending.subList(from, Math.min(from + batchSize, pending.size()));
+            try {
+                TransactionManager.callInTransaction(dao.getConnectionSource(), () -> {
+                    for (int i : chunk) {
+                        dao.create(rows.get(i));
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                // a row the checks let through (say, a name another request inserted in the meantime) rolled
+                // back the whole chunk: insert its rows one at a time to tell which one it was
+                for (int i : chunk) {
+                    try {
+                        dao.create(rows.get(i));
+                    } catch (SQLException rowError) {
+                        errors.put(i, rootMessage(rowError));
+                    }
+                }
+            }
+        }
+        FieldType idField = dao.getTableInfo().getIdField();
+        List<Integer> ids = new ArrayList<>();
+        for (int i : pending) {
+            if (!errors.containsKey(i)) {
+                ids.add((Integer) idField.extractJavaFieldValue(rows.get(i)));
+            }
+        }
+        return ids;
+    }
+
+    // values repeated within the batch, and values that are already in the table (one IN query per chunk)
+    private void checkUnique(FieldType field, List<T> rows, Map<Integer, String> errors) throws SQLException {
+        String column = field.getColumnName();
+        Map<Object, Integer> firstRow = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (errors.containsKey(i)) {
+                continue;
+            }
+            Object value = field.extractJavaFieldValue(rows.get(i));
+            if (value == null) {
+                continue;
+            }
+            Integer first = firstRow.putIfAbsent(value, i);
+            if (first != null) {
+                errors.put(i, column + " '" + value + "' appears more than once in this batch");
+            }
+        }
+        List<Object> values = new ArrayList<>(firstRow.keySet());
+        for (int from = 0; from < values.size(); from += batchSize) {
+            List<Object> chunk = values.subList(from, Math.min(from + batchSize, values.size()));
+            for (T existing : dao.queryBuilder().selectColumns(column).where().in(column, chunk).query()) {
+                Object value = field.extractJavaFieldValue(existing);
+                errors.put(firstRow.get(value), column + " '" + value + "' already exists");
+            }
+        }
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,25 @@
+package persistence;
+
+import java.util.List;
+import java.util.Map;
+
+// The outcome of a batch insert: the ids of the rows that were created, in input order, and why each of
+// the other rows was not, keyed by its position in the batch.
+public class BatchResult {
+
+    private final List<Integer> ids;
+    private final Map<Integer, String> errors;
+
+    BatchResult(List<Integer> ids, Map<Integer, String> errors) {
+        this.ids = ids;
+        this.errors = errors;
+    }
+
+    public List<Integer> getIds() {
+        return ids;
+    }
+
+    public Map<Integer, String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,37 @@
+package persistence;
+
+import model.Change;
+
+import java.util.List;
+
+// Changes read from the change feed, oldest first. next is the sequence to read on from (the last change's, or
+// the one asked from if there was none), latest the sequence of the last change in the feed.
+public class ChangeBatch {
+
+    private final List<Change> changes;
+    private final long next;
+    private final long latest;
+
+    public ChangeBatch(List<Change> changes, long next, long latest) {
+        this.changes = changes;
+        this.next = next;
+        this.latest = latest;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public long getNext() {
+        return next;
+    }
+
+    public long getLatest() {
+        return latest;
+    }
+
+    // whether there are changes after this batch
+    public boolean hasMore() {
+        return next < latest;
+    }
+}
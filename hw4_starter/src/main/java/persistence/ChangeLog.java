@@ -0,0 +1,220 @@
+package persistence;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableUtils;
+import model.Change;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+
+// The change feed: every insert, update and delete of a job or employer appends a row to the "changes"
+// table, numbered by an increasing sequence, so clients can ask for what changed after the last sequence
+// they saw instead of reading whole tables again. Triggers write the rows, in the transaction of the write
+// itself, so writes that bypass the application are recorded too. Only the last `retention` (give or take
+// PRUNE_EVERY) changes are kept; a client further behind than that has to read everything again.
+//
+// It is also a WriteListener, so readers waiting for new changes (see awaitWrite) wake up after every write
+// through the repositories.
+public class ChangeLog implements WriteListener {
+
+    static final String TABLE = "changes";
+
+    // pruning runs on every this many-th change
+    private static final int PRUNE_EVERY = 256;
+    // rows per INSERT of append
+    private static final int APPEND_CHUNK = 500;
+
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    private final Dao<Change, Long> dao;
+    private final DatabaseExecutor executor;
+    private final WriteBehindQueue appends;
+    private final Object writeLock = new Object();
+    private long writes;
+
+    // commits the rows of append in groups, then wakes the readers
+    private final WriteBehindQueue.Writer<Appended> appender = new WriteBehindQueue.Writer<>() {
+        @Override
+        public void apply(Appended rows) throws SQLException {
+            insert(rows);
+        }
+
+        @Override
+        public void committed(List<Appended> rows) {
+            written();
+        }
+    };
+
+    private ChangeLog(Dao<Change, Long> dao, DatabaseExecutor executor, WriteBehindQueue appends) {
+        this.dao = dao;
+        this.executor = executor;
+        this.appends = appends;
+    }
+
+    // create the table and triggers if needed, keeping (about) the last retention changes
+    public static ChangeLog install(Database database, long retention) throws SQLException {
+        return install(database, retention, null);
+    }
+
+    // appends: the queue append hands its rows to (a write-behind queue of this database), or null to write them
+    // before append returns
+    public static ChangeLog install(Database database, long retention, WriteBehindQueue appends)
+            throws SQLException {
+        if (retention < 1) {
+            throw new IllegalArgumentException("retention must be at least 1 but was " + retention);
+        }
+        ConnectionSource connectionSource = database.getConnectionSource();
+        TableUtils.createTableIfNotExists(connectionSource, Change.class);
+        // not through DaoManager: the log belongs to whoever installed it, not to the Database
+        Dao<Change, Long> dao = new BaseDaoImpl<Change, Long>(connectionSource, Change.class) {
+        };
+        for (String table : new String[]{"jobs", "employers"}) {
+            String type = table.equals("jobs") ? Change.JOB : Change.EMPLOYER;
+            dao.executeRaw("CREATE TRIGGER IF NOT EXISTS " + table + "_changes_insert AFTER INSERT ON " + table
+                    + " BEGIN " + insert(type, "NEW.id", Change.UPSERT) + " END");
+            dao.executeRaw("CREATE TRIGGER IF NOT EXISTS " + table + "_changes_update AFTER UPDATE ON " + table
+                    + " BEGIN " + insert(type, "NEW.id", Change.UPSERT) + " END");
+            dao.executeRaw("CREATE TRIGGER IF NOT EXISTS " + table + "_changes_delete AFTER DELETE ON " + table
+                    + " BEGIN " + insert(type, "OLD.id", Change.DELETE) + " END");
+        }
+        // the retention may differ from the last run's
+        dao.executeRaw("DROP TRIGGER IF EXISTS " + TABLE + "_prune");
+        dao.executeRaw("CREATE TRIGGER " + TABLE + "_prune AFTER INSERT ON " + TABLE
+                + " WHEN NEW.seq % " + PRUNE_EVERY + " = 0 BEGIN DELETE FROM " + TABLE
+                + " WHERE seq <= NEW.seq - " + retention + "; END");
+        dao.executeRaw("DELETE FROM " + TABLE + " WHERE seq <= (SELECT MAX(seq) FROM " + TABLE + ") - " + retention);
+        return new ChangeLog(dao, database.getExecutor(), appends);
+    }
+
+    private static String insert(String type, String id, String op) {
+        return "INSERT INTO " + TABLE + " (type, entity_id, op, at) VALUES ('" + type + "', " + id + ", '" + op
+                + "', " + NOW_MILLIS + ");";
+    }
+
+    // record writes of rows the triggers do not see: jobs written to the shard files (see JobShards), whose
+    // triggers cannot reach this table. The rows are appended after the writes are committed, in a transaction
+    // of their own; with a queue, they are queued and committed in groups with other writes' rows, so the
+    // writes of all shards do not each wait for this database's write lock, and the readers wake once they are
+    // in. Throws DatabaseBusyException if the queue is full.
+    public void append(String type, Collection<Integer> ids, String op) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Appended rows = new Appended(type, new ArrayList<>(ids), op);
+        if (appends != null) {
+            appends.submit(appender, rows);
+            return;
+        }
+        executor.call(() -> TransactionManager.callInTransaction(dao.getConnectionSource(), () -> {
+            insert(rows);
+            return null;
+        }));
+    }
+
+    private void insert(Appended rows) throws SQLException {
+        for (int from = 0; from < rows.ids.size(); from += APPEND_CHUNK) {
+            StringJoiner values = new StringJoiner(", ");
+            for (Integer id : rows.ids.subList(from, Math.min(rows.ids.size(), from + APPEND_CHUNK))) {
+                values.add("('" + rows.type + "', " + id + ", '" + rows.op + "', " + NOW_MILLIS + ")");
+            }
+            dao.executeRaw("INSERT INTO " + TABLE + " (type, entity_id, op, at) VALUES " + values);
+        }
+    }
+
+    // the sequence of the last change, 0 if there was none
+    public long latestSeq() throws SQLException {
+        return executor.call(this::readLatestSeq);
+    }
+
+    // up to limit changes after the given sequence, oldest first. Throws ResyncRequiredException if changes
+    // after it are no longer kept, or if it is beyond the latest change (the feed was started over).
+    public ChangeBatch read(long since, int limit) throws SQLException {
+        return executor.call(() -> {
+            long latest = readLatestSeq();
+            if (since > latest) {
+                throw new ResyncRequiredException(since, latest);
+            }
+            List<Change> changes = dao.queryBuilder().orderBy("seq", true).limit((long) limit)
+                    .where().gt("seq", since).query();
+            // pruning only removes the oldest rows: if the oldest row left still follows since, none of the
+            // changes read above can have been missed
+            long first = dao.queryRawValue("SELECT COALESCE(MIN(seq), " + (latest + 1) + ") FROM " + TABLE);
+            if (since < first - 1) {
+                throw new ResyncRequiredException(since, latest);
+            }
+            long next = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq();
+            return new ChangeBatch(changes, next, Math.max(latest, next));
+        });
+    }
+
+    // how many writes readers were told about so far; pass it to awaitWrite
+    public long getWriteCount() {
+        synchronized (writeLock) {
+            return writes;
+        }
+    }
+
+    // wait until there was a write after the given count, or the timeout passed; returns the count
+    public long awaitWrite(long seen, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (writeLock) {
+            long left = timeoutMillis;
+            while (writes == seen && left > 0) {
+                writeLock.wait(left);
+                left = deadline - System.currentTimeMillis();
+            }
+            return writes;
+        }
+    }
+
+    @Override
+    public void jobWritten(int id) {
+        written();
+    }
+
+    @Override
+    public void employerWritten(int id) {
+        written();
+    }
+
+    // batches wake the readers once
+    @Override
+    public void jobsWritten(Collection<Integer> ids) {
+        written();
+    }
+
+    @Override
+    public void employersWritten(Collection<Integer> ids) {
+        written();
+    }
+
+    private void written() {
+        synchronized (writeLock) {
+            writes++;
+            writeLock.notifyAll();
+        }
+    }
+
+    private long readLatestSeq() throws SQLException {
+        return dao.queryRawValue("SELECT COALESCE(MAX(seq), 0) FROM sqlite_sequence WHERE name = '" + TABLE + "'");
+    }
+
+    // the changes of one append
+    private static final class Appended {
+        private final String type;
+        private final List<Integer> ids;
+        private final String op;
+
+        Appended(String type, List<Integer> ids, String op) {
+            this.type = type;
+            this.ids = ids;
+            this.op = op;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Position of the last row of a page for keyset pagination: the sort it belongs to, the value of the
+// sort column (if the sort is not by id alone) and the row id. Clients only ever see the opaque token.
+public class Cursor {
+
+    private final String sort;
+    private final Long value;
+    private final int id;
+
+    public Cursor(String sort, Long value, int id) {
+        this.sort = sort;
+        this.value = value;
+        this.id = id;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public Long getValue() {
+        return value;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = sort + ":" + (value == null ? "" : value) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // parse a token made by encode(); it must have been issued for the same sort
+    public static Cursor decode(String token, String expectedSort) {
+        return decode(token, expectedSort, false);
+    }
+
+    // as above; valueRequired: the sort is not by id alone, so the token must carry the sort column's value
+    public static Cursor decode(String token, String expectedSort, boolean valueRequired) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", -1);
+            if (parts.length == 3 && parts[0].equals(expectedSort) && !(valueRequired && parts[1].isEmpty())) {
+                Long value = parts[1].isEmpty() ? null : Long.parseLong(parts[1]);
+                return new Cursor(parts[0], value, Integer.parseInt(parts[2]));
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through to the error below
+        }
+        throw new IllegalArgumentException("Invalid cursor for sort '" + expectedSort + "': " + token);
+    }
+}
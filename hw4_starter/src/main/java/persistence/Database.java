@@ -0,0 +1,126 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import model.Employer;
+import model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The JBApp data-access layer: one bounded connection pool, a schema that is bootstrapped once,
+// and one DAO per table. Open it at startup and share it between all requests.
+public class Database implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Database.class);
+
+    private final DatabaseConfig config;
+    private final PooledConnectionSource connectionSource;
+    private final Dao<Employer, Integer> employerDao;
+    private final Dao<Job, Integer> jobDao;
+    private final Dao<Job, Integer> jobArchiveDao;
+    private final DatabaseExecutor executor;
+
+    private Database(DatabaseConfig config, PooledConnectionSource connectionSource) throws SQLException {
+        this.config = config;
+        this.connectionSource = connectionSource;
+        this.executor = config.isExecutorEnabled()
+                ? DatabaseExecutor.bounded(config.getMaxConnections(), config.getExecutorQueueCapacity())
+                : DatabaseExecutor.inline();
+        this.employerDao = DaoManager.createDao(connectionSource, Employer.class);
+        this.jobDao = DaoManager.createDao(connectionSource, Job.class);
+        this.jobArchiveDao = Schema.createArchive(connectionSource);
+    }
+
+    public static Database open(DatabaseConfig config) throws SQLException {
+        return open(config, DatabaseListener.NONE);
+    }
+
+    // open the database, telling the listener about every connection hand-out and statement (e.g. for metrics)
+    public static Database open(DatabaseConfig config, DatabaseListener listener) throws SQLException {
+        PooledConnectionSource connectionSource = new PooledConnectionSource(config, listener);
+        try {
+            Schema.bootstrap(connectionSource);
+            Database database = new Database(config, connectionSource);
+            Schema.migrateDateColumns(database.jobDao);
+            Schema.migrateDateColumns(database.jobArchiveDao);
+            Schema.createDeclaredIndexes(database.employerDao);
+            Schema.createDeclaredIndexes(database.jobDao);
+            JobSearchIndex.install(database.jobDao);
+            log.info("Opened {}", config);
+            return database;
+        } catch (SQLException | RuntimeException e) {
+            connectionSource.closeQuietly();
+            throw e;
+        }
+    }
+
+    public Dao<Employer, Integer> getEmployerDao() {
+        return employerDao;
+    }
+
+    public Dao<Job, Integer> getJobDao() {
+        return jobDao;
+    }
+
+    // jobs moved out of the jobs table after their deadline
+    public Dao<Job, Integer> getJobArchiveDao() {
+        return jobArchiveDao;
+    }
+
+    // where the repositories run their statements
+    public DatabaseExecutor getExecutor() {
+        return executor;
+    }
+
+    public PooledConnectionSource getConnectionSource() {
+        return connectionSource;
+    }
+
+    public DatabaseConfig getConfig() {
+        return config;
+    }
+
+    // a snapshot of the pool settings and usage, e.g. for the /admin/db endpoint
+    public Map<String, Object> describePool() {
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("url", config.getUrl());
+        pool.put("maxConnections", connectionSource.getMaxConnections());
+        pool.put("idleTimeoutMillis", connectionSource.getIdleTimeoutMillis());
+        pool.put("acquireTimeoutMillis", connectionSource.getAcquireTimeoutMillis());
+        pool.put("activeConnections", connectionSource.getActiveConnections());
+        pool.put("idleConnections", connectionSource.getIdleConnections());
+        pool.put("waitingThreads", connectionSource.getWaitingThreads());
+        pool.put("separateWriter", connectionSource.isSeparateWriter());
+        pool.put("waitingWriters", connectionSource.getWaitingWriters());
+        pool.put("openedConnections", connectionSource.getOpenedCount());
+        pool.put("closedConnections", connectionSource.getClosedCount());
+        pool.put("acquired", connectionSource.getAcquireCount());
+        pool.put("acquireTimeouts", connectionSource.getAcquireTimeoutCount());
+        pool.put("acquireWaitMillis", connectionSource.getAcquireWaitNanos() / 1_000_000);
+        pool.put("tuning", connectionSource.getTuning());
+        pool.put("executor", executor.describe());
+        return pool;
+    }
+
+    public void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            log.warn("Could not close {}", config.getUrl(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        DaoManager.unregisterDao(connectionSource, employerDao);
+        DaoManager.unregisterDao(connectionSource, jobDao);
+        connectionSource.close();
+    }
+}
@@ -0,0 +1,13 @@
+package persistence;
+
+import java.sql.SQLTransientException;
+
+// The database executor's queue is full: the work was not started, and may be retried later.
+public class DatabaseBusyException extends SQLTransientException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DatabaseBusyException(String message) {
+        super(message);
+    }
+}
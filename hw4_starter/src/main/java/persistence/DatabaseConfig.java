@@ -0,0 +1,129 @@
+package persistence;
+
+import config.AppConfig;
+
+// Settings for the JBApp database and its connection pool.
+public class DatabaseConfig {
+
+    public static final String DEFAULT_URL = "jdbc:sqlite:./JBApp.db";
+    // rows per transaction of a batch insert
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    // tasks that may wait for the bounded database executor before new ones are turned away
+    public static final int DEFAULT_EXECUTOR_QUEUE_CAPACITY = 1_000;
+
+    private final String url;
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    private final int batchSize;
+    private final boolean executorEnabled;
+    private final int executorQueueCapacity;
+    private final SqliteTuning tuning;
+
+    public DatabaseConfig(String url, int maxConnections, long idleTimeoutMillis, long acquireTimeoutMillis) {
+        this(url, maxConnections, idleTimeoutMillis, acquireTimeoutMillis, DEFAULT_BATCH_SIZE);
+    }
+
+    public DatabaseConfig(String url, int maxConnections, long idleTimeoutMillis, long acquireTimeoutMillis,
+                          int batchSize) {
+        this(url, maxConnections, idleTimeoutMillis, acquireTimeoutMillis, batchSize, false,
+                DEFAULT_EXECUTOR_QUEUE_CAPACITY);
+    }
+
+    // executorEnabled runs database work on a bounded executor with one thread per connection, see
+    // DatabaseExecutor; otherwise it runs on the calling thread
+    public DatabaseConfig(String url, int maxConnections, long idleTimeoutMillis, long acquireTimeoutMillis,
+                          int batchSize, boolean executorEnabled, int executorQueueCapacity) {
+        this(url, maxConnections, idleTimeoutMillis, acquireTimeoutMillis, batchSize, executorEnabled,
+                executorQueueCapacity, SqliteTuning.NONE);
+    }
+
+    // tuning: the pragmas of the connections, and whether writes get a connection of their own (in addition to
+    // the maxConnections read-only ones), see SqliteTuning
+    public DatabaseConfig(String url, int maxConnections, long idleTimeoutMillis, long acquireTimeoutMillis,
+                          int batchSize, boolean executorEnabled, int executorQueueCapacity, SqliteTuning tuning) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1 but was " + maxConnections);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+        if (executorQueueCapacity < 1) {
+            throw new IllegalArgumentException("executorQueueCapacity must be at least 1 but was "
+                    + executorQueueCapacity);
+        }
+        this.url = url;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.batchSize = batchSize;
+        this.executorEnabled = executorEnabled;
+        this.executorQueueCapacity = executorQueueCapacity;
+        this.tuning = tuning;
+    }
+
+    // build the configuration from jbapp.db.* system properties / JBAPP_DB_* environment variables
+    public static DatabaseConfig fromAppConfig() {
+        return new DatabaseConfig(
+                AppConfig.getString("db.url", DEFAULT_URL),
+                AppConfig.getInt("db.pool.maxConnections", 8),
+                AppConfig.getLong("db.pool.idleTimeoutMillis", 60_000L),
+                AppConfig.getLong("db.pool.acquireTimeoutMillis", 5_000L),
+                AppConfig.getInt("db.batchSize", DEFAULT_BATCH_SIZE),
+                AppConfig.getBoolean("db.executor.enabled", false),
+                AppConfig.getInt("db.executor.queueCapacity", DEFAULT_EXECUTOR_QUEUE_CAPACITY),
+                SqliteTuning.fromAppConfig());
+    }
+
+    // the same settings for another database file
+    public DatabaseConfig withUrl(String url) {
+        return new DatabaseConfig(url, maxConnections, idleTimeoutMillis, acquireTimeoutMillis, batchSize,
+                executorEnabled, executorQueueCapacity, tuning);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isExecutorEnabled() {
+        return executorEnabled;
+    }
+
+    public int getExecutorQueueCapacity() {
+        return executorQueueCapacity;
+    }
+
+    public SqliteTuning getTuning() {
+        return tuning;
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseConfig{" +
+                "url='" + url + '\'' +
+                ", maxConnections=" + maxConnections +
+                ", idleTimeoutMillis=" + idleTimeoutMillis +
+                ", acquireTimeoutMillis=" + acquireTimeoutMillis +
+                ", batchSize=" + batchSize +
+                ", executorEnabled=" + executorEnabled +
+                ", executorQueueCapacity=" + executorQueueCapacity +
+                ", tuning=" + tuning +
+                '}';
+    }
+}
@@ -0,0 +1,143 @@
+package persistence;
+
+import com.j256.ormlite.dao.CloseableIterator;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Where the repositories run their database work. Inline (the default) runs it on the caller's thread.
+// Bounded runs it on as many platform threads as the pool has connections, behind a queue of limited
+// capacity: request threads (virtual ones in particular, which SQLite's native calls would pin) only wait
+// for the result, no more statements run at once than there are threads, and once the queue is full
+// new work fails fast with DatabaseBusyException instead of piling up. An open iterator holds its connection
+// between its tasks, so it is the pool, not the thread count, that bounds the connections in use.
+//
+// A unit of work (e.g. a transaction, whose connection ORMLite keeps per thread) must run as one task;
+// work submitted from a database thread runs inline, so a task that calls other repository methods cannot
+// deadlock waiting for a thread of its own.
+public class DatabaseExecutor {
+
+    // rows an iterator reads per task
+    static final int ITERATOR_BATCH = 256;
+
+    public interface Work<T> {
+        T call() throws SQLException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final ThreadLocal<Boolean> onExecutorThread = ThreadLocal.withInitial(() -> false);
+    private final AtomicLong rejected = new AtomicLong();
+
+    private DatabaseExecutor(int threads, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        if (threads == 0) {
+            this.executor = null;
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+                    Thread thread = new Thread(() -> {
+                        onExecutorThread.set(true);
+                        task.run();
+                    }, "db-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    static DatabaseExecutor inline() {
+        return new DatabaseExecutor(0, 0);
+    }
+
+    static DatabaseExecutor bounded(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("need at least 1 thread and a queue of at least 1 but got " + threads
+                    + " and " + queueCapacity);
+        }
+        return new DatabaseExecutor(threads, queueCapacity);
+    }
+
+    public boolean isInline() {
+        return executor == null;
+    }
+
+    // run the work on a database thread and wait for its result
+    public <T> T call(Work<T> work) throws SQLException {
+        if (executor == null || onExecutorThread.get()) {
+            return work.call();
+        }
+        Future<T> result;
+        try {
+            result = executor.submit(work::call);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new DatabaseBusyException("The database is busy: " + queueCapacity + " tasks are already waiting");
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    // an iterator that reads the given one on database threads, ITERATOR_BATCH rows per task (see
+    // PrefetchingIterator); an inline executor returns the iterator as it is
+    public <T> CloseableIterator<T> iterator(Work<CloseableIterator<T>> open) throws SQLException {
+        CloseableIterator<T> rows = call(open);
+        return executor == null ? rows : new PrefetchingIterator<>(this, rows, ITERATOR_BATCH);
+    }
+
+    // tasks waiting for a database thread
+    public int getQueued() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public Map<String, Object> describe() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", executor == null ? "inline" : "bounded");
+        if (executor != null) {
+            stats.put("threads", executor.getMaximumPoolSize());
+            stats.put("activeThreads", executor.getActiveCount());
+            stats.put("queueCapacity", queueCapacity);
+            stats.put("queued", getQueued());
+            stats.put("completed", executor.getCompletedTaskCount());
+            stats.put("rejected", getRejectedCount());
+        }
+        return stats;
+    }
+}
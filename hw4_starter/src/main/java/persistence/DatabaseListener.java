@@ -0,0 +1,22 @@
+package persistence;
+
+// Told about the pool's connection hand-outs and every statement run on a pooled connection, e.g. to keep
+// metrics. Called on the thread that did the work, so implementations must be fast and thread-safe.
+public interface DatabaseListener {
+
+    DatabaseListener NONE = new DatabaseListener() {
+        @Override
+        public void connectionAcquired(long waitNanos, boolean timedOut) {
+        }
+
+        @Override
+        public void statementExecuted(String sql, long nanos, boolean failed) {
+        }
+    };
+
+    // a caller waited waitNanos for a connection, and got one unless it timed out
+    void connectionAcquired(long waitNanos, boolean timedOut);
+
+    // a statement ran for nanos (for a query: until its first row was ready) and failed or not
+    void statementExecuted(String sql, long nanos, boolean failed);
+}
@@ -0,0 +1,269 @@
+package persistence;
+
+import cache.EntityCaches;
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.QueryBuilder;
+import model.Employer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Reads and writes of the "employers" table. By-id lookups and pages are read through the entity caches;
+// every write goes through here so that it invalidates the cached entries it affects. With job shards, every
+// write is copied to the shards' copies of the table once it is committed.
+public class EmployerRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(EmployerRepository.class);
+
+    private static final String SORT = "id";
+
+    private final Dao<Employer, Integer> dao;
+    private final EntityCaches caches;
+    private final WriteListener listener;
+    private final DatabaseExecutor executor;
+    private final BatchInsert<Employer> batchInsert;
+    private final WriteBehindQueue writeBehind;
+    private final JobShards jobShards;
+    private final IdAllocator ids;
+    private final Dao<Employer, Integer> assignedIdDao;
+    // employers queued to be created that are not committed yet, which can already be updated
+    private final Set<Integer> queuedCreates = ConcurrentHashMap.newKeySet();
+    // the writers of the queued employers, which tell the caches and listeners once a batch is committed
+    private final WriteBehindQueue.Writer<Employer> queuedCreate = new WriteBehindQueue.Writer<>() {
+        @Override
+        public void apply(Employer employer) throws SQLException {
+            assignedIdDao.create(employer);
+        }
+
+        @Override
+        public void committed(List<Employer> employers) {
+            List<Integer> created = ids(employers);
+            queuedCreates.removeAll(created);
+            written(created);
+        }
+    };
+
+    private final WriteBehindQueue.Writer<Employer> queuedUpdate = new WriteBehindQueue.Writer<>() {
+        @Override
+        public void apply(Employer employer) throws SQLException {
+            dao.update(employer);
+        }
+
+        @Override
+        public void committed(List<Employer> employers) {
+            written(ids(employers));
+        }
+    };
+
+    public EmployerRepository(Database database, EntityCaches caches) throws SQLException {
+        this(database, caches, WriteListener.NONE);
+    }
+
+    public EmployerRepository(Database database, EntityCaches caches, WriteListener listener) throws SQLException {
+        this(database, caches, listener, null);
+    }
+
+    // with a write-behind queue, submitCreate and submitUpdate queue the employer instead of writing it right away
+    public EmployerRepository(Database database, EntityCaches caches, WriteListener listener,
+                              WriteBehindQueue writeBehind) throws SQLException {
+        this(database, caches, listener, writeBehind, null);
+    }
+
+    // the employers of the shards' catalog, copied to the shards as they are written
+    public EmployerRepository(JobShards jobShards, EntityCaches caches, WriteListener listener) throws SQLException {
+        this(jobShards.getCatalog(), caches, listener, null, jobShards);
+    }
+
+    private EmployerRepository(Database database, EntityCaches caches, WriteListener listener,
+                               WriteBehindQueue writeBehind, JobShards jobShards) throws SQLException {
+        this.dao = database.getEmployerDao();
+        this.caches = caches;
+        this.listener = listener;
+        this.executor = database.getExecutor();
+        this.batchInsert = new BatchInsert<>(dao, database.getConfig().getBatchSize());
+        this.writeBehind = writeBehind;
+        this.jobShards = jobShards;
+        this.ids = writeBehind == null ? null : writeBehind.idAllocator(dao);
+        this.assignedIdDao = writeBehind == null ? null : Schema.createAssignedIdDao(database.getConnectionSource(),
+                Employer.class);
+    }
+
+    // all employers in id order, read one row at a time; the caller must close the iterator
+    public CloseableIterator<Employer> iterateAll() throws SQLException {
+        return executor.iterator(() -> dao.iterator(dao.queryBuilder().orderBy("id", true).prepare()));
+    }
+
+    public Employer findById(int id) throws SQLException {
+        return caches.employersById().get(id, () -> executor.call(() -> dao.queryForId(id)));
+    }
+
+    // the employers with the given ids, keyed by id; the ones not cached are loaded with a single IN query
+    public Map<Integer, Employer> findByIds(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Employer> byId = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Employer cached = caches.employersById().get(id);
+            if (cached != null) {
+                byId.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Employer employer : executor.call(() -> dao.queryBuilder().where().in("id", missing).query())) {
+                byId.put(employer.getId(), employer);
+                caches.employersById().put(employer.getId(), employer);
+            }
+        }
+        return byId;
+    }
+
+    // one page of employers in id order after the given cursor (or the first page when it is null)
+    public Page<Employer> page(String cursor, int limit) throws SQLException {
+        Integer after = cursor == null ? null : Cursor.decode(cursor, SORT).getId();
+        List<Employer> rows = caches.employerPages().get(after + "|" + limit, () -> executor.call(() -> {
+            QueryBuilder<Employer, Integer> qb = dao.queryBuilder();
+            qb.orderBy("id", true);
+            if (after != null) {
+                qb.where().gt("id", after);
+            }
+            // one extra row tells whether there is a next page
+            qb.limit(limit + 1L);
+            return qb.query();
+        }));
+        if (rows.size() <= limit) {
+            return new Page<>(rows, null);
+        }
+        List<Employer> items = rows.subList(0, limit);
+        return new Page<>(items, new Cursor(SORT, null, items.get(limit - 1).getId()).encode());
+    }
+
+    public void create(Employer employer) throws SQLException {
+        executor.call(() -> dao.create(employer));
+        replicate(Collections.singletonList(employer.getId()));
+        written(employer.getId());
+    }
+
+    // insert many employers in a few transactions; rows that are invalid (a missing name or sector, or a
+    // name that is already taken) are skipped and reported by their position in the list
+    public BatchResult createAll(List<Employer> employers) throws SQLException {
+        BatchResult result = executor.call(() -> batchInsert.run(employers, new HashMap<>()));
+        replicate(result.getIds());
+        written(result.getIds());
+        return result;
+    }
+
+    // check the employer like createAll does (IllegalArgumentException if it is invalid), then create it: with a
+    // write-behind queue, the employer gets its id right away and is queued, else it is written at once. The
+    // future completes once the employer is committed, or exceptionally if it could not be (say, another write
+    // took its name in the meantime).
+    public CompletableFuture<Void> submitCreate(Employer employer) throws SQLException {
+        validate(employer, true);
+        if (writeBehind == null) {
+            create(employer);
+            return CompletableFuture.completedFuture(null);
+        }
+        employer.setId(ids.next());
+        int id = employer.getId();
+        queuedCreates.add(id);
+        CompletableFuture<Void> done;
+        try {
+            done = writeBehind.submit(queuedCreate, employer);
+        } catch (DatabaseBusyException e) {
+            queuedCreates.remove(id);
+            throw e;
+        }
+        done.whenComplete((committed, failure) -> {
+            if (failure != null) {
+                queuedCreates.remove(id);
+            }
+        });
+        return done;
+    }
+
+    // check the employer, then replace the one with its id, like submitCreate
+    public CompletableFuture<Void> submitUpdate(Employer employer) throws SQLException {
+        validate(employer, false);
+        if (writeBehind == null) {
+            update(employer);
+            return CompletableFuture.completedFuture(null);
+        }
+        return writeBehind.submit(queuedUpdate, employer);
+    }
+
+    // whether there is an employer with the id, counting the ones queued to be created
+    public boolean exists(int id) throws SQLException {
+        return queuedCreates.contains(id) || findById(id) != null;
+    }
+
+    public void update(Employer employer) throws SQLException {
+        executor.call(() -> dao.update(employer));
+        replicate(Collections.singletonList(employer.getId()));
+        written(employer.getId());
+    }
+
+    public void delete(int id) throws SQLException {
+        executor.call(() -> dao.deleteById(id));
+        replicate(Collections.singletonList(id));
+        written(id);
+    }
+
+    // copy the committed rows to the shards before anyone hears of the write, so a job written after it sees
+    // the employer in its shard. The write is committed either way: a copy that fails is only logged, and the
+    // shards get it with the next employer write (or when they are opened again).
+    private void replicate(List<Integer> ids) {
+        if (jobShards == null) {
+            return;
+        }
+        try {
+            jobShards.replicateEmployers(ids);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Could not copy employers {} to the job shards; they are copied with the next write", ids, e);
+        }
+    }
+
+    private void validate(Employer employer, boolean creating) throws SQLException {
+        String error = executor.call(() -> batchInsert.check(employer, creating));
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    private static List<Integer> ids(List<Employer> employers) {
+        List<Integer> ids = new ArrayList<>(employers.size());
+        for (Employer employer : employers) {
+            ids.add(employer.getId());
+        }
+        return ids;
+    }
+
+    // employers another process wrote (see ExternalWriteWatcher): drop them from the caches and tell the listener,
+    // like a write through here
+    public void writtenElsewhere(Collection<Integer> ids) {
+        written(new ArrayList<>(ids));
+    }
+
+    private void written(int id) {
+        caches.employerWritten(id);
+        listener.employerWritten(id);
+    }
+
+    private void written(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        caches.employersWritten(ids);
+        listener.employersWritten(ids);
+    }
+}
@@ -0,0 +1,159 @@
+package persistence;
+
+import cache.EntityCaches;
+import model.Change;
+import model.Employer;
+import model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps the caches and in-memory copies of this process coherent with writes other processes make to the same
+// database file, for running several instances side by side. Every pollMillis it reads the latest sequence of
+// the change feed (one row of sqlite_sequence, which every write of any process advances through the ChangeLog
+// triggers); only when that moved does it read the changes and hand the written job and employer ids to the
+// repositories, which invalidate them like their own writes.
+//
+// It cannot tell this process's writes from others', so those are seen twice; invalidating a row again is
+// harmless, it just reloads it. If it fell further behind than the feed's retention, it cannot tell which rows
+// were written in the gap: it empties the entity caches and tells the listeners that every row may have
+// changed (allWritten, with the ids the tables hold now), so the in-memory copies reload what is there and drop
+// what is gone.
+public class ExternalWriteWatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ExternalWriteWatcher.class);
+
+    // changes read per query
+    private static final int READ_LIMIT = 1_000;
+
+    private final ChangeLog changes;
+    private final JobRepository jobs;
+    private final EmployerRepository employers;
+    private final EntityCaches caches;
+    private final WriteListener listener;
+    private final Database database;
+    private final ScheduledExecutorService scheduler;
+    private long since;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ExternalWriteWatcher(ChangeLog changes, JobRepository jobs, EmployerRepository employers,
+                                 EntityCaches caches, WriteListener listener, Database database, long since) {
+        this.changes = changes;
+        this.jobs = jobs;
+        this.employers = employers;
+        this.caches = caches;
+        this.listener = listener;
+        this.database = database;
+        this.since = since;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "external-write-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // watch for changes after the latest one now, every pollMillis; caches and listener are the repositories'
+    public static ExternalWriteWatcher start(ChangeLog changes, JobRepository jobs, EmployerRepository employers,
+                                             EntityCaches caches, WriteListener listener, Database database,
+                                             long pollMillis) throws SQLException {
+        ExternalWriteWatcher watcher = new ExternalWriteWatcher(changes, jobs, employers, caches, listener,
+                database, changes.latestSeq());
+        watcher.scheduler.scheduleWithFixedDelay(watcher::pollQuietly, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        return watcher;
+    }
+
+    // one poll; returns how many changes were applied
+    int poll() throws SQLException {
+        polls.incrementAndGet();
+        if (changes.latestSeq() == since) {
+            return 0;
+        }
+        int count = 0;
+        ChangeBatch batch;
+        do {
+            try {
+                batch = changes.read(since, READ_LIMIT);
+            } catch (ResyncRequiredException e) {
+                resyncs.incrementAndGet();
+                log.warn("Fell behind the change feed ({}); reloading every job and employer", e.getMessage());
+                reloadAll();
+                since = e.getLatest();
+                return count;
+            }
+            Set<Integer> jobIds = new LinkedHashSet<>();
+            Set<Integer> employerIds = new LinkedHashSet<>();
+            for (Change change : batch.getChanges()) {
+                (change.getType().equals(Change.JOB) ? jobIds : employerIds).add(change.getId());
+            }
+            employers.writtenElsewhere(employerIds);
+            jobs.writtenElsewhere(jobIds);
+            count += batch.getChanges().size();
+            applied.addAndGet(batch.getChanges().size());
+            since = batch.getNext();
+        } while (batch.hasMore());
+        return count;
+    }
+
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    // changes seen in the feed, this process's own included
+    public long getAppliedCount() {
+        return applied.get();
+    }
+
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void reloadAll() throws SQLException {
+        List<Integer> employerIds = new ArrayList<>();
+        List<Integer> jobIds = new ArrayList<>();
+        database.getExecutor().call(() -> {
+            for (Employer employer : database.getEmployerDao().queryBuilder().selectColumns("id").query()) {
+                employerIds.add(employer.getId());
+            }
+            for (Job job : database.getJobDao().queryBuilder().selectColumns("id").query()) {
+                jobIds.add(job.getId());
+            }
+            return null;
+        });
+        caches.invalidateAll();
+        listener.allWritten(jobIds, employerIds);
+    }
+
+    // a failed poll (say, the database executor was busy) is logged, and the next one picks up from the same
+    // sequence
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (SQLException | RuntimeException e) {
+            failures.incrementAndGet();
+            log.warn("Polling the change feed for writes of other processes failed", e);
+        }
+    }
+}
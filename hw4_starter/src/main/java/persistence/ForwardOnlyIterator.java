@@ -0,0 +1,60 @@
+package persistence;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.support.DatabaseResults;
+
+import java.io.IOException;
+
+// A CloseableIterator that only goes forward and is not backed by a live result set of its own, e.g. one
+// that reads ahead on another thread or one over rows already in memory.
+abstract class ForwardOnlyIterator<T> implements CloseableIterator<T> {
+
+    @Override
+    public T nextThrow() {
+        return next();
+    }
+
+    @Override
+    public void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // like CloseableIterator.closeQuietly
+        }
+    }
+
+    @Override
+    public DatabaseResults getRawResults() {
+        throw new UnsupportedOperationException("no result set of its own");
+    }
+
+    @Override
+    public void moveToNext() {
+        throw new UnsupportedOperationException("forward iteration only");
+    }
+
+    @Override
+    public T first() {
+        throw new UnsupportedOperationException("forward iteration only");
+    }
+
+    @Override
+    public T previous() {
+        throw new UnsupportedOperationException("forward iteration only");
+    }
+
+    @Override
+    public T current() {
+        throw new UnsupportedOperationException("forward iteration only");
+    }
+
+    @Override
+    public T moveRelative(int offset) {
+        throw new UnsupportedOperationException("forward iteration only");
+    }
+
+    @Override
+    public T moveAbsolute(int position) {
+        throw new UnsupportedOperationException("forward iteration only");
+    }
+}
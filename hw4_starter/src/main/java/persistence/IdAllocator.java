@@ -0,0 +1,71 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+
+import java.sql.SQLException;
+
+// Hands out the ids of rows that are inserted later (see WriteBehindQueue), so that a request can be answered
+// with the id of a row that is not written yet. Ids come from the table's AUTOINCREMENT counter in
+// sqlite_sequence, blockSize at a time: reserving a block moves the counter past it, so the rows the database
+// numbers itself (batch inserts, other processes) get ids after the block. Ids of a block that is not used
+// up before the process stops, or of rows whose insert failed, are never used.
+//
+// With a stride, only the ids that leave the given remainder modulo the stride are handed out (a block then
+// spans blockSize * stride numbers): every shard of a table (see JobShards) numbers its rows this way, so
+// ids are unique across the shards and tell which one a row is in.
+final class IdAllocator {
+
+    private final Dao<?, ?> dao;
+    private final DatabaseExecutor executor;
+    private final int blockSize;
+    private final int stride;
+    private final int remainder;
+    // the next id to hand out, and the end (exclusive) of the reserved block
+    private long next;
+    private long end;
+
+    IdAllocator(Dao<?, ?> dao, DatabaseExecutor executor, int blockSize) {
+        this(dao, executor, blockSize, 1, 0);
+    }
+
+    IdAllocator(Dao<?, ?> dao, DatabaseExecutor executor, int blockSize, int stride, int remainder) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1 but was " + blockSize);
+        }
+        if (stride < 1 || remainder < 0 || remainder >= stride) {
+            throw new IllegalArgumentException("need a stride of at least 1 and a remainder below it but got "
+                    + stride + " and " + remainder);
+        }
+        this.dao = dao;
+        this.executor = executor;
+        this.blockSize = blockSize;
+        this.stride = stride;
+        this.remainder = remainder;
+    }
+
+    synchronized int next() throws SQLException {
+        if (next >= end) {
+            long last = reserve();
+            long first = last - (long) blockSize * stride + 1;
+            next = first + Math.floorMod(remainder - first, (long) stride);
+            end = last + 1;
+        }
+        int id = Math.toIntExact(next);
+        next += stride;
+        return id;
+    }
+
+    // move the counter blockSize * stride past the largest id in use; returns the last number of the block
+    private long reserve() throws SQLException {
+        String table = dao.getTableName();
+        return executor.call(() -> TransactionManager.callInTransaction(dao.getConnectionSource(), () -> {
+            // writing first takes the write lock, so no insert can come between reading the counter and moving it
+            dao.executeRaw("INSERT INTO sqlite_sequence (name, seq) SELECT '" + table + "', 0"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = '" + table + "')");
+            dao.executeRaw("UPDATE sqlite_sequence SET seq = MAX(seq, (SELECT COALESCE(MAX(id), 0) FROM `" + table
+                    + "`)) + " + (long) blockSize * stride + " WHERE name = '" + table + "'");
+            return dao.queryRawValue("SELECT seq FROM sqlite_sequence WHERE name = '" + table + "'");
+        }));
+    }
+}
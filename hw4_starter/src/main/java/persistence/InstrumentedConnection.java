@@ -0,0 +1,221 @@
+package persistence;
+
+import com.j256.ormlite.dao.ObjectCache;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.GenericRowMapper;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+import com.j256.ormlite.support.GeneratedKeyHolder;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+// A pooled connection that reports how long each statement takes to its DatabaseListener. Everything the
+// DAOs run goes through executeStatement / insert / update / delete / queryFor* or a compiled statement.
+final class InstrumentedConnection implements DatabaseConnection {
+
+    private final DatabaseConnection delegate;
+    private final DatabaseListener listener;
+
+    InstrumentedConnection(DatabaseConnection delegate, DatabaseListener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    private interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    private <T> T timed(String sql, Call<T> call) throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.run();
+            failed = false;
+            return result;
+        } finally {
+            listener.statementExecuted(sql, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public int executeStatement(String statementStr, int resultFlags) throws SQLException {
+        return timed(statementStr, () -> delegate.executeStatement(statementStr, resultFlags));
+    }
+
+    @Override
+    public CompiledStatement compileStatement(String statement, StatementType type, FieldType[] argFieldTypes,
+                                              int resultFlags, boolean cacheStore) throws SQLException {
+        return new Statement(delegate.compileStatement(statement, type, argFieldTypes, resultFlags, cacheStore));
+    }
+
+    @Override
+    public int insert(String statement, Object[] args, FieldType[] argfieldTypes, GeneratedKeyHolder keyHolder)
+            throws SQLException {
+        return timed(statement, () -> delegate.insert(statement, args, argfieldTypes, keyHolder));
+    }
+
+    @Override
+    public int update(String statement, Object[] args, FieldType[] argfieldTypes) throws SQLException {
+        return timed(statement, () -> delegate.update(statement, args, argfieldTypes));
+    }
+
+    @Override
+    public int delete(String statement, Object[] args, FieldType[] argfieldTypes) throws SQLException {
+        return timed(statement, () -> delegate.delete(statement, args, argfieldTypes));
+    }
+
+    @Override
+    public <T> Object queryForOne(String statement, Object[] args, FieldType[] argfieldTypes,
+                                  GenericRowMapper<T> rowMapper, ObjectCache objectCache) throws SQLException {
+        return timed(statement, () -> delegate.queryForOne(statement, args, argfieldTypes, rowMapper, objectCache));
+    }
+
+    @Override
+    public long queryForLong(String statement) throws SQLException {
+        return timed(statement, () -> delegate.queryForLong(statement));
+    }
+
+    @Override
+    public long queryForLong(String statement, Object[] args, FieldType[] argFieldTypes) throws SQLException {
+        return timed(statement, () -> delegate.queryForLong(statement, args, argFieldTypes));
+    }
+
+    @Override
+    public boolean isAutoCommitSupported() throws SQLException {
+        return delegate.isAutoCommitSupported();
+    }
+
+    @Override
+    public boolean isAutoCommit() throws SQLException {
+        return delegate.isAutoCommit();
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        delegate.setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public Savepoint setSavePoint(String name) throws SQLException {
+        return delegate.setSavePoint(name);
+    }
+
+    @Override
+    public void commit(Savepoint savePoint) throws SQLException {
+        timed("COMMIT", () -> {
+            delegate.commit(savePoint);
+            return null;
+        });
+    }
+
+    @Override
+    public void rollback(Savepoint savePoint) throws SQLException {
+        delegate.rollback(savePoint);
+    }
+
+    @Override
+    public void releaseSavePoint(Savepoint savePoint) throws SQLException {
+        delegate.releaseSavePoint(savePoint);
+    }
+
+    @Override
+    public void closeQuietly() {
+        delegate.closeQuietly();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public boolean isTableExists(String tableName) throws SQLException {
+        return delegate.isTableExists(tableName);
+    }
+
+    @Override
+    public Connection getUnderlyingConnection() {
+        return delegate.getUnderlyingConnection();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    // times runQuery / runUpdate / runExecute of a compiled statement
+    private final class Statement implements CompiledStatement {
+
+        private final CompiledStatement delegate;
+
+        private Statement(CompiledStatement delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int runUpdate() throws SQLException {
+            return timed(delegate.getStatement(), delegate::runUpdate);
+        }
+
+        @Override
+        public DatabaseResults runQuery(ObjectCache objectCache) throws SQLException {
+            return timed(delegate.getStatement(), () -> delegate.runQuery(objectCache));
+        }
+
+        @Override
+        public int runExecute() throws SQLException {
+            return timed(delegate.getStatement(), delegate::runExecute);
+        }
+
+        @Override
+        public int getColumnCount() throws SQLException {
+            return delegate.getColumnCount();
+        }
+
+        @Override
+        public String getColumnName(int column) throws SQLException {
+            return delegate.getColumnName(column);
+        }
+
+        @Override
+        public void closeQuietly() {
+            delegate.closeQuietly();
+        }
+
+        @Override
+        public void cancel() throws SQLException {
+            delegate.cancel();
+        }
+
+        @Override
+        public void setObject(int parameterIndex, Object obj, SqlType sqlType) throws SQLException {
+            delegate.setObject(parameterIndex, obj, sqlType);
+        }
+
+        @Override
+        public void setMaxRows(int max) throws SQLException {
+            delegate.setMaxRows(max);
+        }
+
+        @Override
+        public void setQueryTimeout(long millis) throws SQLException {
+            delegate.setQueryTimeout(millis);
+        }
+
+        @Override
+        public String getStatement() {
+            return delegate.getStatement();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Moves jobs whose deadline has passed (by more than the grace period) from the jobs table to the archive,
+// every intervalMillis on a background thread, so the table the listings read stays small. A run moves
+// batchSize jobs per transaction and pauses pauseMillis between batches, which keeps every write lock short.
+// It never competes with requests for the database: while a thread waits for a connection or work waits
+// for a database thread, the run stops and the next one picks up where it left off.
+public class JobArchiver implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JobArchiver.class);
+
+    private final JobRepository jobs;
+    private final PooledConnectionSource pool;
+    private final DatabaseExecutor executor;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final long graceMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong archived = new AtomicLong();
+    private final AtomicLong backoffs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private JobArchiver(JobRepository jobs, Database database, int batchSize, long pauseMillis, long graceMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+        this.jobs = jobs;
+        this.pool = database.getConnectionSource();
+        this.executor = database.getExecutor();
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.graceMillis = graceMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "job-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // archive every intervalMillis, the first time one interval from now
+    public static JobArchiver start(JobRepository jobs, Database database, long intervalMillis, int batchSize,
+                                    long pauseMillis, long graceMillis) {
+        JobArchiver archiver = new JobArchiver(jobs, database, batchSize, pauseMillis, graceMillis);
+        archiver.scheduler.scheduleWithFixedDelay(archiver::runQuietly, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+        return archiver;
+    }
+
+    // one run: batches until no expired job is left or the database gets busy; returns the jobs moved
+    int run() throws SQLException, InterruptedException {
+        Date cutoff = new Date(System.currentTimeMillis() - graceMillis);
+        int moved = 0;
+        while (true) {
+            if (pool.getWaitingThreads() > 0 || executor.getQueued() > 0) {
+                backoffs.incrementAndGet();
+                return moved;
+            }
+            int batch = jobs.archiveExpired(cutoff, batchSize);
+            moved += batch;
+            archived.addAndGet(batch);
+            if (batch < batchSize) {
+                return moved;
+            }
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    public long getArchivedCount() {
+        return archived.get();
+    }
+
+    public long getBackoffCount() {
+        return backoffs.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    // a failed run (e.g. the database executor turned it away) is logged, and the next run tries again
+    private void runQuietly() {
+        try {
+            int moved = run();
+            if (moved > 0) {
+                log.info("Archived {} jobs past their deadline", moved);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException | RuntimeException e) {
+            failures.incrementAndGet();
+            log.warn("Archiving expired jobs failed", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package persistence;
+
+import java.util.Date;
+import java.util.StringJoiner;
+
+// Conditions a /jobs listing can be narrowed down by. Unset (null) conditions do not filter; all set
+// conditions must hold.
+public class JobFilter {
+
+    private String location;
+    private String domain;
+    private Boolean fullTime;
+    private Boolean salaryBased;
+    private Integer payMin;
+    private Integer payMax;
+    private Date postedAfter;
+    private Date postedBefore;
+    private Date deadlineAfter;
+    private Date deadlineBefore;
+    private Integer employerId;
+    private String sector;
+    private boolean includeArchived;
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public Boolean getFullTime() {
+        return fullTime;
+    }
+
+    public void setFullTime(Boolean fullTime) {
+        this.fullTime = fullTime;
+    }
+
+    public Boolean getSalaryBased() {
+        return salaryBased;
+    }
+
+    public void setSalaryBased(Boolean salaryBased) {
+        this.salaryBased = salaryBased;
+    }
+
+    // lowest payAmount, inclusive
+    public Integer getPayMin() {
+        return payMin;
+    }
+
+    public void setPayMin(Integer payMin) {
+        this.payMin = payMin;
+    }
+
+    // highest payAmount, inclusive
+    public Integer getPayMax() {
+        return payMax;
+    }
+
+    public void setPayMax(Integer payMax) {
+        this.payMax = payMax;
+    }
+
+    // datePosted on or after this date
+    public Date getPostedAfter() {
+        return postedAfter;
+    }
+
+    public void setPostedAfter(Date postedAfter) {
+        this.postedAfter = postedAfter;
+    }
+
+    // datePosted before this date
+    public Date getPostedBefore() {
+        return postedBefore;
+    }
+
+    public void setPostedBefore(Date postedBefore) {
+        this.postedBefore = postedBefore;
+    }
+
+    // deadline on or after this date
+    public Date getDeadlineAfter() {
+        return deadlineAfter;
+    }
+
+    public void setDeadlineAfter(Date deadlineAfter) {
+        this.deadlineAfter = deadlineAfter;
+    }
+
+    // deadline before this date
+    public Date getDeadlineBefore() {
+        return deadlineBefore;
+    }
+
+    public void setDeadlineBefore(Date deadlineBefore) {
+        this.deadlineBefore = deadlineBefore;
+    }
+
+    public Integer getEmployerId() {
+        return employerId;
+    }
+
+    public void setEmployerId(Integer employerId) {
+        this.employerId = employerId;
+    }
+
+    // the sector of the job's employer
+    public String getSector() {
+        return sector;
+    }
+
+    public void setSector(String sector) {
+        this.sector = sector;
+    }
+
+    // also list the jobs moved to the archive after their deadline; not a condition, so not part of the shape
+    public boolean isIncludeArchived() {
+        return includeArchived;
+    }
+
+    public void setIncludeArchived(boolean includeArchived) {
+        this.includeArchived = includeArchived;
+    }
+
+    public boolean isEmpty() {
+        return shape().isEmpty();
+    }
+
+    // the set conditions and their values, e.g. to key cached results
+    String cacheKey() {
+        return shape() + "=" + location + "," + domain + "," + fullTime + "," + salaryBased + "," + payMin + ","
+                + payMax + "," + (postedAfter == null ? null : postedAfter.getTime()) + ","
+                + (postedBefore == null ? null : postedBefore.getTime()) + ","
+                + (deadlineAfter == null ? null : deadlineAfter.getTime()) + ","
+                + (deadlineBefore == null ? null : deadlineBefore.getTime()) + "," + employerId + "," + sector
+                + (includeArchived ? ",archived" : "");
+    }
+
+    // which conditions are set, regardless of their values; filters of the same shape share one query
+    String shape() {
+        StringJoiner shape = new StringJoiner(",");
+        if (location != null) shape.add("location");
+        if (domain != null) shape.add("domain");
+        if (fullTime != null) shape.add("fullTime");
+        if (salaryBased != null) shape.add("salaryBased");
+        if (payMin != null) shape.add("payMin");
+        if (payMax != null) shape.add("payMax");
+        if (postedAfter != null) shape.add("postedAfter");
+        if (postedBefore != null) shape.add("postedBefore");
+        if (deadlineAfter != null) shape.add("deadlineAfter");
+        if (deadlineBefore != null) shape.add("deadlineBefore");
+        if (employerId != null) shape.add("employerId");
+        if (sector != null) shape.add("sector");
+        return shape.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
+import model.Employer;
+import model.Job;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+
+// Compiled /jobs listing queries, one per query shape (which filters are set, sort, whether there is a
+// cursor, page size). A shape is built with the QueryBuilder once; later queries of the same shape only
+// bind their values to the SelectArgs of a cached PreparedQuery. A PreparedQuery holds its argument
+// values, so each one is used by one query at a time: queries borrow one from the pool of their shape
+// and give it back when done.
+class JobQueryCache {
+
+    // shapes beyond this many are still served, just not cached
+    private static final int MAX_SHAPES = 256;
+
+    private final Dao<Job, Integer> dao;
+    private final Dao<Employer, Integer> employerDao;
+    private final ConcurrentHashMap<String, Queue<CompiledQuery>> pools = new ConcurrentHashMap<>();
+
+    JobQueryCache(Dao<Job, Integer> dao, Dao<Employer, Integer> employerDao) {
+        this.dao = dao;
+        this.employerDao = employerDao;
+    }
+
+    // a compiled query of the shape of the arguments, with their values bound; release() it after use
+    CompiledQuery borrow(JobFilter filter, JobSort sort, Cursor after, long limit) throws SQLException {
+        String key = filter.shape() + "|" + sort + "|" + (after != null) + "|" + limit;
+        Queue<CompiledQuery> pool = pools.get(key);
+        CompiledQuery query = pool == null ? null : pool.poll();
+        if (query == null) {
+            query = compile(key, filter, sort, after, limit);
+        }
+        query.bind(filter, after);
+        return query;
+    }
+
+    void release(CompiledQuery query) {
+        Queue<CompiledQuery> pool = pools.get(query.key);
+        if (pool == null && pools.size() < MAX_SHAPES) {
+            pool = pools.computeIfAbsent(query.key, key -> new ConcurrentLinkedQueue<>());
+        }
+        if (pool != null) {
+            pool.offer(query);
+        }
+    }
+
+    int getShapeCount() {
+        return pools.size();
+    }
+
+    private CompiledQuery compile(String key, JobFilter filter, JobSort sort, Cursor after, long limit)
+            throws SQLException {
+        QueryBuilder<Job, Integer> qb = dao.queryBuilder();
+        CompiledQuery query = new CompiledQuery(key);
+        Where<Job, Integer> where = null;
+        int clauses = 0;
+        if (filter.getLocation() != null) {
+            where = where(qb, where).eq("location", query.arg((f, c) -> f.getLocation()));
+            clauses++;
+        }
+        if (filter.getDomain() != null) {
+            where = where(qb, where).eq("domain", query.arg((f, c) -> f.getDomain()));
+            clauses++;
+        }
+        if (filter.getFullTime() != null) {
+            where = where(qb, where).eq("fullTime", query.arg((f, c) -> f.getFullTime()));
+            clauses++;
+        }
+        if (filter.getSalaryBased() != null) {
+            where = where(qb, where).eq("salaryBased", query.arg((f, c) -> f.getSalaryBased()));
+            clauses++;
+        }
+        if (filter.getPayMin() != null) {
+            where = where(qb, where).ge("payAmount", query.arg((f, c) -> f.getPayMin()));
+            clauses++;
+        }
+        if (filter.getPayMax() != null) {
+            where = where(qb, where).le("payAmount", query.arg((f, c) -> f.getPayMax()));
+            clauses++;
+        }
+        if (filter.getPostedAfter() != null) {
+            where = where(qb, where).ge("datePosted", query.arg((f, c) -> f.getPostedAfter()));
+            clauses++;
+        }
+        if (filter.getPostedBefore() != null) {
+            where = where(qb, where).lt("datePosted", query.arg((f, c) -> f.getPostedBefore()));
+            clauses++;
+        }
+        if (filter.getDeadlineAfter() != null) {
+            where = where(qb, where).ge("deadline", query.arg((f, c) -> f.getDeadlineAfter()));
+            clauses++;
+        }
+        if (filter.getDeadlineBefore() != null) {
+            where = where(qb, where).lt("deadline", query.arg((f, c) -> f.getDeadlineBefore()));
+            clauses++;
+        }
+        if (filter.getEmployerId() != null) {
+            where = where(qb, where).eq("employer_id", query.arg((f, c) -> f.getEmployerId()));
+            clauses++;
+        }
+        if (filter.getSector() != null) {
+            QueryBuilder<Employer, Integer> employers = employerDao.queryBuilder().selectColumns("id");
+            employers.where().eq("sector", query.arg((f, c) -> f.getSector()));
+            where = where(qb, where).in("employer_id", employers);
+            clauses++;
+        }
+        if (sort == JobSort.ID) {
+            qb.orderBy("id", true);
+            if (after != null) {
+                where = where(qb, where).gt("id", query.arg((f, c) -> c.getId()));
+                clauses++;
+            }
+        } else {
+            // descending by the sort column, then by id; both columns are in its index (the id as rowid)
+            String column = sort.getParam();
+            BiFunction<JobFilter, Cursor, Object> value = sort == JobSort.DATE_POSTED
+                    ? (f, c) -> new Date(c.getValue())
+                    : (f, c) -> c.getValue().intValue();
+            qb.orderBy(column, false).orderBy("id", false);
+            if (after != null) {
+                where = where(qb, where);
+                where.or(where.lt(column, query.arg(value)),
+                        where.and(where.eq(column, query.arg(value)),
+                                where.lt("id", query.arg((f, c) -> c.getId()))));
+                clauses++;
+            }
+        }
+        if (clauses > 1) {
+            where.and(clauses);
+        }
+        if (limit > 0) {
+            qb.limit(limit);
+        }
+        query.prepared = qb.prepare();
+        return query;
+    }
+
+    private static Where<Job, Integer> where(QueryBuilder<Job, Integer> qb, Where<Job, Integer> where) {
+        return where == null ? qb.where() : where;
+    }
+
+    static class CompiledQuery {
+        private final String key;
+        private final List<SelectArg> args = new ArrayList<>();
+        private final List<BiFunction<JobFilter, Cursor, Object>> values = new ArrayList<>();
+        private PreparedQuery<Job> prepared;
+
+        private CompiledQuery(String key) {
+            this.key = key;
+        }
+
+        PreparedQuery<Job> getPrepared() {
+            return prepared;
+        }
+
+        private SelectArg arg(BiFunction<JobFilter, Cursor, Object> value) {
+            SelectArg arg = new SelectArg();
+            args.add(arg);
+            values.add(value);
+            return arg;
+        }
+
+        private void bind(JobFilter filter, Cursor after) {
+            for (int i = 0; i < args.size(); i++) {
+                args.get(i).setValue(values.get(i).apply(filter, after));
+            }
+        }
+    }
+}
@@ -0,0 +1,664 @@
+package persistence;
+
+import cache.EntityCaches;
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
+import model.Change;
+import model.Employer;
+import model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Reads and writes of the "jobs" table, and moves of expired jobs to its archive. By-id lookups and pages are
+// read through the entity caches; every write goes through here so that it invalidates the cached entries it
+// affects. With JobShards the table is split over several databases: by-id reads and writes go to the shard
+// of the id, everything else asks all of them and merges the answers.
+public class JobRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(JobRepository.class);
+
+    private static final String SEARCH_SORT = "search";
+
+    private final JobShards jobShards;
+    // one per database of jobShards, in the same order
+    private final List<Shard> shards = new ArrayList<>();
+    private final EntityCaches caches;
+    private final WriteListener listener;
+    private final Dao<Employer, Integer> employerDao;
+    private final DatabaseExecutor executor;
+    private final JobSnapshot snapshot;
+    private final WriteBehindQueue writeBehind;
+    // the change feed, when its triggers cannot see the jobs (they are in shards of their own); else null
+    private final ChangeLog changes;
+    // jobs queued to be created that are not committed yet, which can already be updated
+    private final Set<Integer> queuedCreates = ConcurrentHashMap.newKeySet();
+    // the writers of the queued jobs, which tell the caches and listeners once a batch is committed
+    private final WriteBehindQueue.Writer<Job> queuedCreate = new WriteBehindQueue.Writer<>() {
+        @Override
+        public void apply(Job job) throws SQLException {
+            shards.get(0).assignedIdDao.create(job);
+        }
+
+        @Override
+        public void committed(List<Job> jobs) {
+            List<Integer> created = ids(jobs);
+            queuedCreates.removeAll(created);
+            written(created);
+        }
+    };
+
+    private final WriteBehindQueue.Writer<Job> queuedUpdate = new WriteBehindQueue.Writer<>() {
+        @Override
+        public void apply(Job job) throws SQLException {
+            shards.get(0).dao.update(job);
+        }
+
+        @Override
+        public void committed(List<Job> jobs) {
+            written(ids(jobs));
+        }
+    };
+
+    public JobRepository(Database database, EntityCaches caches) throws SQLException {
+        this(database, caches, WriteListener.NONE);
+    }
+
+    public JobRepository(Database database, EntityCaches caches, WriteListener listener) throws SQLException {
+        this(database, caches, listener, null);
+    }
+
+    // with a snapshot, filtered listings are served from it instead of the database; the snapshot must be
+    // (one of) the listener(s), so that it sees every write
+    public JobRepository(Database database, EntityCaches caches, WriteListener listener, JobSnapshot snapshot)
+            throws SQLException {
+        this(database, caches, listener, snapshot, null);
+    }
+
+    // with a write-behind queue, submitCreate and submitUpdate queue the job instead of writing it right away
+    public JobRepository(Database database, EntityCaches caches, WriteListener listener, JobSnapshot snapshot,
+                         WriteBehindQueue writeBehind) throws SQLException {
+        this(JobShards.single(database), caches, listener, snapshot, writeBehind, null);
+    }
+
+    // the jobs of the shards; their writes are appended to the change feed, whose triggers only see the jobs
+    // in the catalog's own database
+    public JobRepository(JobShards jobShards, EntityCaches caches, WriteListener listener, ChangeLog changes)
+            throws SQLException {
+        this(jobShards, caches, listener, null, null, jobShards.isSharded() ? changes : null);
+    }
+
+    private JobRepository(JobShards jobShards, EntityCaches caches, WriteListener listener, JobSnapshot snapshot,
+                          WriteBehindQueue writeBehind, ChangeLog changes) throws SQLException {
+        this.jobShards = jobShards;
+        for (int i = 0; i < jobShards.getCount(); i++) {
+            Database database = jobShards.getShards().get(i);
+            // the jobs of a shard are numbered here, so that the id tells the shard
+            IdAllocator ids = jobShards.isSharded()
+                    ? new IdAllocator(database.getJobDao(), database.getExecutor(), jobShards.getIdBlockSize(),
+                            jobShards.getCount(), i)
+                    : writeBehind == null ? null : writeBehind.idAllocator(database.getJobDao());
+            shards.add(new Shard(database, ids, jobShards.isSharded()));
+        }
+        this.caches = caches;
+        this.listener = listener;
+        this.employerDao = jobShards.getCatalog().getEmployerDao();
+        this.executor = jobShards.getCatalog().getExecutor();
+        this.snapshot = snapshot;
+        this.writeBehind = writeBehind;
+        this.changes = changes;
+    }
+
+    // all jobs matching the filter in id order, read one row at a time; the caller must close the iterator.
+    // Reads the jobs table only: archived jobs are listed page by page (see page). With shards, the rows of
+    // all of them are merged as they are read.
+    public CloseableIterator<Job> iterate(JobFilter filter) throws SQLException {
+        if (snapshot != null) {
+            return snapshot.iterate(filter);
+        }
+        if (shards.size() == 1) {
+            return iterate(shards.get(0), filter);
+        }
+        List<CloseableIterator<Job>> sources = new ArrayList<>();
+        try {
+            for (Shard shard : shards) {
+                sources.add(iterate(shard, filter));
+            }
+        } catch (SQLException | RuntimeException e) {
+            sources.forEach(CloseableIterator::closeQuietly);
+            throw e;
+        }
+        return new MergingIterator<>(sources, order(JobSort.ID));
+    }
+
+    private static CloseableIterator<Job> iterate(Shard shard, JobFilter filter) throws SQLException {
+        return shard.executor.iterator(() -> {
+            JobQueryCache.CompiledQuery query = shard.queries.borrow(filter, JobSort.ID, null, 0);
+            try {
+                // the iterator's statement has the values bound, so the query can go back to the pool right away
+                return shard.dao.iterator(query.getPrepared());
+            } finally {
+                shard.queries.release(query);
+            }
+        });
+    }
+
+    public Job findById(int id) throws SQLException {
+        Shard shard = shardOf(id);
+        return caches.jobsById().get(id, () -> shard.executor.call(() -> shard.dao.queryForId(id)));
+    }
+
+    // the jobs with the given ids, keyed by id; the ones not cached are loaded with a single IN query
+    public Map<Integer, Job> findByIds(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Job> byId = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Job cached = caches.jobsById().get(id);
+            if (cached != null) {
+                byId.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        for (Job job : load(missing).values()) {
+            byId.put(job.getId(), job);
+            caches.jobsById().put(job.getId(), job);
+        }
+        return byId;
+    }
+
+    // the jobs with the given ids that exist, read with one IN query per shard that holds any of them
+    private Map<Integer, Job> load(List<Integer> ids) throws SQLException {
+        Map<Integer, Job> byId = new HashMap<>();
+        if (ids.isEmpty()) {
+            return byId;
+        }
+        Map<Integer, List<Integer>> byShard = jobShards.byShard(ids);
+        for (List<Job> jobs : jobShards.scatter((index, database) -> {
+            List<Integer> wanted = byShard.get(index);
+            if (wanted == null) {
+                return Collections.<Job>emptyList();
+            }
+            Shard shard = shards.get(index);
+            return shard.executor.call(() -> shard.dao.queryBuilder().where().in("id", wanted).query());
+        })) {
+            for (Job job : jobs) {
+                byId.put(job.getId(), job);
+            }
+        }
+        return byId;
+    }
+
+    public Page<Job> page(JobSort sort, String cursor, int limit) throws SQLException {
+        return page(new JobFilter(), sort, cursor, limit);
+    }
+
+    // one page of the jobs matching the filter after the given cursor (or the first page when the cursor is
+    // null). The query seeks straight to the cursor position through the id / datePosted index, so a deep
+    // page costs the same as the first one. With a snapshot the page is read from memory, unless the filter
+    // includes archived jobs: those pages merge a page of the jobs table and one of the archive.
+    public Page<Job> page(JobFilter filter, JobSort sort, String cursor, int limit) throws SQLException {
+        Cursor after = cursor == null ? null : Cursor.decode(cursor, sort.getParam(), sort != JobSort.ID);
+        // one extra row tells whether there is a next page
+        List<Job> rows = snapshot != null && !filter.isIncludeArchived()
+                ? snapshot.select(filter, sort, after, limit + 1L)
+                : query(filter, sort, after, cursor, limit + 1L);
+        if (rows.size() <= limit) {
+            return new Page<>(rows, null);
+        }
+        List<Job> items = rows.subList(0, limit);
+        Job last = items.get(limit - 1);
+        return new Page<>(items, new Cursor(sort.getParam(), cursorValue(sort, last), last.getId()).encode());
+    }
+
+    // the k best paid jobs matching the filter, highest pay first; the first page of sort=payAmount, which the
+    // database reads through the payAmount index and the snapshot picks with a bounded heap
+    public List<Job> topByPay(JobFilter filter, int k) throws SQLException {
+        return page(filter, JobSort.PAY_AMOUNT, null, k).getItems();
+    }
+
+    // one page of the jobs matching a keyword query, best match first (bm25 over title, requirements, domain,
+    // location and employer name / sector). The cursor holds the offset of the next page.
+    public Page<Job> search(String query, String cursor, int limit) throws SQLException {
+        int offset = cursor == null ? 0 : searchOffset(cursor);
+        String key = EntityCaches.SEARCH_PAGE_PREFIX + query + "|" + offset + "|" + limit;
+        // one extra match tells whether there is a next page
+        List<Job> rows = caches.jobPages().get(key, () -> shards.size() == 1
+                ? search(shards.get(0), query, offset, limit + 1)
+                : searchShards(query, offset, limit + 1));
+        if (rows.size() <= limit) {
+            return new Page<>(rows, null);
+        }
+        List<Job> items = rows.subList(0, limit);
+        return new Page<>(items, new Cursor(SEARCH_SORT, (long) offset + limit, items.get(limit - 1).getId()).encode());
+    }
+
+    // the offset a search cursor holds; IllegalArgumentException if it has none or one out of range
+    private static int searchOffset(String cursor) {
+        Long offset = Cursor.decode(cursor, SEARCH_SORT, true).getValue();
+        if (offset < 0 || offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid cursor for sort '" + SEARCH_SORT + "': " + cursor);
+        }
+        return offset.intValue();
+    }
+
+    private static List<Job> search(Shard shard, String query, int offset, int limit) throws SQLException {
+        return shard.executor.call(() -> {
+            List<Integer> ids = JobSearchIndex.search(shard.dao, query, offset, limit);
+            Map<Integer, Job> byId = new HashMap<>();
+            if (!ids.isEmpty()) {
+                for (Job job : shard.dao.queryBuilder().where().in("id", ids).query()) {
+                    byId.put(job.getId(), job);
+                }
+            }
+            return inOrder(ids, byId);
+        });
+    }
+
+    // every shard ranks its first offset + limit matches; the best of all of them by rank make the page. A shard
+    // ranks with the term statistics of its own rows, so the order is close to, not the same as, the order of
+    // one index over all jobs.
+    private List<Job> searchShards(String query, int offset, int limit) throws SQLException {
+        List<JobSearchIndex.Match> matches = new ArrayList<>();
+        for (List<JobSearchIndex.Match> ranked : jobShards.scatter((index, database) -> {
+            Shard shard = shards.get(index);
+            return shard.executor.call(() -> JobSearchIndex.rank(shard.dao, query, offset + limit));
+        })) {
+            matches.addAll(ranked);
+        }
+        matches.sort(Comparator.<JobSearchIndex.Match>comparingDouble(match -> match.rank)
+                .thenComparingInt(match -> match.id));
+        List<Integer> ids = new ArrayList<>();
+        for (int i = offset; i < Math.min(matches.size(), offset + limit); i++) {
+            ids.add(matches.get(i).id);
+        }
+        return inOrder(ids, load(ids));
+    }
+
+    private static List<Job> inOrder(List<Integer> ids, Map<Integer, Job> byId) {
+        List<Job> jobs = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Job job = byId.get(id);
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+
+    public void create(Job job) throws SQLException {
+        Shard shard = shardFor(job);
+        if (jobShards.isSharded()) {
+            job.setId(shard.ids.next());
+            shard.executor.call(() -> shard.assignedIdDao.create(job));
+        } else {
+            shard.executor.call(() -> shard.dao.create(job));
+        }
+        recorded(Collections.singletonList(job.getId()), Change.UPSERT);
+        written(job.getId());
+    }
+
+    // insert many jobs in a few transactions; rows that are invalid (a missing title, location or datePosted,
+    // or an employer that does not exist) are skipped and reported by their position in the list
+    public BatchResult createAll(List<Job> jobs) throws SQLException {
+        BatchResult result = jobShards.isSharded() ? createAllSharded(jobs) : executor.call(() -> {
+            Map<Integer, String> errors = new HashMap<>();
+            checkEmployers(employerDao, jobs, errors);
+            return shards.get(0).batchInsert.run(jobs, errors);
+        });
+        recorded(result.getIds(), Change.UPSERT);
+        written(result.getIds());
+        return result;
+    }
+
+    // the rows go to the shards of their employers, every shard inserting its part at the same time
+    private BatchResult createAllSharded(List<Job> jobs) throws SQLException {
+        Map<Integer, String> errors = executor.call(() -> {
+            Map<Integer, String> invalid = new HashMap<>();
+            checkEmployers(employerDao, jobs, invalid);
+            return invalid;
+        });
+        Map<Integer, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            if (!errors.containsKey(i)) {
+                positions.computeIfAbsent(shardIndexFor(jobs.get(i)), shard -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map<Integer, String> shardErrors : jobShards.scatter((index, database) -> {
+            List<Integer> mine = positions.get(index);
+            if (mine == null) {
+                return Collections.<Integer, String>emptyMap();
+            }
+            Shard shard = shards.get(index);
+            List<Job> rows = new ArrayList<>(mine.size());
+            for (int position : mine) {
+                Job job = jobs.get(position);
+                job.setId(shard.ids.next());
+                rows.add(job);
+            }
+            BatchResult part = shard.executor.call(() -> shard.batchInsert.run(rows, new HashMap<>()));
+            // back to positions in the whole batch
+            Map<Integer, String> mapped = new HashMap<>();
+            part.getErrors().forEach((row, error) -> mapped.put(mine.get(row), error));
+            return mapped;
+        })) {
+            errors.putAll(shardErrors);
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            if (!errors.containsKey(i)) {
+                ids.add(jobs.get(i).getId());
+            }
+        }
+        return new BatchResult(ids, new TreeMap<>(errors));
+    }
+
+    // check the job like createAll does (IllegalArgumentException if it is invalid), then create it: with a
+    // write-behind queue, the job gets its id right away and is queued, else it is written at once. The future
+    // completes once the job is committed, or exceptionally if it could not be.
+    public CompletableFuture<Void> submitCreate(Job job) throws SQLException {
+        validate(job, true);
+        if (writeBehind == null) {
+            create(job);
+            return CompletableFuture.completedFuture(null);
+        }
+        job.setId(shards.get(0).ids.next());
+        queuedCreates.add(job.getId());
+        int id = job.getId();
+        CompletableFuture<Void> done;
+        try {
+            done = writeBehind.submit(queuedCreate, job);
+        } catch (DatabaseBusyException e) {
+            queuedCreates.remove(id);
+            throw e;
+        }
+        done.whenComplete((committed, failure) -> {
+            if (failure != null) {
+                queuedCreates.remove(id);
+            }
+        });
+        return done;
+    }
+
+    // check the job, then replace the one with its id, like submitCreate
+    public CompletableFuture<Void> submitUpdate(Job job) throws SQLException {
+        validate(job, false);
+        if (writeBehind == null) {
+            update(job);
+            return CompletableFuture.completedFuture(null);
+        }
+        return writeBehind.submit(queuedUpdate, job);
+    }
+
+    // whether there is a job with the id, counting the ones queued to be created
+    public boolean exists(int id) throws SQLException {
+        return queuedCreates.contains(id) || findById(id) != null;
+    }
+
+    public void update(Job job) throws SQLException {
+        Shard shard = shardOf(job.getId());
+        shard.executor.call(() -> shard.dao.update(job));
+        recorded(Collections.singletonList(job.getId()), Change.UPSERT);
+        written(job.getId());
+    }
+
+    public void delete(int id) throws SQLException {
+        Shard shard = shardOf(id);
+        shard.executor.call(() -> shard.dao.deleteById(id));
+        recorded(Collections.singletonList(id), Change.DELETE);
+        written(id);
+    }
+
+    // move up to limit jobs whose deadline is before the cutoff to the archive, earliest deadline first, in one
+    // transaction; returns how many were moved. The rows keep their ids. Deleting them from jobs also takes
+    // them out of the search index (its delete trigger). With shards, one shard after the other moves what the
+    // limit leaves, each in a transaction of its own.
+    public int archiveExpired(Date cutoff, int limit) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (ids.size() >= limit) {
+                break;
+            }
+            ids.addAll(archiveExpired(shard, cutoff, limit - ids.size()));
+        }
+        recorded(ids, Change.DELETE);
+        written(ids);
+        return ids.size();
+    }
+
+    private static List<Integer> archiveExpired(Shard shard, Date cutoff, int limit) throws SQLException {
+        Dao<Job, Integer> dao = shard.dao;
+        Dao<Job, Integer> archiveDao = shard.archiveDao;
+        return shard.executor.call(() -> {
+            List<Integer> expired = new ArrayList<>();
+            for (Job job : dao.queryBuilder().selectColumns("id").orderBy("deadline", true).limit((long) limit)
+                    .where().lt("deadline", cutoff).query()) {
+                expired.add(job.getId());
+            }
+            if (expired.isEmpty()) {
+                return expired;
+            }
+            StringJoiner columns = new StringJoiner("`, `", "`", "`");
+            for (FieldType fieldType : dao.getTableInfo().getFieldTypes()) {
+                columns.add(fieldType.getColumnName());
+            }
+            StringJoiner in = new StringJoiner(", ", "(", ")");
+            for (Integer id : expired) {
+                in.add(id.toString());
+            }
+            TransactionManager.callInTransaction(dao.getConnectionSource(), () -> {
+                archiveDao.executeRaw("INSERT INTO `" + archiveDao.getTableName() + "` (" + columns + ") SELECT "
+                        + columns + " FROM `" + dao.getTableName() + "` WHERE id IN " + in);
+                return dao.executeRaw("DELETE FROM `" + dao.getTableName() + "` WHERE id IN " + in);
+            });
+            return expired;
+        });
+    }
+
+    // the value of the sort column the cursor after the job holds, if the sort is not by id alone
+    private static Long cursorValue(JobSort sort, Job job) {
+        switch (sort) {
+            case DATE_POSTED:
+                return job.getDatePosted().getTime();
+            case PAY_AMOUNT:
+                return (long) job.getPayAmount();
+            default:
+                return null;
+        }
+    }
+
+    // the rows of a page from the database, through the page cache; pages filtered by sector also depend on
+    // the employers. Every shard reads its first limit rows (and as many of its archive) at the same time.
+    private List<Job> query(JobFilter filter, JobSort sort, Cursor after, String cursor, long limit)
+            throws SQLException {
+        String key = (filter.getSector() != null ? EntityCaches.SECTOR_PAGE_PREFIX : "")
+                + filter.cacheKey() + "|" + sort + "|" + cursor + "|" + limit;
+        return caches.jobPages().get(key, () -> {
+            List<List<Job>> parts = jobShards.scatter((index, database) -> {
+                Shard shard = shards.get(index);
+                return shard.executor.call(() -> {
+                    List<Job> rows = query(shard.dao, shard.queries, filter, sort, after, limit);
+                    if (!filter.isIncludeArchived()) {
+                        return rows;
+                    }
+                    List<Job> both = new ArrayList<>(rows);
+                    both.addAll(query(shard.archiveDao, shard.archiveQueries, filter, sort, after, limit));
+                    return both;
+                });
+            });
+            if (parts.size() == 1 && !filter.isIncludeArchived()) {
+                return parts.get(0);
+            }
+            // the first limit rows of all the tables in the order of the sort; ids are unique across the tables.
+            // Each part is in that order already, which the sort's merging of runs takes advantage of.
+            List<Job> merged = new ArrayList<>();
+            parts.forEach(merged::addAll);
+            merged.sort(order(sort));
+            return merged.size() > limit ? new ArrayList<>(merged.subList(0, (int) limit)) : merged;
+        });
+    }
+
+    private static List<Job> query(Dao<Job, Integer> dao, JobQueryCache queries, JobFilter filter, JobSort sort,
+                                   Cursor after, long limit) throws SQLException {
+        JobQueryCache.CompiledQuery query = queries.borrow(filter, sort, after, limit);
+        try {
+            return dao.query(query.getPrepared());
+        } finally {
+            queries.release(query);
+        }
+    }
+
+    // the order of a sort as the queries list it
+    private static Comparator<Job> order(JobSort sort) {
+        Comparator<Job> byId = Comparator.comparing(Job::getId);
+        switch (sort) {
+            case DATE_POSTED:
+                return Comparator.comparing(Job::getDatePosted).thenComparing(byId).reversed();
+            case PAY_AMOUNT:
+                return Comparator.comparingInt(Job::getPayAmount).thenComparing(byId).reversed();
+            default:
+                return byId;
+        }
+    }
+
+    // on the shard the job goes to, against its copy of the employers, so that posting to different shards does
+    // not queue up for the catalog
+    private void validate(Job job, boolean creating) throws SQLException {
+        Shard shard = creating ? shardFor(job) : shardOf(job.getId());
+        String error = shard.executor.call(() -> {
+            Map<Integer, String> errors = new HashMap<>();
+            checkEmployers(shard.employerDao, Collections.singletonList(job), errors);
+            return errors.isEmpty() ? shard.batchInsert.check(job, creating) : errors.get(0);
+        });
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    private static List<Integer> ids(List<Job> jobs) {
+        List<Integer> ids = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            ids.add(job.getId());
+        }
+        return ids;
+    }
+
+    // the employers the jobs refer to must exist; they are looked up with one IN query
+    private static void checkEmployers(Dao<Employer, Integer> employerDao, List<Job> jobs, Map<Integer, String> errors)
+            throws SQLException {
+        Set<Integer> referenced = new HashSet<>();
+        for (Job job : jobs) {
+            if (job.getEmployer() != null && job.getEmployer().getId() != null) {
+                referenced.add(job.getEmployer().getId());
+            }
+        }
+        Set<Integer> existing = new HashSet<>();
+        if (!referenced.isEmpty()) {
+            List<Employer> found = employerDao.queryBuilder().selectColumns("id").where().in("id", referenced).query();
+            for (Employer employer : found) {
+                existing.add(employer.getId());
+            }
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            Employer employer = jobs.get(i).getEmployer();
+            if (employer != null && !existing.contains(employer.getId())) {
+                errors.put(i, "employer " + employer.getId() + " does not exist");
+            }
+        }
+    }
+
+    // the shard a new job goes to: its employer's
+    private Shard shardFor(Job job) {
+        return shards.get(shardIndexFor(job));
+    }
+
+    private int shardIndexFor(Job job) {
+        return job.getEmployer() == null ? 0 : jobShards.shardOfEmployer(job.getEmployer().getId());
+    }
+
+    // the shard that holds the job with the id
+    private Shard shardOf(int id) {
+        return shards.get(jobShards.shardOf(id));
+    }
+
+    // with shards, the writes are appended to the change feed here (its triggers do not see them). A write that
+    // could not be appended is committed all the same; it is logged, and missing from the feed.
+    private void recorded(List<Integer> ids, String op) {
+        if (changes == null || ids.isEmpty()) {
+            return;
+        }
+        try {
+            changes.append(Change.JOB, ids, op);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Could not append {} job changes to the change feed", ids.size(), e);
+        }
+    }
+
+    // jobs another process wrote (see ExternalWriteWatcher): drop them from the caches and tell the listener,
+    // like a write through here
+    public void writtenElsewhere(Collection<Integer> ids) {
+        written(new ArrayList<>(ids));
+    }
+
+    private void written(int id) {
+        caches.jobWritten(id);
+        listener.jobWritten(id);
+    }
+
+    private void written(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        caches.jobsWritten(ids);
+        listener.jobsWritten(ids);
+    }
+
+    // one database the jobs are in: its jobs table and archive, with their compiled queries
+    private static final class Shard {
+        private final Dao<Job, Integer> dao;
+        // the database's employers table: the catalog's, or a shard's copy of it
+        private final Dao<Employer, Integer> employerDao;
+        private final JobQueryCache queries;
+        private final Dao<Job, Integer> archiveDao;
+        private final JobQueryCache archiveQueries;
+        private final DatabaseExecutor executor;
+        private final BatchInsert<Job> batchInsert;
+        // ids handed out before the rows are inserted, and the DAO that inserts rows with them; null if the
+        // database numbers every row
+        private final IdAllocator ids;
+        private final Dao<Job, Integer> assignedIdDao;
+
+        // assignIds: batch inserts keep the ids handed out by ids instead of letting the database number them
+        Shard(Database database, IdAllocator ids, boolean assignIds) throws SQLException {
+            this.dao = database.getJobDao();
+            this.employerDao = database.getEmployerDao();
+            // the sector filter joins the database's own employers table
+            this.queries = new JobQueryCache(dao, employerDao);
+            this.archiveDao = database.getJobArchiveDao();
+            this.archiveQueries = new JobQueryCache(archiveDao, employerDao);
+            this.executor = database.getExecutor();
+            this.ids = ids;
+            this.assignedIdDao = ids == null ? null : Schema.createAssignedIdDao(database.getConnectionSource(),
+                    Job.class);
+            this.batchInsert = new BatchInsert<>(assignIds ? assignedIdDao : dao,
+                    database.getConfig().getBatchSize());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import model.Job;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Full-text index of the jobs table: an SQLite FTS5 table keyed by job id over the job's title,
+// requirements, domain and location plus its employer's name and sector. Triggers on "jobs" and
+// "employers" keep it in sync with every write, including writes that bypass the application.
+final class JobSearchIndex {
+
+    static final String TABLE = "jobs_fts";
+
+    // bm25 weights of the columns, in declaration order: a hit in the title counts most
+    private static final String RANK = "bm25(" + TABLE + ", 10.0, 1.0, 2.0, 2.0, 3.0, 1.0)";
+
+    private static final String EMPLOYER_NAME = "(SELECT name FROM employers WHERE id = NEW.employer_id)";
+    private static final String EMPLOYER_SECTOR = "(SELECT sector FROM employers WHERE id = NEW.employer_id)";
+    private static final String INSERT_NEW_JOB = "INSERT INTO " + TABLE
+            + " (rowid, title, requirements, domain, location, employer_name, employer_sector)"
+            + " VALUES (NEW.id, NEW.title, NEW.requirements, NEW.domain, NEW.location, "
+            + EMPLOYER_NAME + ", " + EMPLOYER_SECTOR + ");";
+
+    private JobSearchIndex() {
+    }
+
+    static void install(Dao<Job, Integer> jobDao) throws SQLException {
+        boolean exists = jobDao.queryRawValue(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '" + TABLE + "'") > 0;
+        jobDao.executeRaw("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE + " USING fts5("
+                + "title, requirements, domain, location, employer_name, employer_sector)");
+        jobDao.executeRaw("CREATE TRIGGER IF NOT EXISTS jobs_fts_insert AFTER INSERT ON jobs BEGIN "
+                + INSERT_NEW_JOB + " END");
+        jobDao.executeRaw("CREATE TRIGGER IF NOT EXISTS jobs_fts_update AFTER UPDATE ON jobs BEGIN "
+                + "DELETE FROM " + TABLE + " WHERE rowid = OLD.id; " + INSERT_NEW_JOB + " END");
+        jobDao.executeRaw("CREATE TRIGGER IF NOT EXISTS jobs_fts_delete AFTER DELETE ON jobs BEGIN "
+                + "DELETE FROM " + TABLE + " WHERE rowid = OLD.id; END");
+        jobDao.executeRaw("CREATE TRIGGER IF NOT EXISTS jobs_fts_employer_update AFTER UPDATE OF name, sector"
+                + " ON employers BEGIN "
+                + "UPDATE " + TABLE + " SET employer_name = NEW.name, employer_sector = NEW.sector"
+                + " WHERE rowid IN (SELECT id FROM jobs WHERE employer_id = NEW.id); END");
+        jobDao.executeRaw("CREATE TRIGGER IF NOT EXISTS jobs_fts_employer_delete AFTER DELETE ON employers BEGIN "
+                + "UPDATE " + TABLE + " SET employer_name = NULL, employer_sector = NULL"
+                + " WHERE rowid IN (SELECT id FROM jobs WHERE employer_id = OLD.id); END");
+        if (!exists) {
+            // index the jobs written before the index existed
+            jobDao.executeRaw("INSERT INTO " + TABLE
+                    + " (rowid, title, requirements, domain, location, employer_name, employer_sector)"
+                    + " SELECT j.id, j.title, j.requirements, j.domain, j.location, e.name, e.sector"
+                    + " FROM jobs j LEFT JOIN employers e ON e.id = j.employer_id");
+        }
+    }
+
+    // ids of the jobs matching the query, best match first
+    static List<Integer> search(Dao<Job, Integer> jobDao, String query, int offset, int limit) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (GenericRawResults<String[]> results = jobDao.queryRaw("SELECT rowid FROM " + TABLE
+                + " WHERE " + TABLE + " MATCH ? ORDER BY " + RANK + ", rowid LIMIT " + limit + " OFFSET " + offset,
+                toMatchExpression(query))) {
+            for (String[] row : results) {
+                ids.add(Integer.parseInt(row[0]));
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not close search results", e);
+        }
+        return ids;
+    }
+
+    // the ids and bm25 ranks of the first limit jobs matching the query, best match (lowest rank) first; ranks
+    // of different shards (see JobShards) are merged by value
+    static List<Match> rank(Dao<Job, Integer> jobDao, String query, int limit) throws SQLException {
+        List<Match> matches = new ArrayList<>();
+        try (GenericRawResults<String[]> results = jobDao.queryRaw("SELECT rowid, " + RANK + " FROM " + TABLE
+                + " WHERE " + TABLE + " MATCH ? ORDER BY " + RANK + ", rowid LIMIT " + limit,
+                toMatchExpression(query))) {
+            for (String[] row : results) {
+                matches.add(new Match(Integer.parseInt(row[0]), Double.parseDouble(row[1])));
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not close search results", e);
+        }
+        return matches;
+    }
+
+    static final class Match {
+        final int id;
+        final double rank;
+
+        Match(int id, double rank) {
+            this.id = id;
+            this.rank = rank;
+        }
+    }
+
+    // user input is never passed to MATCH as query syntax: every word becomes a quoted term and all
+    // terms must match
+    static String toMatchExpression(String query) {
+        List<String> terms = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (!word.isEmpty()) {
+                terms.add('"' + word.replace("\"", "\"\"") + '"');
+            }
+        }
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("Search query must not be empty");
+        }
+        return String.join(" ", terms);
+    }
+}
@@ -0,0 +1,398 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import model.Employer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Where the jobs table lives. By default that is the one database, next to the employers. Sharded, the jobs
+// are spread over count SQLite files of their own (<name>-shard-<i>.db next to the database), each with its
+// own connection pool, writer connection and executor, so writes to different shards never wait for the same
+// file lock and posting throughput grows with the shard count.
+//
+// A new job goes to the shard of its employer (a hash of the employer id) and gets an id that tells the shard:
+// id % count. By-id reads and writes go straight to that shard; an update that changes the employer leaves
+// the job where it is. Listings, filters and searches ask every shard in parallel (scatter) and merge what
+// they get in the order of the sort (see JobRepository).
+//
+// The employers stay in the database, the catalog, and every shard keeps a copy of the table, so that the
+// sector filter and the search index of a shard can join jobs with their employers locally. Writes through
+// EmployerRepository copy the rows they wrote to the shards after the catalog commits; opening the shards
+// brings their copies up to date with whatever changed while they were closed.
+public class JobShards implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JobShards.class);
+
+    // a table of the catalog with the shard count it was first opened with, in its one row; ids are routed by
+    // that count, so opening the catalog with another one would lose every job to the wrong shard
+    static final String LAYOUT_TABLE = "job_shards";
+
+    private final Database catalog;
+    private final List<Database> shards;
+    private final int idBlockSize;
+    // per shard, a DAO of its employer copies that keeps the catalog's ids
+    private final List<Dao<Employer, Integer>> replicas;
+    // held while employers are copied to the shards, so that two writes of one employer cannot copy the rows
+    // they read from the catalog in the opposite order and leave the older one in a shard
+    private final Object replicating = new Object();
+    // employers whose last copy to the shards failed, copied again along with the next ones
+    private final Set<Integer> unreplicated = ConcurrentHashMap.newKeySet();
+    // runs the work for the other shards while the calling thread does the first one; null with one shard
+    private final ExecutorService scatter;
+
+    // the work a scatter runs against one shard
+    public interface ShardWork<T> {
+        T call(int shard, Database database) throws SQLException;
+    }
+
+    private JobShards(Database catalog, List<Database> shards, int idBlockSize,
+                      List<Dao<Employer, Integer>> replicas) {
+        this.catalog = catalog;
+        this.shards = Collections.unmodifiableList(shards);
+        this.idBlockSize = idBlockSize;
+        this.replicas = replicas;
+        if (shards.size() == 1) {
+            this.scatter = null;
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.scatter = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "shard-scatter-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // the jobs in the database itself
+    public static JobShards single(Database database) {
+        return new JobShards(database, Collections.singletonList(database), 1, Collections.emptyList());
+    }
+
+    // open (creating them if needed) count shard files next to the catalog's, with the catalog's pool settings;
+    // new jobs of a shard get ids idBlockSize at a time (see IdAllocator). Jobs are not moved between layouts:
+    // a catalog that still holds jobs of its own (it was used without shards) is refused, as they would no longer
+    // be listed, and so is one first opened with another count, or with shard files beyond this one.
+    public static JobShards open(Database catalog, int count, int idBlockSize, DatabaseListener listener)
+            throws SQLException {
+        if (count < 2) {
+            throw new IllegalArgumentException("need at least 2 shards but got " + count);
+        }
+        long unsharded = catalog.getExecutor().call(() -> catalog.getJobDao().countOf()
+                + catalog.getJobArchiveDao().countOf());
+        if (unsharded > 0) {
+            throw new IllegalArgumentException(catalog.getConfig().getUrl() + " holds " + unsharded
+                    + " jobs (archived ones included) that the shards would hide; db.shards > 1 needs a database"
+                    + " without jobs of its own");
+        }
+        String url = catalog.getConfig().getUrl();
+        // a file beyond the count is a shard of a layout with more of them, whose jobs would no longer be found
+        File extra = shardFile(url, count);
+        if (extra != null && extra.exists()) {
+            throw new IllegalArgumentException(extra + " is a shard beyond db.shards = " + count
+                    + "; the shard count cannot change");
+        }
+        int recorded = catalog.getExecutor().call(() -> recordCount(catalog, count));
+        if (recorded != count) {
+            throw new IllegalArgumentException(url + " was sharded over " + recorded + " files but db.shards is "
+                    + count + "; the shard of a job follows from its id and the count, so it cannot change");
+        }
+        List<Database> shards = new ArrayList<>();
+        List<Dao<Employer, Integer>> replicas = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                Database shard = Database.open(catalog.getConfig().withUrl(shardUrl(catalog.getConfig().getUrl(),
+                        i)), listener);
+                shards.add(shard);
+                replicas.add(Schema.createAssignedIdDao(shard.getConnectionSource(), Employer.class));
+            }
+            JobShards jobShards = new JobShards(catalog, shards, idBlockSize, replicas);
+            jobShards.syncEmployers();
+            return jobShards;
+        } catch (SQLException | RuntimeException e) {
+            shards.forEach(Database::closeQuietly);
+            throw e;
+        }
+    }
+
+    // refuse a database that was opened with shards to be used without them, as its jobs are in the shard files
+    public static void requireUnsharded(Database database) throws SQLException {
+        int recorded = database.getExecutor().call(() -> {
+            Dao<Employer, Integer> dao = database.getEmployerDao();
+            if (dao.queryRawValue("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '"
+                    + LAYOUT_TABLE + "'") == 0) {
+                return 0;
+            }
+            return (int) dao.queryRawValue("SELECT COALESCE(MAX(count), 0) FROM " + LAYOUT_TABLE);
+        });
+        if (recorded > 1) {
+            throw new IllegalArgumentException(database.getConfig().getUrl() + " was sharded over " + recorded
+                    + " files; its jobs are only found with db.shards = " + recorded);
+        }
+    }
+
+    // the count the catalog's jobs are routed by, recording the given one if there is none yet
+    private static int recordCount(Database catalog, int count) throws SQLException {
+        Dao<Employer, Integer> dao = catalog.getEmployerDao();
+        dao.executeRaw("CREATE TABLE IF NOT EXISTS " + LAYOUT_TABLE + " (count INTEGER NOT NULL)");
+        long recorded = dao.queryRawValue("SELECT COALESCE(MAX(count), 0) FROM " + LAYOUT_TABLE);
+        if (recorded > 0) {
+            return (int) recorded;
+        }
+        // shard files from before the count was recorded, fewer of them than now
+        String url = catalog.getConfig().getUrl();
+        File first = shardFile(url, 0);
+        if (first != null && first.exists() && !shardFile(url, count - 1).exists()) {
+            throw new IllegalArgumentException(url + " has fewer than " + count
+                    + " shard files; the shard count cannot change");
+        }
+        dao.executeRaw("INSERT INTO " + LAYOUT_TABLE + " (count) VALUES (" + count + ")");
+        return count;
+    }
+
+    // the file of shard i, or null when the catalog is not a file (an in-memory database)
+    private static File shardFile(String catalogUrl, int shard) {
+        String prefix = "jdbc:sqlite:";
+        if (!catalogUrl.startsWith(prefix) || catalogUrl.contains(":memory:")) {
+            return null;
+        }
+        String path = shardUrl(catalogUrl, shard).substring(prefix.length());
+        int query = path.indexOf('?');
+        return new File(query < 0 ? path : path.substring(0, query));
+    }
+
+    // the URL of shard i: the catalog's with -shard-i before its .db extension (or at its end)
+    static String shardUrl(String catalogUrl, int shard) {
+        String suffix = "-shard-" + shard;
+        return catalogUrl.endsWith(".db")
+                ? catalogUrl.substring(0, catalogUrl.length() - 3) + suffix + ".db"
+                : catalogUrl + suffix;
+    }
+
+    public Database getCatalog() {
+        return catalog;
+    }
+
+    public List<Database> getShards() {
+        return shards;
+    }
+
+    public int getCount() {
+        return shards.size();
+    }
+
+    // whether the jobs are in files of their own
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    int getIdBlockSize() {
+        return idBlockSize;
+    }
+
+    // the shard new jobs of the employer go to; the id is mixed so that employers numbered in a pattern still
+    // spread evenly
+    public int shardOfEmployer(Integer employerId) {
+        if (employerId == null) {
+            return 0;
+        }
+        int h = employerId * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.size());
+    }
+
+    // the shard that holds the job with the id
+    public int shardOf(int jobId) {
+        return Math.floorMod(jobId, shards.size());
+    }
+
+    // the ids by the shard that holds them, in shard order
+    public Map<Integer, List<Integer>> byShard(Collection<Integer> jobIds) {
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (Integer id : jobIds) {
+            byShard.computeIfAbsent(shardOf(id), shard -> new ArrayList<>()).add(id);
+        }
+        return byShard;
+    }
+
+    // run the work against every shard at once and wait for all of them; the results are in shard order. The
+    // first failure is thrown once every shard is done.
+    public <T> List<T> scatter(ShardWork<T> work) throws SQLException {
+        if (scatter == null) {
+            return Collections.singletonList(work.call(0, shards.get(0)));
+        }
+        List<Future<T>> others = new ArrayList<>();
+        for (int i = 1; i < shards.size(); i++) {
+            int shard = i;
+            others.add(scatter.submit(() -> work.call(shard, shards.get(shard))));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        Throwable failure = null;
+        try {
+            results.add(work.call(0, shards.get(0)));
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+        }
+        for (Future<T> other : others) {
+            try {
+                results.add(other.get());
+            } catch (InterruptedException e) {
+                others.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the shards", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new SQLException(failure);
+        }
+        return results;
+    }
+
+    // copy the employers with the ids as the catalog has them now to every shard, deleting the ones it no
+    // longer has; the ones a failed call left behind are copied too, and the ids are kept for the next call
+    // when this one fails
+    public void replicateEmployers(Collection<Integer> ids) throws SQLException {
+        if (!isSharded() || ids.isEmpty()) {
+            return;
+        }
+        synchronized (replicating) {
+            Set<Integer> pending = new LinkedHashSet<>(ids);
+            pending.addAll(unreplicated);
+            List<Integer> wanted = new ArrayList<>(pending);
+            try {
+                Map<Integer, Employer> current = new HashMap<>();
+                for (Employer employer : catalog.getExecutor().call(() -> catalog.getEmployerDao().queryBuilder()
+                        .where().in("id", wanted).query())) {
+                    current.put(employer.getId(), employer);
+                }
+                scatter((shard, database) -> database.getExecutor().call(() -> {
+                    Dao<Employer, Integer> replica = replicas.get(shard);
+                    Map<Integer, Employer> copies = new HashMap<>();
+                    for (Employer copy : replica.queryBuilder().where().in("id", wanted).query()) {
+                        copies.put(copy.getId(), copy);
+                    }
+                    return apply(replica, wanted, current, copies);
+                }));
+            } catch (SQLException | RuntimeException e) {
+                unreplicated.addAll(wanted);
+                throw e;
+            }
+            unreplicated.removeAll(wanted);
+        }
+    }
+
+    // a snapshot of every shard's pool, for the /admin/db endpoint
+    public Map<String, Object> describe() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", shards.size());
+        List<Map<String, Object>> pools = new ArrayList<>();
+        for (Database shard : shards) {
+            pools.add(shard.describePool());
+        }
+        stats.put("shards", pools);
+        return stats;
+    }
+
+    // closes the shard files, not the catalog
+    @Override
+    public void close() {
+        if (scatter != null) {
+            scatter.shutdownNow();
+        }
+        for (Database shard : shards) {
+            if (shard != catalog) {
+                shard.closeQuietly();
+            }
+        }
+    }
+
+    // bring every shard's employer copies in line with the catalog, writing only the rows that differ
+    private void syncEmployers() throws SQLException {
+        Map<Integer, Employer> current = new HashMap<>();
+        for (Employer employer : catalog.getExecutor().call(() -> catalog.getEmployerDao().queryForAll())) {
+            current.put(employer.getId(), employer);
+        }
+        List<Integer> written = scatter((shard, database) -> database.getExecutor().call(() -> {
+            Dao<Employer, Integer> replica = replicas.get(shard);
+            Map<Integer, Employer> copies = new HashMap<>();
+            for (Employer copy : replica.queryForAll()) {
+                copies.put(copy.getId(), copy);
+            }
+            List<Integer> ids = new ArrayList<>(current.keySet());
+            ids.addAll(copies.keySet());
+            return apply(replica, ids, current, copies);
+        }));
+        log.info("Opened {} job shards, copying {} employer changes to them", shards.size(),
+                written.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    // make the shard's copies of the ids match the catalog rows in one transaction: deletes first, then
+    // updates, then inserts, so a name moving from one employer to another does not collide on the way;
+    // returns the rows written
+    private static int apply(Dao<Employer, Integer> replica, Collection<Integer> ids, Map<Integer, Employer> current,
+                             Map<Integer, Employer> copies) throws SQLException {
+        List<Integer> deletes = new ArrayList<>();
+        List<Employer> updates = new ArrayList<>();
+        List<Employer> inserts = new ArrayList<>();
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            Employer employer = current.get(id);
+            Employer copy = copies.get(id);
+            if (employer == null) {
+                if (copy != null) {
+                    deletes.add(id);
+                }
+            } else if (copy == null) {
+                inserts.add(employer);
+            } else if (!copy.equals(employer)) {
+                updates.add(employer);
+            }
+        }
+        if (deletes.isEmpty() && updates.isEmpty() && inserts.isEmpty()) {
+            return 0;
+        }
+        return TransactionManager.callInTransaction(replica.getConnectionSource(), () -> {
+            if (!deletes.isEmpty()) {
+                replica.deleteIds(deletes);
+            }
+            for (Employer employer : updates) {
+                replica.update(employer);
+            }
+            for (Employer employer : inserts) {
+                replica.create(employer);
+            }
+            return deletes.size() + updates.size() + inserts.size();
+        });
+    }
+}
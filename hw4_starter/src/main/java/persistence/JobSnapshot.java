@@ -0,0 +1,608 @@
+package persistence;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import model.Employer;
+import model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+// An in-memory read model of the jobs table for filtered /jobs listings. The columns the filters and sorts
+// look at are held as primitive arrays, one slot per row in id order: payAmount, datePosted and deadline
+// (epoch millis), the employer id, dictionary codes for location, domain and the employer's sector, and
+// bitsets for fullTime, salaryBased and whether the slot holds a row. A listing intersects the bitsets and
+// scans the arrays (in slot order, in a datePosted order, or through a bounded heap for the best paid),
+// allocating nothing per row, and returns the Job objects it holds, so it never reaches SQLite. Every write
+// through the repositories reloads the rows it touched (it is a WriteListener).
+public class JobSnapshot implements WriteListener {
+
+    private static final Logger log = LoggerFactory.getLogger(JobSnapshot.class);
+
+    // code of a null string, and of a filter value that no row has
+    private static final int NONE = -1;
+    // datePosted / deadline of a row without one
+    private static final long NO_DATE = Long.MIN_VALUE;
+    // rows (or employers) reloaded per IN query, below SQLite's limit on bound variables
+    private static final int RELOAD_CHUNK = 500;
+    // deleted slots are compacted away once there are this many and they are a quarter of all slots
+    private static final int COMPACT_MIN_DEAD = 1024;
+
+    private final Dao<Job, Integer> dao;
+    private final Dao<Employer, Integer> employerDao;
+    private final DatabaseExecutor executor;
+    // readers hold the read lock while they scan; reloads apply their rows under the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // one reload at a time, so a reload that read older rows cannot apply them after a newer one
+    private final Object reloading = new Object();
+
+    private int size;
+    private int dead;
+    private int[] ids = new int[0];
+    private Job[] rows = new Job[0];
+    private int[] payAmount = new int[0];
+    private long[] datePosted = new long[0];
+    private long[] deadline = new long[0];
+    private int[] employer = new int[0];
+    private int[] location = new int[0];
+    private int[] domain = new int[0];
+    private int[] sector = new int[0];
+    private final BitSet live = new BitSet();
+    private final BitSet fullTime = new BitSet();
+    private final BitSet salaryBased = new BitSet();
+    private final Map<Integer, Integer> slotById = new HashMap<>();
+    private final Map<Integer, Integer> sectorByEmployer = new HashMap<>();
+    private final Dictionary locations = new Dictionary();
+    private final Dictionary domains = new Dictionary();
+    private final Dictionary sectors = new Dictionary();
+    // live slots by datePosted, newest first, then by id descending; rebuilt by the first listing after a write
+    private int[] byDatePosted = new int[0];
+    private boolean byDatePostedStale = true;
+
+    private long loadMillis;
+    private long reloads;
+
+    private JobSnapshot(Database database) {
+        this.dao = database.getJobDao();
+        this.employerDao = database.getEmployerDao();
+        this.executor = database.getExecutor();
+    }
+
+    // read the whole jobs table (and the sectors of all employers) into memory
+    public static JobSnapshot load(Database database) throws SQLException {
+        JobSnapshot snapshot = new JobSnapshot(database);
+        long start = System.nanoTime();
+        database.getExecutor().call(() -> {
+            snapshot.lock.writeLock().lock();
+            try {
+                for (Employer e : snapshot.employerDao.queryForAll()) {
+                    snapshot.sectorByEmployer.put(e.getId(), snapshot.sectors.add(e.getSector()));
+                }
+                CloseableIterator<Job> jobs = snapshot.dao.iterator(
+                        snapshot.dao.queryBuilder().orderBy("id", true).prepare());
+                try {
+                    while (jobs.hasNext()) {
+                        snapshot.put(jobs.next());
+                    }
+                } finally {
+                    jobs.closeQuietly();
+                }
+            } finally {
+                snapshot.lock.writeLock().unlock();
+            }
+            return null;
+        });
+        snapshot.loadMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Loaded {} jobs into the job snapshot in {} ms", snapshot.slotById.size(), snapshot.loadMillis);
+        return snapshot;
+    }
+
+    // the rows matching the filter in the sort order, after the cursor (if any), at most limit of them (0 for
+    // all); the same rows a JobQueryCache query of the same arguments reads
+    public List<Job> select(JobFilter filter, JobSort sort, Cursor after, long limit) {
+        List<Job> result = new ArrayList<>();
+        lockForReading(sort);
+        try {
+            Query query = new Query(filter);
+            if (query.isEmpty()) {
+                return result;
+            }
+            BitSet matches = query.candidates();
+            if (sort == JobSort.PAY_AMOUNT) {
+                selectByPayAmount(matches, query, after, limit, result);
+            } else if (sort == JobSort.DATE_POSTED) {
+                for (int i = after == null ? 0 : firstAfter(after); i < byDatePosted.length; i++) {
+                    int slot = byDatePosted[i];
+                    if (matches.get(slot) && query.matches(slot) && add(result, slot, limit)) {
+                        break;
+                    }
+                }
+            } else {
+                int start = after == null ? 0 : firstAfter(after.getId());
+                for (int slot = matches.nextSetBit(start); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+                    if (query.matches(slot) && add(result, slot, limit)) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // all rows matching the filter in id order
+    public CloseableIterator<Job> iterate(JobFilter filter) {
+        Iterator<Job> rows = select(filter, JobSort.ID, null, 0).iterator();
+        return new ForwardOnlyIterator<Job>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Job next() {
+                if (!rows.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return rows.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void jobWritten(int id) {
+        jobsWritten(Collections.singletonList(id));
+    }
+
+    @Override
+    public void employerWritten(int id) {
+        employersWritten(Collections.singletonList(id));
+    }
+
+    // reload the written jobs: rows that are gone were deleted, the others are replaced or added
+    @Override
+    public void jobsWritten(Collection<Integer> written) {
+        synchronized (reloading) {
+            Map<Integer, Job> current = reload(dao, written);
+            lock.writeLock().lock();
+            try {
+                for (Integer id : written) {
+                    Job job = current.get(id);
+                    if (job == null) {
+                        remove(id);
+                    } else {
+                        put(job);
+                    }
+                }
+                if (dead >= COMPACT_MIN_DEAD && dead * 4 >= size) {
+                    compact();
+                }
+                byDatePostedStale = true;
+                reloads++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // reload the sectors of the written employers into the rows of their jobs
+    @Override
+    public void employersWritten(Collection<Integer> written) {
+        synchronized (reloading) {
+            Map<Integer, Employer> current = reload(employerDao, written);
+            lock.writeLock().lock();
+            try {
+                Map<Integer, Integer> changed = new HashMap<>();
+                for (Integer id : written) {
+                    Employer e = current.get(id);
+                    int code = e == null ? NONE : sectors.add(e.getSector());
+                    Integer old = e == null ? sectorByEmployer.remove(id) : sectorByEmployer.put(id, code);
+                    if (old == null || old != code) {
+                        changed.put(id, code);
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+                        Integer code = changed.get(employer[slot]);
+                        if (code != null) {
+                            sector[slot] = code;
+                        }
+                    }
+                }
+                reloads++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // reload the rows the tables hold now and the ones held here, so the rows that are gone are removed
+    @Override
+    public void allWritten(Collection<Integer> jobIds, Collection<Integer> employerIds) {
+        Set<Integer> reloadJobs = new HashSet<>(jobIds);
+        Set<Integer> reloadEmployers = new HashSet<>(employerIds);
+        lock.readLock().lock();
+        try {
+            reloadJobs.addAll(slotById.keySet());
+            reloadEmployers.addAll(sectorByEmployer.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+        employersWritten(reloadEmployers);
+        jobsWritten(reloadJobs);
+    }
+
+    public Map<String, Object> describe() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("rows", slotById.size());
+            stats.put("slots", size);
+            stats.put("locations", locations.size());
+            stats.put("domains", domains.size());
+            stats.put("sectors", sectors.size());
+            stats.put("loadMillis", loadMillis);
+            stats.put("reloads", reloads);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // take the read lock, with the datePosted order up to date if the sort needs it
+    private void lockForReading(JobSort sort) {
+        while (true) {
+            lock.readLock().lock();
+            if (sort != JobSort.DATE_POSTED || !byDatePostedStale) {
+                return;
+            }
+            lock.readLock().unlock();
+            lock.writeLock().lock();
+            try {
+                if (byDatePostedStale) {
+                    sortByDatePosted();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // the first limit rows (all if 0) by payAmount, highest first, then by id descending, after the cursor. One
+    // pass over the matches keeps the best rows so far in a bounded heap whose root is the worst of them: O(n
+    // log limit), and no order to maintain on writes.
+    private void selectByPayAmount(BitSet matches, Query query, Cursor after, long limit, List<Job> result) {
+        int capacity = (int) (limit > 0 ? Math.min(limit, matches.cardinality()) : matches.cardinality());
+        if (capacity == 0) {
+            return;
+        }
+        int[] heap = new int[capacity];
+        int count = 0;
+        for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+            if (!query.matches(slot) || (after != null && !isAfter(slot, after.getValue(), after.getId()))) {
+                continue;
+            }
+            if (count < capacity) {
+                heap[count] = slot;
+                siftUp(heap, count++);
+            } else if (comesBefore(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, 0, count);
+            }
+        }
+        // taking the worst off the root each time fills the result from the back
+        Job[] ordered = new Job[count];
+        while (count > 0) {
+            ordered[count - 1] = rows[heap[0]];
+            heap[0] = heap[--count];
+            siftDown(heap, 0, count);
+        }
+        Collections.addAll(result, ordered);
+    }
+
+    // whether slot a comes before slot b by payAmount descending, then id descending
+    private boolean comesBefore(int a, int b) {
+        return payAmount[a] != payAmount[b] ? payAmount[a] > payAmount[b] : ids[a] > ids[b];
+    }
+
+    private boolean isAfter(int slot, long pay, int id) {
+        return payAmount[slot] < pay || (payAmount[slot] == pay && ids[slot] < id);
+    }
+
+    // restore the heap (the worst slot at the root) after adding at position i
+    private void siftUp(int[] heap, int i) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!comesBefore(heap[parent], slot)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = slot;
+    }
+
+    // restore the heap of count slots after replacing position i
+    private void siftDown(int[] heap, int i, int count) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && comesBefore(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!comesBefore(slot, heap[child])) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = slot;
+    }
+
+    // adds the row; true once there are limit rows
+    private boolean add(List<Job> result, int slot, long limit) {
+        result.add(rows[slot]);
+        return limit > 0 && result.size() >= limit;
+    }
+
+    // the first slot with an id greater than the given one
+    private int firstAfter(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    // the first position in byDatePosted after the cursor: posted earlier, or at the same time with a lower id
+    private int firstAfter(Cursor after) {
+        long value = after.getValue();
+        int low = 0;
+        int high = byDatePosted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int slot = byDatePosted[middle];
+            boolean isAfter = datePosted[slot] < value || (datePosted[slot] == value && ids[slot] < after.getId());
+            if (isAfter) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    // runs once per burst of writes, not per listing
+    private void sortByDatePosted() {
+        byDatePosted = IntStream.range(0, size).filter(live::get).boxed()
+                .sorted((a, b) -> datePosted[a] != datePosted[b]
+                        ? Long.compare(datePosted[b], datePosted[a]) : Integer.compare(ids[b], ids[a]))
+                .mapToInt(Integer::intValue).toArray();
+        byDatePostedStale = false;
+    }
+
+    private void put(Job job) {
+        Integer existing = slotById.get(job.getId());
+        int slot = existing != null ? existing : insertSlot(job.getId());
+        rows[slot] = job;
+        payAmount[slot] = job.getPayAmount();
+        datePosted[slot] = job.getDatePosted() == null ? NO_DATE : job.getDatePosted().getTime();
+        deadline[slot] = job.getDeadline() == null ? NO_DATE : job.getDeadline().getTime();
+        Employer e = job.getEmployer();
+        employer[slot] = e == null || e.getId() == null ? NONE : e.getId();
+        sector[slot] = sectorByEmployer.getOrDefault(employer[slot], NONE);
+        location[slot] = locations.add(job.getLocation());
+        domain[slot] = domains.add(job.getDomain());
+        fullTime.set(slot, job.isFullTime());
+        salaryBased.set(slot, job.isSalaryBased());
+        live.set(slot);
+    }
+
+    private void remove(int id) {
+        Integer slot = slotById.remove(id);
+        if (slot != null) {
+            live.clear(slot);
+            rows[slot] = null;
+            dead++;
+        }
+    }
+
+    // a slot for a new row, keeping the slots in id order: new ids are normally the highest so far and go at the
+    // end, anything else moves the slots after it up by one
+    private int insertSlot(int id) {
+        ensureCapacity(size + 1);
+        int slot = firstAfter(id);
+        for (int from = size - 1; from >= slot; from--) {
+            move(from, from + 1);
+        }
+        size++;
+        ids[slot] = id;
+        slotById.put(id, slot);
+        return slot;
+    }
+
+    private void compact() {
+        int next = 0;
+        for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+            if (slot != next) {
+                move(slot, next);
+            }
+            next++;
+        }
+        live.clear(next, size);
+        Arrays.fill(rows, next, size, null);
+        size = next;
+        dead = 0;
+    }
+
+    private void move(int from, int to) {
+        ids[to] = ids[from];
+        rows[to] = rows[from];
+        payAmount[to] = payAmount[from];
+        datePosted[to] = datePosted[from];
+        deadline[to] = deadline[from];
+        employer[to] = employer[from];
+        location[to] = location[from];
+        domain[to] = domain[from];
+        sector[to] = sector[from];
+        fullTime.set(to, fullTime.get(from));
+        salaryBased.set(to, salaryBased.get(from));
+        live.set(to, live.get(from));
+        live.clear(from);
+        rows[from] = null;
+        if (live.get(to)) {
+            slotById.put(ids[to], to);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int length = Math.max(capacity, Math.max(16, ids.length + (ids.length >> 1)));
+        ids = Arrays.copyOf(ids, length);
+        rows = Arrays.copyOf(rows, length);
+        payAmount = Arrays.copyOf(payAmount, length);
+        datePosted = Arrays.copyOf(datePosted, length);
+        deadline = Arrays.copyOf(deadline, length);
+        employer = Arrays.copyOf(employer, length);
+        location = Arrays.copyOf(location, length);
+        domain = Arrays.copyOf(domain, length);
+        sector = Arrays.copyOf(sector, length);
+    }
+
+    // the rows with the given ids that still exist, read with a few IN queries
+    private <T> Map<Integer, T> reload(Dao<T, Integer> source, Collection<Integer> written) {
+        List<Integer> ids = new ArrayList<>(written);
+        DatabaseExecutor.Work<Map<Integer, T>> work = () -> {
+            Map<Integer, T> byId = new HashMap<>();
+            for (int from = 0; from < ids.size(); from += RELOAD_CHUNK) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + RELOAD_CHUNK));
+                for (T row : source.queryBuilder().where().in("id", chunk).query()) {
+                    byId.put(source.extractId(row), row);
+                }
+            }
+            return byId;
+        };
+        try {
+            try {
+                return executor.call(work);
+            } catch (DatabaseBusyException e) {
+                // the write itself went through: reading it back on this thread beats missing it
+                return work.call();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not reload written rows into the job snapshot", e);
+        }
+    }
+
+    // a filter with its strings translated to dictionary codes and its other values to primitives
+    private final class Query {
+        private final JobFilter filter;
+        private final int location;
+        private final int domain;
+        private final int sector;
+        private final int payMin;
+        private final int payMax;
+        private final long postedAfter;
+        private final long postedBefore;
+        private final long deadlineAfter;
+        private final long deadlineBefore;
+        private final int employerId;
+
+        Query(JobFilter filter) {
+            this.filter = filter;
+            this.location = filter.getLocation() == null ? NONE : locations.code(filter.getLocation());
+            this.domain = filter.getDomain() == null ? NONE : domains.code(filter.getDomain());
+            this.sector = filter.getSector() == null ? NONE : sectors.code(filter.getSector());
+            this.payMin = filter.getPayMin() == null ? Integer.MIN_VALUE : filter.getPayMin();
+            this.payMax = filter.getPayMax() == null ? Integer.MAX_VALUE : filter.getPayMax();
+            this.postedAfter = filter.getPostedAfter() == null ? Long.MIN_VALUE : filter.getPostedAfter().getTime();
+            this.postedBefore = filter.getPostedBefore() == null ? Long.MAX_VALUE : filter.getPostedBefore().getTime();
+            this.deadlineAfter = filter.getDeadlineAfter() == null ? NO_DATE : filter.getDeadlineAfter().getTime();
+            this.deadlineBefore = filter.getDeadlineBefore() == null ? Long.MAX_VALUE
+                    : filter.getDeadlineBefore().getTime();
+            this.employerId = filter.getEmployerId() == null ? NONE : filter.getEmployerId();
+        }
+
+        // a string value that no row has matches nothing
+        boolean isEmpty() {
+            return (filter.getLocation() != null && location == NONE) || (filter.getDomain() != null && domain == NONE)
+                    || (filter.getSector() != null && sector == NONE);
+        }
+
+        // the live slots that pass the boolean conditions
+        BitSet candidates() {
+            BitSet matches = (BitSet) live.clone();
+            if (filter.getFullTime() != null) {
+                if (filter.getFullTime()) {
+                    matches.and(fullTime);
+                } else {
+                    matches.andNot(fullTime);
+                }
+            }
+            if (filter.getSalaryBased() != null) {
+                if (filter.getSalaryBased()) {
+                    matches.and(salaryBased);
+                } else {
+                    matches.andNot(salaryBased);
+                }
+            }
+            return matches;
+        }
+
+        // the remaining conditions, on the columns of one slot; like SQL, a row without a deadline matches no
+        // deadline condition
+        boolean matches(int slot) {
+            if (location != NONE && JobSnapshot.this.location[slot] != location) return false;
+            if (domain != NONE && JobSnapshot.this.domain[slot] != domain) return false;
+            if (sector != NONE && JobSnapshot.this.sector[slot] != sector) return false;
+            if (payAmount[slot] < payMin || payAmount[slot] > payMax) return false;
+            if (datePosted[slot] < postedAfter || datePosted[slot] >= postedBefore) return false;
+            if ((filter.getDeadlineAfter() != null || filter.getDeadlineBefore() != null)
+                    && (deadline[slot] == NO_DATE || deadline[slot] < deadlineAfter
+                    || deadline[slot] >= deadlineBefore)) return false;
+            return employerId == NONE || employer[slot] == employerId;
+        }
+    }
+
+    // codes for the distinct values of a low-cardinality string column
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        // the value's code, or NONE if no row has it
+        int code(String value) {
+            return codes.getOrDefault(value, NONE);
+        }
+
+        int add(String value) {
+            return value == null ? NONE : codes.computeIfAbsent(value, v -> codes.size());
+        }
+
+        int size() {
+            return codes.size();
+        }
+    }
+}
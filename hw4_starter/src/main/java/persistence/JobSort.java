@@ -0,0 +1,33 @@
+package persistence;
+
+// Orders in which /jobs can be listed. All are keyset orders with the id as tie-breaker.
+public enum JobSort {
+    // oldest first, by id
+    ID("id"),
+    // newest postings first
+    DATE_POSTED("datePosted"),
+    // best paid first
+    PAY_AMOUNT("payAmount");
+
+    private final String param;
+
+    JobSort(String param) {
+        this.param = param;
+    }
+
+    public String getParam() {
+        return param;
+    }
+
+    public static JobSort fromParam(String param) {
+        if (param == null) {
+            return ID;
+        }
+        for (JobSort sort : values()) {
+            if (sort.param.equals(param)) {
+                return sort;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sort '" + param + "'");
+    }
+}
@@ -0,0 +1,75 @@
+package persistence;
+
+import com.j256.ormlite.dao.CloseableIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+// Reads several iterators that are each in the given order as one iterator in that order (a k-way merge),
+// e.g. the rows of every shard in id order. Holds one row per iterator; closing it closes all of them.
+final class MergingIterator<T> extends ForwardOnlyIterator<T> {
+
+    private final List<CloseableIterator<T>> sources;
+    private final PriorityQueue<Head<T>> heads;
+
+    MergingIterator(List<CloseableIterator<T>> sources, Comparator<T> order) {
+        this.sources = new ArrayList<>(sources);
+        this.heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> order.compare(a.row, b.row));
+        for (CloseableIterator<T> source : sources) {
+            advance(source);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        Head<T> head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        advance(head.source);
+        return head.row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        heads.clear();
+        IOException failure = null;
+        for (CloseableIterator<T> source : sources) {
+            try {
+                source.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void advance(CloseableIterator<T> source) {
+        if (source.hasNext()) {
+            heads.add(new Head<>(source.next(), source));
+        }
+    }
+
+    private static final class Head<T> {
+        private final T row;
+        private final CloseableIterator<T> source;
+
+        Head(T row, CloseableIterator<T> source) {
+            this.row = row;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package persistence;
+
+import java.util.List;
+
+// One page of a keyset-paginated listing. next is the cursor for the following page, or null on the last page.
+public class Page<T> {
+
+    private final List<T> items;
+    private final String next;
+
+    public Page(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
@@ -0,0 +1,361 @@
+package persistence;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.logger.LoggerFactory;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A bounded JDBC connection pool for ORMLite. Unlike JdbcPooledConnectionSource, which opens a new
+// connection whenever none is free, at most maxConnections connections are ever handed out at once;
+// callers beyond that wait up to acquireTimeoutMillis and then fail with an SQLException. Connections
+// that sit idle longer than idleTimeoutMillis are closed the next time the pool is used.
+//
+// With a separate writer (SqliteTuning), the maxConnections pooled connections are read-only (query_only) and
+// serve ORMLite's reads, while writes and transactions take the one writer connection, waiting for it the
+// same way. Every connection gets the tuning's pragmas when it is opened.
+public class PooledConnectionSource extends JdbcConnectionSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledConnectionSource.class);
+
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    private final long busyTimeoutMillis;
+    private final SqliteTuning tuning;
+    private final DatabaseListener listener;
+    // reads and, without a separate writer, writes
+    private final Pool readers;
+    // null without a separate writer
+    private final Pool writer;
+    private volatile boolean closed;
+
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireTimeoutCount = new AtomicLong();
+    private final AtomicLong acquireWaitNanos = new AtomicLong();
+
+    public PooledConnectionSource(DatabaseConfig config) throws SQLException {
+        this(config, DatabaseListener.NONE);
+    }
+
+    // the listener is told about every connection hand-out and every statement run on a pooled connection
+    public PooledConnectionSource(DatabaseConfig config, DatabaseListener listener) throws SQLException {
+        super(config.getUrl());
+        this.listener = listener;
+        this.maxConnections = config.getMaxConnections();
+        this.idleTimeoutMillis = config.getIdleTimeoutMillis();
+        this.acquireTimeoutMillis = config.getAcquireTimeoutMillis();
+        this.busyTimeoutMillis = config.getAcquireTimeoutMillis();
+        this.tuning = config.getTuning();
+        this.writer = tuning.isSeparateWriter() ? new Pool(1, false) : null;
+        this.readers = new Pool(maxConnections, writer != null);
+        switchJournalMode();
+    }
+
+    @Override
+    public DatabaseConnection getReadOnlyConnection(String tableName) throws SQLException {
+        return acquire(readers);
+    }
+
+    @Override
+    public DatabaseConnection getReadWriteConnection(String tableName) throws SQLException {
+        return acquire(writer != null ? writer : readers);
+    }
+
+    private DatabaseConnection acquire(Pool pool) throws SQLException {
+        // inside a transaction ORMLite expects the connection saved for this thread, for reads too
+        DatabaseConnection saved = getSavedConnection();
+        if (saved != null) {
+            return saved;
+        }
+        if (closed) {
+            throw new SQLException("Connection pool for " + url + " is closed");
+        }
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            acquired = pool.permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                acquireTimeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + acquireTimeoutMillis + "ms waiting for one of "
+                        + pool.size + (pool == writer ? " writer" : "") + " connections to " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+        } finally {
+            long waited = System.nanoTime() - start;
+            acquireWaitNanos.addAndGet(waited);
+            listener.connectionAcquired(waited, !acquired);
+        }
+        acquireCount.incrementAndGet();
+        try {
+            DatabaseConnection connection = pool.takeIdleConnection();
+            return connection != null ? connection : openConnection(pool);
+        } catch (SQLException | RuntimeException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void releaseConnection(DatabaseConnection connection) throws SQLException {
+        if (isSavedConnection(connection)) {
+            // released again by the transaction manager once the transaction is over
+            return;
+        }
+        Pool pool = writer != null && writer.owns(connection) ? writer : readers;
+        try {
+            if (closed || connection.isClosed()) {
+                pool.discard(connection);
+            } else {
+                pool.release(connection);
+            }
+        } finally {
+            pool.permits.release();
+        }
+    }
+
+    @Override
+    public boolean saveSpecialConnection(DatabaseConnection connection) throws SQLException {
+        return saveSpecial(connection);
+    }
+
+    @Override
+    public void clearSpecialConnection(DatabaseConnection connection) {
+        clearSpecial(connection, logger);
+    }
+
+    @Override
+    public boolean isOpen(String tableName) {
+        return !closed;
+    }
+
+    @Override
+    public boolean isSingleConnection(String tableName) {
+        return maxConnections == 1 && writer == null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        readers.discardIdle();
+        if (writer != null) {
+            writer.discardIdle();
+        }
+        super.close();
+    }
+
+    // the read (or, without a separate writer, the only) pool size
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public boolean isSeparateWriter() {
+        return writer != null;
+    }
+
+    public SqliteTuning getTuning() {
+        return tuning;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    // counting the writer connection, if there is one
+    public int getActiveConnections() {
+        return readers.active() + (writer == null ? 0 : writer.active());
+    }
+
+    public int getIdleConnections() {
+        return readers.idleCount() + (writer == null ? 0 : writer.idleCount());
+    }
+
+    public int getWaitingThreads() {
+        return readers.permits.getQueueLength() + getWaitingWriters();
+    }
+
+    // threads waiting for the writer connection; 0 without a separate writer
+    public int getWaitingWriters() {
+        return writer == null ? 0 : writer.permits.getQueueLength();
+    }
+
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeoutCount.get();
+    }
+
+    public long getAcquireWaitNanos() {
+        return acquireWaitNanos.get();
+    }
+
+    private DatabaseConnection openConnection(Pool pool) throws SQLException {
+        DatabaseConnection connection = makeConnection(logger);
+        openedCount.incrementAndGet();
+        try {
+            // with several pooled connections SQLite must wait for a lock instead of failing at once;
+            // it waits as long as a caller would wait for a connection
+            pragma(connection, "PRAGMA busy_timeout = " + busyTimeoutMillis);
+            for (String pragma : tuning.pragmas()) {
+                pragma(connection, pragma);
+            }
+            if (pool.readOnly) {
+                pragma(connection, "PRAGMA query_only = 1");
+            }
+        } catch (SQLException | RuntimeException e) {
+            discard(connection);
+            throw e;
+        }
+        DatabaseConnection opened = listener == DatabaseListener.NONE
+                ? connection : new InstrumentedConnection(connection, listener);
+        pool.opened(opened);
+        return opened;
+    }
+
+    // most pragmas answer with a row; the statement is closed right away, as an open one would keep the
+    // connection from committing
+    private static void pragma(DatabaseConnection connection, String pragma) throws SQLException {
+        try (Statement statement = connection.getUnderlyingConnection().createStatement()) {
+            statement.execute(pragma);
+        }
+    }
+
+    // set the tuning's journal mode, from the constructor: switching to WAL needs the file to itself, so it runs
+    // before any other connection of the pool is open. A file another process has open stays in its mode.
+    private void switchJournalMode() throws SQLException {
+        String pragma = tuning.journalModePragma();
+        if (pragma == null) {
+            return;
+        }
+        Pool pool = writer != null ? writer : readers;
+        DatabaseConnection connection = acquire(pool);
+        try {
+            pragma(connection, pragma);
+        } catch (SQLException e) {
+            logger.warn(e, "could not switch " + url + " to journal_mode " + tuning.getJournalMode());
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    private void discard(DatabaseConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            logger.warn(e, "could not close pooled connection to " + url);
+        }
+        closedCount.incrementAndGet();
+    }
+
+    // the connections of one kind: a permit per connection that may be handed out, and the idle ones
+    private final class Pool {
+        private final int size;
+        private final boolean readOnly;
+        private final Semaphore permits;
+        private final Deque<IdleConnection> idle = new ArrayDeque<>();
+        // the open connections, to tell which pool a released one belongs to
+        private final Set<DatabaseConnection> open = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        private Pool(int size, boolean readOnly) {
+            this.size = size;
+            this.readOnly = readOnly;
+            this.permits = new Semaphore(size, true);
+        }
+
+        private boolean owns(DatabaseConnection connection) {
+            return open.contains(connection);
+        }
+
+        private void opened(DatabaseConnection connection) {
+            open.add(connection);
+        }
+
+        private int active() {
+            return size - permits.availablePermits();
+        }
+
+        private int idleCount() {
+            synchronized (idle) {
+                return idle.size();
+            }
+        }
+
+        private void release(DatabaseConnection connection) {
+            synchronized (idle) {
+                idle.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+            }
+        }
+
+        // take the most recently used idle connection, closing any that have been idle for too long
+        private DatabaseConnection takeIdleConnection() {
+            long expiredBefore = System.currentTimeMillis() - idleTimeoutMillis;
+            synchronized (idle) {
+                Iterator<IdleConnection> oldestFirst = idle.descendingIterator();
+                while (oldestFirst.hasNext()) {
+                    IdleConnection entry = oldestFirst.next();
+                    if (entry.idleSince >= expiredBefore) {
+                        break;
+                    }
+                    oldestFirst.remove();
+                    discard(entry.connection);
+                }
+                IdleConnection entry = idle.pollFirst();
+                return entry == null ? null : entry.connection;
+            }
+        }
+
+        private void discard(DatabaseConnection connection) {
+            open.remove(connection);
+            PooledConnectionSource.this.discard(connection);
+        }
+
+        private void discardIdle() {
+            synchronized (idle) {
+                for (IdleConnection entry : idle) {
+                    discard(entry.connection);
+                }
+                idle.clear();
+            }
+        }
+    }
+
+    private static class IdleConnection {
+        private final DatabaseConnection connection;
+        private final long idleSince;
+
+        private IdleConnection(DatabaseConnection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+}
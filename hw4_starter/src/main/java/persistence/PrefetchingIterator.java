@@ -0,0 +1,68 @@
+package persistence;
+
+import com.j256.ormlite.dao.CloseableIterator;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+// Reads another iterator a batch of rows at a time on the database executor, so that the caller's thread
+// does not call into the driver itself while it can help it. Supports forward iteration only.
+//
+// The iterator holds its statement, and with it a pooled connection, from the first row to close(). So a
+// batch the executor turns away (its queue is full) is read on the caller's thread instead: failing it would
+// cut a response short that is already being written, and reading it takes no connection that is not already
+// taken. close() always runs on the caller's thread, as a close that could be turned away would leak the
+// connection.
+final class PrefetchingIterator<T> extends ForwardOnlyIterator<T> {
+
+    private final DatabaseExecutor executor;
+    private final CloseableIterator<T> rows;
+    private final int batchSize;
+    private final Deque<T> buffer = new ArrayDeque<>();
+    private boolean exhausted;
+
+    PrefetchingIterator(DatabaseExecutor executor, CloseableIterator<T> rows, int batchSize) {
+        this.executor = executor;
+        this.rows = rows;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (buffer.isEmpty() && !exhausted) {
+            try {
+                executor.call(this::readBatch);
+            } catch (DatabaseBusyException e) {
+                readBatch();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not read the next rows", e);
+            }
+        }
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffer.poll();
+    }
+
+    @Override
+    public void close() {
+        exhausted = true;
+        buffer.clear();
+        rows.closeQuietly();
+    }
+
+    private Void readBatch() {
+        while (buffer.size() < batchSize && rows.hasNext()) {
+            buffer.add(rows.next());
+        }
+        exhausted = buffer.size() < batchSize;
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package persistence;
+
+// The change feed no longer holds every change after the sequence a client asked from (it fell further behind
+// than the feed's retention, or the feed started over): the client has to read everything again and continue
+// from the latest sequence.
+public class ResyncRequiredException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long latest;
+
+    public ResyncRequiredException(long since, long latest) {
+        super("Changes after " + since + " are no longer available; read everything again and continue from "
+                + latest);
+        this.latest = latest;
+    }
+
+    public long getLatest() {
+        return latest;
+    }
+}
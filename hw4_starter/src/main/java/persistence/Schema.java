@@ -0,0 +1,152 @@
+package persistence;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseFieldConfig;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.DatabaseTableConfig;
+import com.j256.ormlite.table.TableUtils;
+import model.CompositeIndex;
+import model.Employer;
+import model.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Creates the JBApp tables and indexes. This runs once when the database is opened, never per request.
+final class Schema {
+
+    private static final Logger log = LoggerFactory.getLogger(Schema.class);
+
+    private Schema() {
+    }
+
+    // jobs past their deadline are moved here, see JobArchiver
+    static final String JOBS_ARCHIVE = "jobs_archive";
+
+    static void bootstrap(ConnectionSource connectionSource) throws SQLException {
+        TableUtils.createTableIfNotExists(connectionSource, Employer.class);
+        TableUtils.createTableIfNotExists(connectionSource, Job.class);
+    }
+
+    // a DAO of the jobs_archive table, created along with it: the columns and single-column indexes of jobs,
+    // the indexes named after the archive table (index names are per database). Rows keep the id they had in
+    // jobs, which never hands out an id twice, so ids are unique across both tables. DaoManager would hand out
+    // its cached jobs DAO for any Job table config, so the DAO is made without it.
+    static Dao<Job, Integer> createArchive(ConnectionSource connectionSource) throws SQLException {
+        Dao<Job, Integer> dao = new BaseDaoImpl<Job, Integer>(connectionSource,
+                new DatabaseTableConfig<>(Job.class, JOBS_ARCHIVE, fieldConfigs(connectionSource, Job.class,
+                        JOBS_ARCHIVE))) {
+        };
+        if (dao.queryRawValue("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '"
+                + JOBS_ARCHIVE + "'") == 0) {
+            TableUtils.createTable(dao);
+        }
+        return dao;
+    }
+
+    // a DAO of the table of the given class whose inserts keep an id the row already has (one handed out by an
+    // IdAllocator) instead of letting the database number it; rows without an id are still numbered. Made
+    // without DaoManager for the same reason as the archive's.
+    static <T> Dao<T, Integer> createAssignedIdDao(ConnectionSource connectionSource, Class<T> type)
+            throws SQLException {
+        String tableName = DatabaseTableConfig.extractTableName(connectionSource.getDatabaseType(), type);
+        List<DatabaseFieldConfig> fields = fieldConfigs(connectionSource, type, tableName);
+        for (DatabaseFieldConfig field : fields) {
+            if (field.isGeneratedId()) {
+                field.setAllowGeneratedIdInsert(true);
+            }
+        }
+        return new BaseDaoImpl<T, Integer>(connectionSource, new DatabaseTableConfig<>(type, tableName, fields)) {
+        };
+    }
+
+    // the field configs of the class's annotations, with index names made from the given table name
+    private static List<DatabaseFieldConfig> fieldConfigs(ConnectionSource connectionSource, Class<?> type,
+                                                          String tableName) throws SQLException {
+        List<DatabaseFieldConfig> fields = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            DatabaseFieldConfig fieldConfig = DatabaseFieldConfig.fromField(connectionSource.getDatabaseType(),
+                    tableName, field);
+            if (fieldConfig != null) {
+                fields.add(fieldConfig);
+            }
+        }
+        return fields;
+    }
+
+    // Date columns stored as epoch milliseconds (DATE_LONG) may hold other values in a database written before,
+    // or by a connection with another sqlite-jdbc date_class: text ("2021-10-01 12:00:00.000", in the time
+    // zone of this JVM) or a real Julian day. They are converted in place, in one transaction per column; a
+    // column that only holds integers (and NULLs) is left alone, so this runs on every start.
+    static void migrateDateColumns(Dao<?, ?> dao) throws SQLException {
+        for (FieldType fieldType : dao.getTableInfo().getFieldTypes()) {
+            if (fieldType.getDataPersister() != DataType.DATE_LONG.getDataPersister()) {
+                continue;
+            }
+            String table = "`" + dao.getTableName() + "`";
+            String column = "`" + fieldType.getColumnName() + "`";
+            if (dao.queryRawValue("SELECT COUNT(*) FROM " + table + " WHERE typeof(" + column
+                    + ") IN ('text', 'real')") == 0) {
+                continue;
+            }
+            TransactionManager.callInTransaction(dao.getConnectionSource(), () -> {
+                dao.executeRaw("UPDATE " + table + " SET " + column + " = CAST(ROUND((" + column
+                        + " - 2440587.5) * 86400000) AS INTEGER) WHERE typeof(" + column + ") = 'real'");
+                List<String[]> texts = dao.queryRaw("SELECT id, " + column + " FROM " + table + " WHERE typeof("
+                        + column + ") = 'text'").getResults();
+                for (String[] row : texts) {
+                    dao.executeRaw("UPDATE " + table + " SET " + column + " = " + parseDate(row[1]) + " WHERE id = "
+                            + Integer.parseInt(row[0]));
+                }
+                log.info("Converted {} dates in {}.{} to epoch milliseconds", texts.size(), table, column);
+                return null;
+            });
+        }
+    }
+
+    // epoch milliseconds of a date as sqlite-jdbc (yyyy-MM-dd HH:mm:ss.SSS) or ORMLite's string persister
+    // (yyyy-MM-dd HH:mm:ss.SSSSSS) write it, or of a plain yyyy-MM-dd
+    private static long parseDate(String text) throws SQLException {
+        String pattern = text.length() == 10 ? "yyyy-MM-dd"
+                : text.length() == 19 ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd HH:mm:ss.SSS";
+        String value = text.length() > 23 ? text.substring(0, 23) : text;
+        try {
+            return new SimpleDateFormat(pattern).parse(value).getTime();
+        } catch (ParseException e) {
+            throw new SQLException("Cannot convert '" + text + "' to a date", e);
+        }
+    }
+
+    // TableUtils only creates the indexes declared on a model (index = true / indexName = ...) together
+    // with a new table, so indexes added to a model later are created here for existing databases too.
+    // The model's @CompositeIndex declarations are created here as well.
+    static void createDeclaredIndexes(Dao<?, ?> dao) throws SQLException {
+        Map<String, List<String>> columnsByIndex = new LinkedHashMap<>();
+        for (FieldType fieldType : dao.getTableInfo().getFieldTypes()) {
+            String indexName = fieldType.getIndexName();
+            if (indexName != null) {
+                columnsByIndex.computeIfAbsent(indexName, name -> new ArrayList<>()).add(fieldType.getColumnName());
+            }
+        }
+        for (CompositeIndex index : dao.getDataClass().getAnnotationsByType(CompositeIndex.class)) {
+            columnsByIndex.put(index.name(), Arrays.asList(index.columns()));
+        }
+        for (Map.Entry<String, List<String>> index : columnsByIndex.entrySet()) {
+            dao.executeRaw("CREATE INDEX IF NOT EXISTS `" + index.getKey() + "` ON `" + dao.getTableName()
+                    + "` (`" + String.join("`, `", index.getValue()) + "`)");
+        }
+    }
+}
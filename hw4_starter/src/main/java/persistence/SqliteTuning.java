@@ -0,0 +1,147 @@
+package persistence;
+
+import config.AppConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// How the SQLite file is run: the pragmas every pooled connection gets when it is opened, and whether writes
+// go through a dedicated writer connection.
+//
+// The tuned profile (fromAppConfig's defaults) journals to a write-ahead log, so readers keep reading the last
+// commit while a write is in progress and a write does not wait for readers; syncs the log only at
+// checkpoints (synchronous=NORMAL: a power loss may lose the last commits, never corrupt the file); gives
+// every connection a larger page cache and a memory map of the file; and keeps temporary tables and indexes
+// (sorts, DISTINCT) in memory. With a separate writer, the pool's connections are read-only and all writes
+// queue for the one writer connection instead of contending for the file lock with busy_timeout retries.
+// A null setting leaves SQLite's own default.
+public class SqliteTuning {
+
+    private static final List<String> JOURNAL_MODES = Arrays.asList("delete", "truncate", "persist", "memory",
+            "wal", "off");
+    private static final List<String> SYNCHRONOUS = Arrays.asList("off", "normal", "full", "extra");
+    private static final List<String> TEMP_STORES = Arrays.asList("default", "file", "memory");
+
+    // what SQLite and the driver give: rollback journal, synchronous=FULL, one pool for reads and writes
+    public static final SqliteTuning NONE = new SqliteTuning(null, null, null, null, null, false);
+
+    private final String journalMode;
+    private final String synchronous;
+    private final Integer cacheSizeKib;
+    private final Long mmapSizeBytes;
+    private final String tempStore;
+    private final boolean separateWriter;
+
+    public SqliteTuning(String journalMode, String synchronous, Integer cacheSizeKib, Long mmapSizeBytes,
+                        String tempStore, boolean separateWriter) {
+        this.journalMode = oneOf("journalMode", journalMode, JOURNAL_MODES);
+        this.synchronous = oneOf("synchronous", synchronous, SYNCHRONOUS);
+        this.tempStore = oneOf("tempStore", tempStore, TEMP_STORES);
+        if (cacheSizeKib != null && cacheSizeKib < 0) {
+            throw new IllegalArgumentException("cacheSizeKib must not be negative but was " + cacheSizeKib);
+        }
+        if (mmapSizeBytes != null && mmapSizeBytes < 0) {
+            throw new IllegalArgumentException("mmapSizeBytes must not be negative but was " + mmapSizeBytes);
+        }
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.separateWriter = separateWriter;
+    }
+
+    // build the profile from jbapp.db.sqlite.* system properties / JBAPP_DB_SQLITE_* environment variables; an
+    // empty value leaves SQLite's default
+    public static SqliteTuning fromAppConfig() {
+        String cacheSize = AppConfig.getString("db.sqlite.cacheSizeKib", "16384");
+        String mmapSize = AppConfig.getString("db.sqlite.mmapSizeBytes", Long.toString(256L << 20));
+        try {
+            return new SqliteTuning(
+                    emptyToNull(AppConfig.getString("db.sqlite.journalMode", "wal")),
+                    emptyToNull(AppConfig.getString("db.sqlite.synchronous", "normal")),
+                    cacheSize.isEmpty() ? null : Integer.valueOf(cacheSize),
+                    mmapSize.isEmpty() ? null : Long.valueOf(mmapSize),
+                    emptyToNull(AppConfig.getString("db.sqlite.tempStore", "memory")),
+                    AppConfig.getBoolean("db.sqlite.separateWriter", true));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("db.sqlite.cacheSizeKib and db.sqlite.mmapSizeBytes must be numbers",
+                    e);
+        }
+    }
+
+    // the statement that switches the file's journal mode, or null; the mode is a setting of the file, not of a
+    // connection, and switching it needs the file to itself
+    String journalModePragma() {
+        return journalMode == null ? null : "PRAGMA journal_mode = " + journalMode;
+    }
+
+    // the statements that set up a connection
+    List<String> pragmas() {
+        List<String> pragmas = new ArrayList<>();
+        if (synchronous != null) {
+            pragmas.add("PRAGMA synchronous = " + synchronous);
+        }
+        if (cacheSizeKib != null) {
+            // a negative size is in KiB rather than pages
+            pragmas.add("PRAGMA cache_size = -" + cacheSizeKib);
+        }
+        if (mmapSizeBytes != null) {
+            pragmas.add("PRAGMA mmap_size = " + mmapSizeBytes);
+        }
+        if (tempStore != null) {
+            pragmas.add("PRAGMA temp_store = " + tempStore);
+        }
+        return pragmas;
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public Integer getCacheSizeKib() {
+        return cacheSizeKib;
+    }
+
+    public Long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    public boolean isSeparateWriter() {
+        return separateWriter;
+    }
+
+    private static String oneOf(String name, String value, List<String> allowed) {
+        if (value == null) {
+            return null;
+        }
+        String normalized = value.toLowerCase(Locale.ROOT);
+        if (!allowed.contains(normalized)) {
+            throw new IllegalArgumentException(name + " must be one of " + allowed + " but was '" + value + "'");
+        }
+        return normalized;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "SqliteTuning{" +
+                "journalMode=" + journalMode +
+                ", synchronous=" + synchronous +
+                ", cacheSizeKib=" + cacheSizeKib +
+                ", mmapSizeBytes=" + mmapSizeBytes +
+                ", tempStore=" + tempStore +
+                ", separateWriter=" + separateWriter +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package persistence;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A version counter per table that every write through the repositories bumps, and the time of the last
+// bump. Together they identify the state of a resource built from those tables, e.g. as an HTTP ETag.
+// Versions start over when the process restarts, so every tag also carries an id of this process.
+public class TableVersions implements WriteListener {
+
+    public enum Table {
+        EMPLOYERS, JOBS
+    }
+
+    private final String instance = Long.toString(UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE, 36);
+    private final Map<Table, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final Map<Table, AtomicLong> lastModified = new ConcurrentHashMap<>();
+
+    public TableVersions() {
+        long now = System.currentTimeMillis();
+        for (Table table : Table.values()) {
+            versions.put(table, new AtomicLong());
+            lastModified.put(table, new AtomicLong(now));
+        }
+    }
+
+    public long version(Table table) {
+        return versions.get(table).get();
+    }
+
+    public void bump(Table table) {
+        // lastModified first: a reader that sees the new version also sees a time at least as new
+        lastModified.get(table).accumulateAndGet(System.currentTimeMillis(), Math::max);
+        versions.get(table).incrementAndGet();
+    }
+
+    // a strong ETag for a resource built from the given tables
+    public String etag(Table... tables) {
+        StringBuilder tag = new StringBuilder("\"").append(instance);
+        for (Table table : tables) {
+            tag.append('-').append(table.name().charAt(0)).append(version(table));
+        }
+        return tag.append('"').toString();
+    }
+
+    // when the most recently written of the given tables was last written (or the process started)
+    public long lastModified(Table... tables) {
+        long latest = 0;
+        for (Table table : tables) {
+            latest = Math.max(latest, lastModified.get(table).get());
+        }
+        return latest;
+    }
+
+    @Override
+    public void jobWritten(int id) {
+        bump(Table.JOBS);
+    }
+
+    @Override
+    public void employerWritten(int id) {
+        bump(Table.EMPLOYERS);
+    }
+
+    // one bump for the whole batch
+    @Override
+    public void jobsWritten(Collection<Integer> ids) {
+        bump(Table.JOBS);
+    }
+
+    @Override
+    public void employersWritten(Collection<Integer> ids) {
+        bump(Table.EMPLOYERS);
+    }
+}
@@ -0,0 +1,255 @@
+package persistence;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Single-row creates and updates that are answered before they are written: the repositories check a row,
+// give it its id (see IdAllocator) and queue it here, and one writer thread commits the queued rows in group
+// transactions of up to maxBatch rows, collecting rows for at most windowMillis after the first one. A burst
+// of posts then costs a transaction (and fsync) per batch instead of per row, and the write lock is taken by
+// one thread instead of contended by every request.
+//
+// Every queued row comes with a future that completes once the row is committed, or exceptionally if it could
+// not be; callers that need the row to be durable wait for it. The queue holds at most capacity rows: when it
+// is full, new rows are turned away with DatabaseBusyException rather than queued without bound.
+public class WriteBehindQueue implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    // how long the writer waits before trying again when the database executor turned a batch away
+    private static final long BUSY_RETRY_MILLIS = 10;
+    // how long close waits for the writer to commit what is left
+    private static final long CLOSE_TIMEOUT_MILLIS = 30_000;
+
+    // how a queued row is written, and who hears about it afterwards
+    public interface Writer<T> {
+        // called in the batch's transaction, on the writer thread
+        void apply(T row) throws SQLException;
+
+        // called once per batch after it is committed, with the rows of this writer in the order they were queued
+        void committed(List<T> rows);
+    }
+
+    private final ConnectionSource connectionSource;
+    private final DatabaseExecutor executor;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final int idBlockSize;
+    private final BlockingQueue<Pending<?>> queue;
+    private final Thread writer;
+    private boolean closed;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // idBlockSize: how many ids the repositories reserve at a time for the rows they queue
+    public WriteBehindQueue(Database database, int capacity, int maxBatch, long windowMillis, int idBlockSize) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be at least 1 but was " + maxBatch);
+        }
+        this.connectionSource = database.getConnectionSource();
+        this.executor = database.getExecutor();
+        this.maxBatch = maxBatch;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.idBlockSize = idBlockSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::run, "write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // queue a row; the future completes once it is committed. Throws DatabaseBusyException if the queue is full
+    // or closed.
+    public <T> CompletableFuture<Void> submit(Writer<T> writer, T row) throws DatabaseBusyException {
+        Pending<T> pending = new Pending<>(writer, row);
+        synchronized (this) {
+            if (closed) {
+                throw new DatabaseBusyException("The write-behind queue is closed");
+            }
+            if (!queue.offer(pending)) {
+                throw new DatabaseBusyException("The write-behind queue is full (" + queue.size() + " rows)");
+            }
+        }
+        return pending.done;
+    }
+
+    // ids for the rows of the DAO's table that are queued here
+    IdAllocator idAllocator(Dao<?, ?> dao) {
+        return new IdAllocator(dao, executor, idBlockSize);
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    // transactions committed
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    // rows committed
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    // rows that were queued but could not be committed
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    // stop taking rows and wait until the queued ones are committed
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Closed the write-behind queue with {} rows not written", queue.size());
+        }
+    }
+
+    private void run() {
+        List<Pending<?>> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            boolean closing;
+            synchronized (this) {
+                closing = closed;
+            }
+            if (closing && queue.isEmpty()) {
+                return;
+            }
+            try {
+                Pending<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    Pending<?> next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // only close stops the writer; what was taken from the queue is still written
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending<?>> batch) {
+        try {
+            commit(batch);
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                fail(batch.get(0), e);
+                return;
+            }
+            // one bad row (say, a name another write took in the meantime) rolled back the whole batch: commit
+            // the rows one at a time to tell which one it was
+            for (Pending<?> pending : batch) {
+                try {
+                    commit(Collections.singletonList(pending));
+                } catch (SQLException | RuntimeException rowError) {
+                    fail(pending, rowError);
+                }
+            }
+        }
+    }
+
+    private void commit(List<Pending<?>> batch) throws SQLException {
+        DatabaseExecutor.Work<Void> work = () -> TransactionManager.callInTransaction(connectionSource, () -> {
+            for (Pending<?> pending : batch) {
+                pending.apply();
+            }
+            return null;
+        });
+        while (true) {
+            try {
+                executor.call(work);
+                break;
+            } catch (DatabaseBusyException e) {
+                // the rows are acknowledged already: wait for the executor rather than drop them
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(BUSY_RETRY_MILLIS));
+            }
+        }
+        flushes.incrementAndGet();
+        written.addAndGet(batch.size());
+        // the writers hear about their rows before the callers do, so a caller that waited reads its own write
+        Map<Writer<?>, List<Pending<?>>> byWriter = new IdentityHashMap<>();
+        for (Pending<?> pending : batch) {
+            byWriter.computeIfAbsent(pending.writer, writer -> new ArrayList<>()).add(pending);
+        }
+        for (List<Pending<?>> rows : byWriter.values()) {
+            try {
+                committed(rows);
+            } catch (RuntimeException e) {
+                log.warn("A write-behind listener failed after its rows were committed", e);
+            }
+        }
+        for (Pending<?> pending : batch) {
+            pending.done.complete(null);
+        }
+    }
+
+    // the rows all have the same writer
+    @SuppressWarnings("unchecked")
+    private static <T> void committed(List<Pending<?>> rows) {
+        Writer<T> writer = (Writer<T>) rows.get(0).writer;
+        List<T> values = new ArrayList<>(rows.size());
+        for (Pending<?> pending : rows) {
+            values.add((T) pending.row);
+        }
+        writer.committed(values);
+    }
+
+    private void fail(Pending<?> pending, Exception e) {
+        failed.incrementAndGet();
+        log.warn("Could not write queued row {}", pending.row, e);
+        pending.done.completeExceptionally(e);
+    }
+
+    private static final class Pending<T> {
+        private final Writer<T> writer;
+        private final T row;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Writer<T> writer, T row) {
+            this.writer = writer;
+            this.row = row;
+        }
+
+        void apply() throws SQLException {
+            writer.apply(row);
+        }
+    }
+}
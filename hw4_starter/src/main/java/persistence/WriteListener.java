@@ -0,0 +1,81 @@
+package persistence;
+
+import java.util.Collection;
+
+// Told about every write the repositories make, after it succeeded.
+public interface WriteListener {
+
+    WriteListener NONE = new WriteListener() {
+        @Override
+        public void jobWritten(int id) {
+        }
+
+        @Override
+        public void employerWritten(int id) {
+        }
+    };
+
+    // a job was created, updated or deleted
+    void jobWritten(int id);
+
+    // an employer was created, updated or deleted
+    void employerWritten(int id);
+
+    // many jobs were written at once, e.g. by a batch insert
+    default void jobsWritten(Collection<Integer> ids) {
+        ids.forEach(this::jobWritten);
+    }
+
+    // many employers were written at once
+    default void employersWritten(Collection<Integer> ids) {
+        ids.forEach(this::employerWritten);
+    }
+
+    // any row may have been written, e.g. by another process while its writes were not followed: the ids are
+    // the rows the tables hold now, so a listener that keeps rows must also drop the ones it holds that are not
+    // among them
+    default void allWritten(Collection<Integer> jobIds, Collection<Integer> employerIds) {
+        employersWritten(employerIds);
+        jobsWritten(jobIds);
+    }
+
+    // tells the listeners in order
+    static WriteListener of(WriteListener... listeners) {
+        return new WriteListener() {
+            @Override
+            public void jobWritten(int id) {
+                for (WriteListener listener : listeners) {
+                    listener.jobWritten(id);
+                }
+            }
+
+            @Override
+            public void employerWritten(int id) {
+                for (WriteListener listener : listeners) {
+                    listener.employerWritten(id);
+                }
+            }
+
+            @Override
+            public void jobsWritten(Collection<Integer> ids) {
+                for (WriteListener listener : listeners) {
+                    listener.jobsWritten(ids);
+                }
+            }
+
+            @Override
+            public void employersWritten(Collection<Integer> ids) {
+                for (WriteListener listener : listeners) {
+                    listener.employersWritten(ids);
+                }
+            }
+
+            @Override
+            public void allWritten(Collection<Integer> jobIds, Collection<Integer> employerIds) {
+                for (WriteListener listener : listeners) {
+                    listener.allWritten(jobIds, employerIds);
+                }
+            }
+        };
+    }
+}
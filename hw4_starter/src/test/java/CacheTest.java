@@ -0,0 +1,182 @@
+import cache.CacheConfig;
+import cache.EntityCaches;
+import cache.LruCache;
+import model.Employer;
+import model.Job;
+import org.junit.jupiter.api.*;
+import persistence.Database;
+import persistence.DatabaseConfig;
+import persistence.EmployerRepository;
+import persistence.JobRepository;
+import persistence.JobSort;
+import persistence.TableVersions;
+import persistence.TableVersions.Table;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Tests for the entity caches: the LRU cache itself, and that writes through the repositories
+// invalidate what they make stale.
+public class CacheTest {
+
+    @Nested
+    class LruCacheTest {
+
+        // entries beyond the maximum weight are evicted least recently used first
+        @Test
+        public void testEvictsLeastRecentlyUsed() {
+            LruCache<String, String> cache = new LruCache<>("test", 2, 60_000L, value -> 1);
+            cache.put("a", "A");
+            cache.put("b", "B");
+            cache.get("a");
+            cache.put("c", "C");
+            assertEquals("A", cache.get("a"));
+            assertNull(cache.get("b"));
+            assertEquals("C", cache.get("c"));
+            assertEquals(1L, cache.describe().get("evictions"));
+        }
+
+        // heavy entries push out several light ones, and entries heavier than the cache are not stored
+        @Test
+        public void testEvictsByWeight() {
+            LruCache<String, String> cache = new LruCache<>("test", 4, 60_000L, String::length);
+            cache.put("a", "1");
+            cache.put("b", "2");
+            cache.put("c", "333");
+            assertNull(cache.get("a"));
+            assertEquals("333", cache.get("c"));
+            cache.put("d", "55555");
+            assertNull(cache.get("d"));
+        }
+
+        // entries expire after the time-to-live
+        @Test
+        public void testExpires() throws InterruptedException {
+            LruCache<String, String> cache = new LruCache<>("test", 10, 20L, value -> 1);
+            cache.put("a", "A");
+            Thread.sleep(40);
+            assertNull(cache.get("a"));
+            assertEquals(1L, cache.describe().get("expirations"));
+        }
+
+        // a value loaded before an invalidation is not cached after it
+        @Test
+        public void testLoadRacingInvalidationNotCached() {
+            LruCache<String, String> cache = new LruCache<>("test", 10, 60_000L, value -> 1);
+            assertEquals("old", cache.get("a", () -> {
+                cache.invalidate("a");
+                return "old";
+            }));
+            assertNull(cache.get("a"));
+        }
+
+        // hits and misses are counted
+        @Test
+        public void testCountsHitsAndMisses() {
+            LruCache<String, String> cache = new LruCache<>("test", 10, 60_000L, value -> 1);
+            cache.get("a", () -> "A");
+            cache.get("a", () -> "A");
+            Map<String, Object> stats = cache.describe();
+            assertEquals(1L, stats.get("hits"));
+            assertEquals(1L, stats.get("misses"));
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class InvalidationTest {
+
+        private File dbFile;
+        private Database database;
+        private EntityCaches caches;
+        private TableVersions versions;
+        private EmployerRepository employers;
+        private JobRepository jobs;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-cache", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            caches = new EntityCaches(new CacheConfig(1_000L, 60_000L));
+            versions = new TableVersions();
+            employers = new EmployerRepository(database, caches, versions);
+            jobs = new JobRepository(database, caches, versions);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        @BeforeEach
+        public void setUpEach() throws SQLException {
+            database.getJobDao().deleteBuilder().delete();
+            database.getEmployerDao().deleteBuilder().delete();
+            caches.jobsById().invalidateAll();
+            caches.jobPages().invalidateAll();
+            caches.employersById().invalidateAll();
+            caches.employerPages().invalidateAll();
+        }
+
+        // repeated reads are served from the cache, and an update through the repository is seen right away
+        @Test
+        public void testUpdateInvalidatesById() throws SQLException {
+            Employer e = new Employer("Cached Co", "Tech", "Summary");
+            employers.create(e);
+            assertEquals("Tech", employers.findById(e.getId()).getSector());
+            assertEquals("Tech", employers.findById(e.getId()).getSector());
+            assertEquals(1L, caches.employersById().describe().get("hits"));
+            e.setSector("Energy");
+            employers.update(e);
+            assertEquals("Energy", employers.findById(e.getId()).getSector());
+        }
+
+        // a new job shows up in a listing page that was cached before it was created
+        @Test
+        public void testCreateInvalidatesPages() throws SQLException {
+            Employer e = new Employer("Lister", "Tech", "Summary");
+            employers.create(e);
+            Date d = new Date();
+            jobs.create(new Job("First", d, d, "eng", "Baltimore", true, true, "none", 1, e));
+            assertEquals(1, jobs.page(JobSort.ID, null, 10).getItems().size());
+            jobs.create(new Job("Second", d, d, "eng", "Baltimore", true, true, "none", 1, e));
+            assertEquals(2, jobs.page(JobSort.ID, null, 10).getItems().size());
+        }
+
+        // renaming an employer drops cached search results but keeps cached job listings
+        @Test
+        public void testEmployerWriteInvalidatesSearchOnly() throws SQLException {
+            Employer e = new Employer("Old Name", "Tech", "Summary");
+            employers.create(e);
+            Date d = new Date();
+            jobs.create(new Job("Clerk", d, d, "eng", "Baltimore", true, true, "none", 1, e));
+            jobs.page(JobSort.ID, null, 10);
+            assertEquals(1, jobs.search("old", null, 10).getItems().size());
+            e.setName("New Name");
+            employers.update(e);
+            assertEquals(1, caches.jobPages().size());
+            assertEquals(0, jobs.search("old", null, 10).getItems().size());
+            assertEquals(1, jobs.search("new", null, 10).getItems().size());
+        }
+
+        // a write changes the ETag of responses built from its table, and only of those
+        @Test
+        public void testWriteChangesETag() throws SQLException {
+            String employersTag = versions.etag(Table.EMPLOYERS);
+            String jobsTag = versions.etag(Table.JOBS);
+            String bothTag = versions.etag(Table.JOBS, Table.EMPLOYERS);
+            employers.create(new Employer("Tagged", "Tech", "Summary"));
+            assertNotEquals(employersTag, versions.etag(Table.EMPLOYERS));
+            assertEquals(jobsTag, versions.etag(Table.JOBS));
+            assertNotEquals(bothTag, versions.etag(Table.JOBS, Table.EMPLOYERS));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import api.Compression;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Tests for response compression: content negotiation and the gzip encoding itself.
+public class CompressionTest {
+
+    @Nested
+    class NegotiationTest {
+
+        // gzip is accepted when it is listed (in any case) or covered by *, and not with a quality of 0
+        @Test
+        public void testAcceptsGzip() {
+            assertTrue(Compression.acceptsGzip("gzip"));
+            assertTrue(Compression.acceptsGzip("deflate, GZIP;q=0.5, br"));
+            assertTrue(Compression.acceptsGzip("*"));
+            assertFalse(Compression.acceptsGzip(null));
+            assertFalse(Compression.acceptsGzip("identity"));
+            assertFalse(Compression.acceptsGzip("br, gzip;q=0"));
+            assertFalse(Compression.acceptsGzip("gzip;q=abc"));
+        }
+
+        // the gzipped body has an ETag of its own, inside the quotes of a strong one
+        @Test
+        public void testGzipEtag() {
+            assertEquals("\"abc-j1-gzip\"", Compression.gzipEtag("\"abc-j1\""));
+            assertEquals("abc-gzip", Compression.gzipEtag("abc"));
+        }
+
+        // a gzipped body decompresses to the original, and repetitive JSON gets much smaller
+        @Test
+        public void testGzipRoundTrip() throws IOException {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 200; i++) {
+                json.append("{\"id\":").append(i).append(",\"requirements\":\"Five years of experience\"},");
+            }
+            byte[] body = json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+            byte[] gzipped = new Compression(true, 1024, 6).gzip(body);
+            assertTrue(gzipped.length < body.length / 4);
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+                assertArrayEquals(body, in.readAllBytes());
+            }
+        }
+    }
+}
@@ -0,0 +1,530 @@
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.DatabaseConnection;
+import model.Change;
+import model.Employer;
+import model.Job;
+import org.junit.jupiter.api.*;
+import persistence.ChangeBatch;
+import persistence.ChangeLog;
+import persistence.Database;
+import persistence.DatabaseBusyException;
+import persistence.DatabaseConfig;
+import persistence.DatabaseExecutor;
+import persistence.EmployerRepository;
+import persistence.PooledConnectionSource;
+import persistence.ResyncRequiredException;
+import persistence.SqliteTuning;
+import cache.CacheConfig;
+import cache.EntityCaches;
+import com.j256.ormlite.dao.CloseableIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Tests for the pooled data-access layer. Each test class works on its own temporary database
+// file so it does not interfere with ./JBApp.db.
+public class DatabaseTest {
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class PooledConnectionSourceTest {
+
+        private File dbFile;
+        private Database database;
+        private PooledConnectionSource pool;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-pool", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 200L));
+            pool = database.getConnectionSource();
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        // the schema is created when the database is opened, so the DAOs work right away
+        @Test
+        public void testSchemaBootstrappedOnOpen() throws SQLException {
+            database.getEmployerDao().create(new Employer("Pool Co", "Tech", "Summary"));
+            assertEquals(1, database.getEmployerDao().queryForEq("name", "Pool Co").size());
+        }
+
+        // connections are reused instead of being opened per query
+        @Test
+        public void testConnectionsAreReused() throws SQLException {
+            database.getEmployerDao().queryForAll();
+            long opened = pool.getOpenedCount();
+            for (int i = 0; i < 20; i++) {
+                database.getEmployerDao().queryForAll();
+            }
+            assertEquals(opened, pool.getOpenedCount());
+            assertEquals(0, pool.getActiveConnections());
+        }
+
+        // asking for more connections than the pool holds fails after the acquire timeout
+        @Test
+        public void testAcquireTimesOutWhenExhausted() throws SQLException {
+            DatabaseConnection first = pool.getReadWriteConnection(null);
+            DatabaseConnection second = pool.getReadWriteConnection(null);
+            try {
+                Assertions.assertThrows(SQLException.class, () -> pool.getReadWriteConnection(null));
+                assertEquals(2, pool.getActiveConnections());
+            } finally {
+                pool.releaseConnection(first);
+                pool.releaseConnection(second);
+            }
+            assertEquals(0, pool.getActiveConnections());
+        }
+
+        // DAO calls inside a transaction use the transaction's connection and do not take more permits
+        @Test
+        public void testTransactionUsesOneConnection() throws SQLException {
+            TransactionManager.callInTransaction(pool, () -> {
+                database.getEmployerDao().create(new Employer("Txn Co", "Tech", "Summary"));
+                database.getEmployerDao().queryForAll();
+                assertEquals(1, pool.getActiveConnections());
+                return null;
+            });
+            assertEquals(0, pool.getActiveConnections());
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class DatabaseExecutorTest {
+
+        private File dbFile;
+        private Database database;
+        private DatabaseExecutor executor;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-executor", ".db");
+            // one database thread and room for one waiting task
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 1, 60_000L, 5_000L,
+                    DatabaseConfig.DEFAULT_BATCH_SIZE, true, 1));
+            executor = database.getExecutor();
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        // work runs on a database thread, and work it submits itself runs inline instead of waiting for one
+        @Test
+        public void testNestedWorkRunsInline() throws SQLException {
+            String caller = Thread.currentThread().getName();
+            String inner = executor.call(() -> executor.call(() -> Thread.currentThread().getName()));
+            assertTrue(inner.startsWith("db-"));
+            Assertions.assertNotEquals(caller, inner);
+        }
+
+        // once the thread is busy and the queue is full, new work is turned away right away
+        @Test
+        public void testFullQueueRejects() throws Exception {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> running = CompletableFuture.runAsync(() -> call(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> call(() -> null));
+            while (executor.getQueued() == 0) {
+                Thread.sleep(1);
+            }
+            long rejected = executor.getRejectedCount();
+            try {
+                Assertions.assertThrows(DatabaseBusyException.class, () -> executor.call(() -> null));
+                assertEquals(rejected + 1, executor.getRejectedCount());
+            } finally {
+                release.countDown();
+            }
+            running.get(5, TimeUnit.SECONDS);
+            queued.get(5, TimeUnit.SECONDS);
+        }
+
+        // iterators read their rows on the database threads in batches and still see every row
+        @Test
+        public void testIteratorReadsAllRows() throws SQLException, IOException {
+            database.getEmployerDao().deleteBuilder().delete();
+            EmployerRepository employers = new EmployerRepository(database,
+                    new EntityCaches(new CacheConfig(1_000L, 60_000L)));
+            for (int i = 0; i < 600; i++) {
+                employers.create(new Employer("Employer " + i, "Tech", "Summary"));
+            }
+            int count = 0;
+            try (CloseableIterator<Employer> rows = employers.iterateAll()) {
+                while (rows.hasNext()) {
+                    assertEquals("Employer " + count, rows.next().getName());
+                    count++;
+                }
+            }
+            assertEquals(600, count);
+            assertEquals(0, database.getConnectionSource().getActiveConnections());
+        }
+
+        // an iterator that is read and closed while the queue is full still reads every row, and its connection
+        // goes back to the pool
+        @Test
+        public void testIteratorReleasesConnectionWhenQueueIsFull() throws Exception {
+            database.getEmployerDao().deleteBuilder().delete();
+            EmployerRepository employers = new EmployerRepository(database,
+                    new EntityCaches(new CacheConfig(1_000L, 60_000L)));
+            for (int i = 0; i < 600; i++) {
+                employers.create(new Employer("Employer " + i, "Tech", "Summary"));
+            }
+            CloseableIterator<Employer> rows = employers.iterateAll();
+            assertTrue(rows.hasNext());
+            assertEquals(1, database.getConnectionSource().getActiveConnections());
+
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> running = CompletableFuture.runAsync(() -> call(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+            CompletableFuture<Void> queued;
+            try {
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+                queued = CompletableFuture.runAsync(() -> call(() -> null));
+                while (executor.getQueued() == 0) {
+                    Thread.sleep(1);
+                }
+                int count = 0;
+                while (rows.hasNext()) {
+                    rows.next();
+                    count++;
+                }
+                assertEquals(600, count);
+                rows.close();
+                assertEquals(0, database.getConnectionSource().getActiveConnections());
+            } finally {
+                release.countDown();
+            }
+            running.get(5, TimeUnit.SECONDS);
+            queued.get(5, TimeUnit.SECONDS);
+        }
+
+        private void call(DatabaseExecutor.Work<Void> work) {
+            try {
+                executor.call(work);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class ChangeLogTest {
+
+        private File dbFile;
+        private Database database;
+        private ChangeLog changes;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-changes", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            // keeps the last 300 changes, pruned every 256
+            changes = ChangeLog.install(database, 300);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        // inserts, updates and deletes are recorded in order, also when they bypass the repositories
+        @Test
+        public void testRecordsWrites() throws SQLException {
+            long since = changes.latestSeq();
+            Employer employer = new Employer("Changing", "Tech", "Summary");
+            database.getEmployerDao().create(employer);
+            employer.setSector("Food");
+            database.getEmployerDao().update(employer);
+            database.getEmployerDao().delete(employer);
+
+            ChangeBatch batch = changes.read(since, 2);
+            assertEquals(2, batch.getChanges().size());
+            assertTrue(batch.hasMore());
+            Change created = batch.getChanges().get(0);
+            assertEquals(since + 1, created.getSeq());
+            assertEquals(Change.EMPLOYER, created.getType());
+            assertEquals((int) employer.getId(), created.getId());
+            assertEquals(Change.UPSERT, created.getOp());
+            batch = changes.read(batch.getNext(), 2);
+            assertEquals(1, batch.getChanges().size());
+            assertEquals(Change.DELETE, batch.getChanges().get(0).getOp());
+            Assertions.assertFalse(batch.hasMore());
+            assertEquals(0, changes.read(batch.getNext(), 2).getChanges().size());
+        }
+
+        // a reader behind the retained changes, or ahead of the latest one, has to start over
+        @Test
+        public void testResyncWhenTooFarBehind() throws SQLException {
+            long since = changes.latestSeq();
+            EmployerRepository employers = new EmployerRepository(database, new EntityCaches(CacheConfig.disabled()));
+            for (int i = 0; i < 600; i++) {
+                employers.create(new Employer("Pruned " + i, "Tech", "Summary"));
+            }
+            long latest = changes.latestSeq();
+            assertEquals(since + 600, latest);
+            ResyncRequiredException e = Assertions.assertThrows(ResyncRequiredException.class,
+                    () -> changes.read(since, 10));
+            assertEquals(latest, e.getLatest());
+            Assertions.assertThrows(ResyncRequiredException.class, () -> changes.read(latest + 1, 10));
+            assertEquals(10, changes.read(latest - 300, 10).getChanges().size());
+        }
+
+        // a waiting reader wakes up on a write through the repositories
+        @Test
+        public void testWriteWakesReader() throws Exception {
+            EmployerRepository employers = new EmployerRepository(database, new EntityCaches(CacheConfig.disabled()),
+                    changes);
+            long seen = changes.getWriteCount();
+            CompletableFuture<Long> waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return changes.awaitWrite(seen, 10_000L);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            employers.create(new Employer("Waking", "Tech", "Summary"));
+            assertEquals(seen + 1, waiting.get(5, TimeUnit.SECONDS));
+            assertEquals(seen + 1, changes.awaitWrite(seen, 0));
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class DateMigrationTest {
+
+        private File dbFile;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-dates", ".db");
+            // a jobs table as older versions created it, with dates stored as text, as a Julian day and as
+            // epoch milliseconds
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE `jobs` (`id` INTEGER PRIMARY KEY AUTOINCREMENT ,"
+                        + " `title` VARCHAR NOT NULL , `datePosted` TIMESTAMP NOT NULL , `deadline` TIMESTAMP ,"
+                        + " `domain` VARCHAR , `location` VARCHAR NOT NULL , `fullTime` BOOLEAN ,"
+                        + " `salaryBased` BOOLEAN , `requirements` VARCHAR , `payAmount` INTEGER ,"
+                        + " `employer_id` INTEGER )");
+                statement.executeUpdate("INSERT INTO jobs (title, datePosted, deadline, location) VALUES"
+                        + " ('Text', '2021-10-01 12:30:00.250', '2021-11-01 00:00:00.000000', 'Baltimore'),"
+                        + " ('Julian', 2459489.25, NULL, 'Baltimore'),"
+                        + " ('Millis', 1633091400250, 1635724800000, 'Baltimore')");
+            }
+        }
+
+        @AfterAll
+        public void tearDownAll() {
+            dbFile.delete();
+        }
+
+        // opening the database converts every date to epoch milliseconds, and opening it again changes nothing
+        @Test
+        public void testDatesConvertedOnOpen() throws Exception {
+            for (int open = 0; open < 2; open++) {
+                Database database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2,
+                        60_000L, 5_000L));
+                try {
+                    assertEquals(0, database.getJobDao().queryRawValue("SELECT COUNT(*) FROM jobs"
+                            + " WHERE typeof(datePosted) <> 'integer' OR typeof(deadline) IN ('text', 'real')"));
+                    Job text = database.getJobDao().queryForId(1);
+                    Date posted = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse("2021-10-01 12:30:00.250");
+                    assertEquals(posted, text.getDatePosted());
+                    assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2021-11-01"), text.getDeadline());
+                    // Julian day 2459489.25 is 2021-10-01 18:00 UTC
+                    assertEquals(1_633_111_200_000L, database.getJobDao().queryForId(2).getDatePosted().getTime());
+                    assertEquals(null, database.getJobDao().queryForId(2).getDeadline());
+                    assertEquals(1_633_091_400_250L, database.getJobDao().queryForId(3).getDatePosted().getTime());
+                    // ranges compare the stored integers
+                    assertEquals(1, database.getJobDao().queryBuilder().where()
+                            .ge("datePosted", new Date(1_633_100_000_000L)).countOf());
+                } finally {
+                    database.close();
+                }
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class SqliteTuningTest {
+
+        private File dbFile;
+        private Database database;
+        private PooledConnectionSource pool;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-tuned", ".db");
+            // a short acquire (and busy) timeout: a write that had to wait for the readers would fail fast
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 4, 60_000L, 500L,
+                    DatabaseConfig.DEFAULT_BATCH_SIZE, false, DatabaseConfig.DEFAULT_EXECUTOR_QUEUE_CAPACITY,
+                    new SqliteTuning("wal", "normal", 8_192, 64L << 20, "memory", true)));
+            pool = database.getConnectionSource();
+            Employer e = new Employer("Tuned Inc", "Tech", "Summary");
+            database.getEmployerDao().create(e);
+            Date d = new Date();
+            for (int i = 0; i < 50; i++) {
+                database.getJobDao().create(new Job("Tuned " + i, d, d, "eng", "Baltimore", true, true, "none", i, e));
+            }
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+            new File(dbFile.getPath() + "-wal").delete();
+            new File(dbFile.getPath() + "-shm").delete();
+        }
+
+        // the file is in WAL mode, reads get the tuned, read-only connections and writes the writer connection
+        @Test
+        public void testPragmasApplied() throws SQLException {
+            DatabaseConnection reader = pool.getReadOnlyConnection(null);
+            try {
+                assertEquals("wal", pragma(reader, "journal_mode"));
+                assertEquals("1", pragma(reader, "synchronous"));
+                assertEquals("-8192", pragma(reader, "cache_size"));
+                assertEquals("2", pragma(reader, "temp_store"));
+                assertEquals("1", pragma(reader, "query_only"));
+                Assertions.assertThrows(SQLException.class, () -> reader.executeStatement(
+                        "DELETE FROM jobs", DatabaseConnection.DEFAULT_RESULT_FLAGS));
+            } finally {
+                pool.releaseConnection(reader);
+            }
+            DatabaseConnection writer = pool.getReadWriteConnection(null);
+            try {
+                assertEquals("0", pragma(writer, "query_only"));
+                // there is one writer connection, whatever the size of the pool
+                Assertions.assertThrows(SQLException.class, () -> pool.getReadWriteConnection(null));
+                assertEquals(1, pool.getActiveConnections());
+            } finally {
+                pool.releaseConnection(writer);
+            }
+            assertEquals(0, pool.getActiveConnections());
+        }
+
+        // a write commits while a read is in progress (with a rollback journal, the commit would wait for the
+        // reader and time out), and the read keeps seeing the rows as they were when it started
+        @Test
+        public void testWriteCommitsDuringRead() throws Exception {
+            long before = database.getJobDao().countOf();
+            try (CloseableIterator<Job> reading = database.getJobDao().iterator()) {
+                assertTrue(reading.hasNext());
+                reading.next();
+                Job job = new Job("During read", new Date(), new Date(), "eng", "Baltimore", true, true, "none", 0,
+                        database.getEmployerDao().queryForEq("name", "Tuned Inc").get(0));
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        database.getJobDao().create(job);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }).get(5, TimeUnit.SECONDS);
+                int rest = 0;
+                while (reading.hasNext()) {
+                    reading.next();
+                    rest++;
+                }
+                assertEquals(before - 1, rest);
+            }
+            assertEquals(before + 1, database.getJobDao().countOf());
+        }
+
+        // readers on all pool connections keep reading while one thread writes; no read or write fails, and
+        // every reader sees the writes land in order
+        @Test
+        public void testConcurrentReadsAndWrites() throws Exception {
+            int readers = 4;
+            int writes = 100;
+            Employer e = database.getEmployerDao().queryForEq("name", "Tuned Inc").get(0);
+            CountDownLatch writing = new CountDownLatch(1);
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                try {
+                    writing.await();
+                    for (int i = 0; i < writes; i++) {
+                        database.getJobDao().create(new Job("Concurrent " + i, new Date(), new Date(), "eng",
+                                "Baltimore", true, true, "none", i, e));
+                    }
+                } catch (SQLException | InterruptedException failure) {
+                    throw new IllegalStateException(failure);
+                }
+            });
+            List<CompletableFuture<Integer>> reads = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                reads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        writing.countDown();
+                        int done = 0;
+                        long last = 0;
+                        while (!writer.isDone() || done == 0) {
+                            long seen = database.getJobDao().queryBuilder().where().like("title", "Concurrent %")
+                                    .countOf();
+                            assertTrue(seen >= last);
+                            last = seen;
+                            done++;
+                        }
+                        return done;
+                    } catch (SQLException failure) {
+                        throw new IllegalStateException(failure);
+                    }
+                }, Executors.newSingleThreadExecutor()));
+            }
+            writer.get(30, TimeUnit.SECONDS);
+            for (CompletableFuture<Integer> read : reads) {
+                assertTrue(read.get(30, TimeUnit.SECONDS) > 0);
+            }
+            assertEquals(writes, database.getJobDao().queryBuilder().where().like("title", "Concurrent %").countOf());
+        }
+
+        private String pragma(DatabaseConnection connection, String name) throws SQLException {
+            try (Statement statement = connection.getUnderlyingConnection().createStatement();
+                 ResultSet result = statement.executeQuery("PRAGMA " + name)) {
+                result.next();
+                return result.getString(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,1085 @@
+import cache.CacheConfig;
+import cache.EntityCaches;
+import model.Change;
+import model.Employer;
+import model.Job;
+import org.junit.jupiter.api.*;
+import persistence.AutocompleteIndex;
+import persistence.BatchResult;
+import persistence.ChangeLog;
+import persistence.Cursor;
+import persistence.Database;
+import persistence.DatabaseConfig;
+import persistence.DatabaseListener;
+import persistence.EmployerRepository;
+import persistence.JobFilter;
+import persistence.JobRepository;
+import persistence.JobShards;
+import persistence.JobSnapshot;
+import persistence.JobSort;
+import persistence.Page;
+import persistence.WriteBehindQueue;
+import persistence.WriteListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Tests for the reads (and batch writes) the repositories serve on top of the "jobs" table. They run against a temporary
+// database file so they do not interfere with ./JBApp.db.
+public class JobRepositoryTest {
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class KeysetPaginationTest {
+
+        private File dbFile;
+        private Database database;
+        private JobRepository jobs;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-jobs", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            jobs = new JobRepository(database, new EntityCaches(CacheConfig.disabled()));
+            Employer e = new Employer("Pager Inc", "Tech", "Summary");
+            database.getEmployerDao().create(e);
+            // 10 jobs, posted in pairs that share the same datePosted
+            for (int i = 0; i < 10; i++) {
+                Date posted = new Date(1_600_000_000_000L + (i / 2) * 60_000L);
+                database.getJobDao().create(new Job("Job " + i, posted, posted, "eng", "Baltimore", true, true, "none", i, e));
+            }
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        private List<Job> readAllPages(JobSort sort, int limit) throws SQLException {
+            List<Job> all = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<Job> page = jobs.page(sort, cursor, limit);
+                all.addAll(page.getItems());
+                cursor = page.getNext();
+            } while (cursor != null);
+            return all;
+        }
+
+        // walking the pages in id order visits every job exactly once, in order
+        @Test
+        public void testPagesById() throws SQLException {
+            List<Job> all = readAllPages(JobSort.ID, 3);
+            assertEquals(10, all.size());
+            for (int i = 1; i < all.size(); i++) {
+                Assertions.assertTrue(all.get(i - 1).getId() < all.get(i).getId());
+            }
+        }
+
+        // paging newest-first does not skip or repeat jobs that share a datePosted across a page boundary
+        @Test
+        public void testPagesByDatePostedWithTies() throws SQLException {
+            List<Job> all = readAllPages(JobSort.DATE_POSTED, 3);
+            assertEquals(10, all.size());
+            assertEquals(10, all.stream().map(Job::getId).distinct().count());
+            for (int i = 1; i < all.size(); i++) {
+                Assertions.assertFalse(all.get(i - 1).getDatePosted().before(all.get(i).getDatePosted()));
+            }
+        }
+
+        // a page that reaches the end of the table has no next cursor
+        @Test
+        public void testLastPageHasNoCursor() throws SQLException {
+            Page<Job> page = jobs.page(JobSort.ID, null, 10);
+            assertEquals(10, page.getItems().size());
+            assertNull(page.getNext());
+        }
+
+        // a cursor issued for one sort cannot be used with another
+        @Test
+        public void testCursorOfOtherSortRejected() throws SQLException {
+            String next = jobs.page(JobSort.ID, null, 2).getNext();
+            Assertions.assertThrows(IllegalArgumentException.class, () -> jobs.page(JobSort.DATE_POSTED, next, 2));
+        }
+
+        // a tampered cursor of a sort by a column, without the column's value, is rejected (the route answers 400)
+        @Test
+        public void testCursorWithoutValueRejected() {
+            for (JobSort sort : Arrays.asList(JobSort.DATE_POSTED, JobSort.PAY_AMOUNT)) {
+                String tampered = new Cursor(sort.getParam(), null, 5).encode();
+                Assertions.assertThrows(IllegalArgumentException.class, () -> jobs.page(sort, tampered, 2));
+            }
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class SearchTest {
+
+        private File dbFile;
+        private Database database;
+        private JobRepository jobs;
+        private Employer employer;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-search", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            jobs = new JobRepository(database, new EntityCaches(CacheConfig.disabled()));
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        @BeforeEach
+        public void setUpEach() throws SQLException {
+            database.getJobDao().deleteBuilder().delete();
+            database.getEmployerDao().deleteBuilder().delete();
+            employer = new Employer("Solar Works", "Energy", "Summary");
+            database.getEmployerDao().create(employer);
+        }
+
+        private Job createJob(String title, String requirements) throws SQLException {
+            Date d = new Date();
+            Job job = new Job(title, d, d, "eng", "Baltimore", true, true, requirements, 10, employer);
+            database.getJobDao().create(job);
+            return job;
+        }
+
+        // a search cursor must hold an offset of at least 0
+        @Test
+        public void testCursorWithoutOffsetRejected() {
+            for (Long offset : Arrays.asList(null, -1L)) {
+                String tampered = new Cursor("search", offset, 0).encode();
+                Assertions.assertThrows(IllegalArgumentException.class, () -> jobs.search("java", tampered, 10));
+            }
+        }
+
+        // a job is found by a word of its title, and a title hit ranks above a requirements hit
+        @Test
+        public void testSearchRanksTitleFirst() throws SQLException {
+            Job inRequirements = createJob("Engineer", "knows java");
+            Job inTitle = createJob("Java Developer", "none");
+            List<Job> found = jobs.search("java", null, 10).getItems();
+            assertEquals(2, found.size());
+            assertEquals(inTitle.getId(), found.get(0).getId());
+            assertEquals(inRequirements.getId(), found.get(1).getId());
+        }
+
+        // renaming the employer re-indexes its jobs under the new name
+        @Test
+        public void testEmployerRenameIsIndexed() throws SQLException {
+            createJob("Installer", "none");
+            employer.setName("Sunrise Panels");
+            database.getEmployerDao().update(employer);
+            assertEquals(0, jobs.search("works", null, 10).getItems().size());
+            assertEquals(1, jobs.search("sunrise", null, 10).getItems().size());
+        }
+
+        // deleted jobs disappear from the index
+        @Test
+        public void testDeletedJobNotFound() throws SQLException {
+            Job job = createJob("Welder", "none");
+            database.getJobDao().delete(job);
+            assertEquals(0, jobs.search("welder", null, 10).getItems().size());
+        }
+
+        // search syntax in the query is taken literally instead of failing
+        @Test
+        public void testQuerySyntaxIsEscaped() throws SQLException {
+            createJob("C++ Developer", "none");
+            Assertions.assertDoesNotThrow(() -> jobs.search("\"c++ OR\" NEAR(", null, 10));
+        }
+
+        // results come in pages that together contain every match once
+        @Test
+        public void testSearchPages() throws SQLException {
+            for (int i = 0; i < 5; i++) {
+                createJob("Nurse " + i, "none");
+            }
+            Page<Job> first = jobs.search("nurse", null, 3);
+            Page<Job> second = jobs.search("nurse", first.getNext(), 3);
+            assertEquals(3, first.getItems().size());
+            assertEquals(2, second.getItems().size());
+            assertNull(second.getNext());
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class FilterTest {
+
+        private File dbFile;
+        private Database database;
+        private JobRepository jobs;
+        private Employer first;
+        private Employer second;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-filter", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            jobs = new JobRepository(database, new EntityCaches(CacheConfig.disabled()));
+            first = new Employer("First", "Tech", "Summary");
+            second = new Employer("Second", "Food", "Summary");
+            database.getEmployerDao().create(first);
+            database.getEmployerDao().create(second);
+            // 12 jobs: alternating Baltimore / Boston, every third one part-time, pay 0..110
+            for (int i = 0; i < 12; i++) {
+                Date posted = new Date(1_600_000_000_000L + i * 60_000L);
+                Date deadline = new Date(1_700_000_000_000L + i * 60_000L);
+                database.getJobDao().create(new Job("Job " + i, posted, deadline, "eng", i % 2 == 0 ? "Baltimore" : "Boston",
+                        i % 3 != 0, true, "none", i * 10, i < 6 ? first : second));
+            }
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        // all set conditions must hold
+        @Test
+        public void testFiltersCombine() throws SQLException {
+            JobFilter filter = new JobFilter();
+            filter.setLocation("Baltimore");
+            filter.setFullTime(true);
+            filter.setPayMin(20);
+            filter.setPayMax(80);
+            List<Job> found = jobs.page(filter, JobSort.ID, null, 50).getItems();
+            // Baltimore: 0, 2, 4, 6, 8, 10; full-time drops 0 and 6; pay 20..80 keeps 2, 4 and 8
+            assertEquals(3, found.size());
+            assertEquals("Job 2", found.get(0).getTitle());
+            assertEquals("Job 4", found.get(1).getTitle());
+            assertEquals("Job 8", found.get(2).getTitle());
+        }
+
+        // the best paid jobs matching the filter come first, and paging by pay continues where they stop
+        @Test
+        public void testTopByPay() throws SQLException {
+            JobFilter filter = new JobFilter();
+            filter.setLocation("Boston");
+            List<Job> top = jobs.topByPay(filter, 3);
+            // Boston: 1, 3, 5, 7, 9, 11, paid ten times that
+            assertEquals(Arrays.asList(110, 90, 70), Arrays.asList(top.get(0).getPayAmount(),
+                    top.get(1).getPayAmount(), top.get(2).getPayAmount()));
+            Page<Job> first = jobs.page(filter, JobSort.PAY_AMOUNT, null, 3);
+            Page<Job> second = jobs.page(filter, JobSort.PAY_AMOUNT, first.getNext(), 3);
+            assertEquals("Job 5", second.getItems().get(0).getTitle());
+            assertNull(second.getNext());
+        }
+
+        // a datePosted range (from inclusive, to exclusive) is read newest first through the datePosted index
+        @Test
+        public void testPostedRange() throws SQLException {
+            JobFilter filter = new JobFilter();
+            filter.setPostedAfter(new Date(1_600_000_000_000L + 3 * 60_000L));
+            filter.setPostedBefore(new Date(1_600_000_000_000L + 7 * 60_000L));
+            List<Job> found = jobs.page(filter, JobSort.DATE_POSTED, null, 50).getItems();
+            assertEquals(4, found.size());
+            assertEquals("Job 6", found.get(0).getTitle());
+            assertEquals("Job 3", found.get(3).getTitle());
+            filter.setLocation("Boston");
+            assertEquals(2, jobs.page(filter, JobSort.ID, null, 50).getItems().size());
+        }
+
+        // filters of the same shape with different values do not see each other's values
+        @Test
+        public void testSameShapeDifferentValues() throws SQLException {
+            JobFilter baltimore = new JobFilter();
+            baltimore.setLocation("Baltimore");
+            JobFilter boston = new JobFilter();
+            boston.setLocation("Boston");
+            for (int i = 0; i < 3; i++) {
+                assertEquals("Baltimore", jobs.page(baltimore, JobSort.ID, null, 50).getItems().get(0).getLocation());
+                assertEquals("Boston", jobs.page(boston, JobSort.ID, null, 50).getItems().get(0).getLocation());
+            }
+        }
+
+        // filtered listings page with cursors like unfiltered ones
+        @Test
+        public void testFilteredPagesByDatePosted() throws SQLException {
+            JobFilter filter = new JobFilter();
+            filter.setEmployerId(second.getId());
+            filter.setDeadlineBefore(new Date(1_700_000_000_000L + 10 * 60_000L));
+            Page<Job> page = jobs.page(filter, JobSort.DATE_POSTED, null, 3);
+            assertEquals("Job 9", page.getItems().get(0).getTitle());
+            Page<Job> next = jobs.page(filter, JobSort.DATE_POSTED, page.getNext(), 3);
+            assertEquals(1, next.getItems().size());
+            assertEquals("Job 6", next.getItems().get(0).getTitle());
+            assertNull(next.getNext());
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class BatchInsertTest {
+
+        private File dbFile;
+        private Database database;
+        private EmployerRepository employers;
+        private JobRepository jobs;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-batch", ".db");
+            // small transactions, so that a batch spans several of them
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L, 3));
+            EntityCaches caches = new EntityCaches(CacheConfig.disabled());
+            employers = new EmployerRepository(database, caches);
+            jobs = new JobRepository(database, caches);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        @BeforeEach
+        public void setUpEach() throws SQLException {
+            database.getJobDao().deleteBuilder().delete();
+            database.getEmployerDao().deleteBuilder().delete();
+        }
+
+        // valid rows are created across several transactions; the invalid ones are reported by position
+        @Test
+        public void testCreatesValidJobsAndReportsInvalidOnes() throws SQLException {
+            Employer e = new Employer("Batcher", "Tech", "Summary");
+            employers.create(e);
+            Date d = new Date();
+            List<Job> batch = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                batch.add(new Job("Job " + i, d, d, "eng", "Baltimore", true, true, "none", i, e));
+            }
+            batch.get(2).setTitle(null);
+            batch.get(4).setEmployer(new Employer("Ghost", "Tech", "Summary"));
+            batch.get(4).getEmployer().setId(e.getId() + 1000);
+            BatchResult result = jobs.createAll(batch);
+            assertEquals(5, result.getIds().size());
+            assertEquals(Set.of(2, 4), result.getErrors().keySet());
+            assertEquals(5, database.getJobDao().countOf());
+        }
+
+        // a name that is already taken, or repeated within the batch, rejects only that row
+        @Test
+        public void testRejectsDuplicateEmployerNames() throws SQLException {
+            employers.create(new Employer("Taken", "Tech", "Summary"));
+            BatchResult result = employers.createAll(Arrays.asList(
+                    new Employer("Taken", "Tech", "Summary"),
+                    new Employer("Fresh", "Tech", "Summary"),
+                    new Employer("Fresh", "Energy", "Summary"),
+                    new Employer("Other", "Tech", null)));
+            assertEquals(2, result.getIds().size());
+            assertEquals(Set.of(0, 2), result.getErrors().keySet());
+            assertEquals(3, database.getEmployerDao().countOf());
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class FindByIdsTest {
+
+        private final AtomicInteger employerQueries = new AtomicInteger();
+        private File dbFile;
+        private Database database;
+        private EntityCaches caches;
+        private EmployerRepository employers;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-byids", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L),
+                    new DatabaseListener() {
+                        @Override
+                        public void connectionAcquired(long waitNanos, boolean timedOut) {
+                        }
+
+                        @Override
+                        public void statementExecuted(String sql, long nanos, boolean failed) {
+                            if (sql.startsWith("SELECT") && sql.contains("`employers`")) {
+                                employerQueries.incrementAndGet();
+                            }
+                        }
+                    });
+            caches = new EntityCaches(new CacheConfig(1_000L, 60_000L));
+            employers = new EmployerRepository(database, caches);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        // the employers not cached yet are read with one IN query, whatever their number; an id without an
+        // employer is left out, and the ones read are cached for the next call
+        @Test
+        public void testReadsMissingEmployersInOneQuery() throws SQLException {
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                Employer e = new Employer("Looked Up " + i, "Tech", "Summary");
+                employers.create(e);
+                ids.add(e.getId());
+            }
+            employers.findById(ids.get(0));
+            ids.add(999_999);
+            employerQueries.set(0);
+            Map<Integer, Employer> found = employers.findByIds(ids);
+            assertEquals(1, employerQueries.get());
+            assertEquals(5, found.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("Looked Up " + i, found.get(ids.get(i)).getName());
+            }
+            assertNull(found.get(999_999));
+            employers.findByIds(ids.subList(0, 5));
+            assertEquals(1, employerQueries.get());
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class JobSnapshotTest {
+
+        private File dbFile;
+        private Database database;
+        private EmployerRepository employers;
+        private JobRepository fromDatabase;
+        private JobRepository fromSnapshot;
+        private JobSnapshot snapshot;
+        private final List<Employer> owners = new ArrayList<>();
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-snapshot", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            String[] sectors = {"Tech", "Food", "Energy"};
+            for (int i = 0; i < 3; i++) {
+                Employer e = new Employer("Owner " + i, sectors[i], "Summary");
+                database.getEmployerDao().create(e);
+                owners.add(e);
+            }
+            // 60 jobs over a few locations and domains, with tied posting dates and some without a deadline
+            for (int i = 0; i < 60; i++) {
+                Date posted = new Date(1_600_000_000_000L + (i / 3) * 60_000L);
+                Date deadline = i % 7 == 0 ? null : new Date(1_700_000_000_000L + (i % 10) * 60_000L);
+                database.getJobDao().create(new Job("Job " + i, posted, deadline, i % 2 == 0 ? "eng" : "ops",
+                        new String[]{"Baltimore", "Boston", "Denver"}[i % 3], i % 4 != 0, i % 5 != 0, "none",
+                        (i * 37) % 100, owners.get(i % 3)));
+            }
+            EntityCaches caches = new EntityCaches(CacheConfig.disabled());
+            snapshot = JobSnapshot.load(database);
+            employers = new EmployerRepository(database, caches, snapshot);
+            fromDatabase = new JobRepository(database, caches);
+            fromSnapshot = new JobRepository(database, caches, snapshot, snapshot);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        private List<JobFilter> filters() {
+            List<JobFilter> filters = new ArrayList<>();
+            filters.add(new JobFilter());
+            JobFilter combined = new JobFilter();
+            combined.setLocation("Boston");
+            combined.setFullTime(true);
+            combined.setPayMin(20);
+            combined.setPayMax(80);
+            filters.add(combined);
+            JobFilter deadlines = new JobFilter();
+            deadlines.setDomain("eng");
+            deadlines.setSalaryBased(false);
+            deadlines.setDeadlineBefore(new Date(1_700_000_000_000L + 5 * 60_000L));
+            filters.add(deadlines);
+            JobFilter sector = new JobFilter();
+            sector.setSector("Food");
+            sector.setFullTime(false);
+            filters.add(sector);
+            JobFilter unknown = new JobFilter();
+            unknown.setLocation("Nowhere");
+            filters.add(unknown);
+            JobFilter posted = new JobFilter();
+            posted.setPostedAfter(new Date(1_600_000_000_000L + 4 * 60_000L));
+            posted.setPostedBefore(new Date(1_600_000_000_000L + 12 * 60_000L));
+            posted.setLocation("Denver");
+            filters.add(posted);
+            return filters;
+        }
+
+        private List<Integer> readAllPages(JobRepository jobs, JobFilter filter, JobSort sort) throws SQLException {
+            List<Integer> ids = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<Job> page = jobs.page(filter, sort, cursor, 4);
+                page.getItems().forEach(job -> ids.add(job.getId()));
+                cursor = page.getNext();
+            } while (cursor != null);
+            return ids;
+        }
+
+        private void assertSameListings() throws SQLException {
+            List<JobFilter> filters = filters();
+            for (int i = 0; i < filters.size(); i++) {
+                for (JobSort sort : JobSort.values()) {
+                    assertEquals(readAllPages(fromDatabase, filters.get(i), sort),
+                            readAllPages(fromSnapshot, filters.get(i), sort), "filter " + i + ", " + sort);
+                }
+            }
+        }
+
+        // every filter and sort lists the same jobs, page by page, as the database does
+        @Test
+        public void testListsLikeDatabase() throws SQLException {
+            assertSameListings();
+            // the sector filter, the only one that joins employers, does match jobs
+            Assertions.assertFalse(readAllPages(fromSnapshot, filters().get(3), JobSort.ID).isEmpty());
+        }
+
+        // creates, updates, deletes and a changed employer sector through the repositories show up right away
+        @Test
+        public void testFollowsWrites() throws SQLException {
+            Date d = new Date(1_600_000_000_000L);
+            Job created = new Job("New", d, d, "eng", "Denver", false, false, "none", 50, owners.get(1));
+            fromSnapshot.create(created);
+            Job updated = fromDatabase.findById(created.getId() - 5);
+            updated.setLocation("Boston");
+            updated.setPayAmount(42);
+            fromSnapshot.update(updated);
+            fromSnapshot.delete(created.getId() - 10);
+            Employer owner = owners.get(0);
+            owner.setSector("Food");
+            employers.update(owner);
+            assertSameListings();
+        }
+
+        // after writes it was not told about (another process's, say), being told that any row may have changed,
+        // with the ids the tables hold now, drops the rows that are gone as well
+        @Test
+        public void testAllWrittenDropsRowsGoneFromDatabase() throws SQLException {
+            List<Job> rows = database.getJobDao().queryBuilder().orderBy("id", true).limit(3L).query();
+            database.getJobDao().deleteById(rows.get(0).getId());
+            rows.get(1).setLocation("Boston");
+            database.getJobDao().update(rows.get(1));
+            List<Integer> jobIds = new ArrayList<>();
+            database.getJobDao().queryBuilder().selectColumns("id").query().forEach(job -> jobIds.add(job.getId()));
+            List<Integer> employerIds = new ArrayList<>();
+            owners.forEach(owner -> employerIds.add(owner.getId()));
+            snapshot.allWritten(jobIds, employerIds);
+            assertSameListings();
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class ArchiveTest {
+
+        private File dbFile;
+        private Database database;
+        private JobRepository jobs;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-archive", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            jobs = new JobRepository(database, new EntityCaches(CacheConfig.disabled()));
+            Employer e = new Employer("Archive Inc", "Tech", "Summary");
+            database.getEmployerDao().create(e);
+            // 10 jobs with deadlines a minute apart, the highest paid one first
+            for (int i = 0; i < 10; i++) {
+                Date posted = new Date(1_600_000_000_000L + i * 60_000L);
+                Date deadline = new Date(1_700_000_000_000L + i * 60_000L);
+                database.getJobDao().create(new Job("Archived " + i, posted, deadline, "eng", "Baltimore", true, true,
+                        "none", 100 - i, e));
+            }
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        private List<Integer> readAllPages(JobFilter filter, JobSort sort) throws SQLException {
+            List<Integer> ids = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<Job> page = jobs.page(filter, sort, cursor, 3);
+                page.getItems().forEach(job -> ids.add(job.getId()));
+                cursor = page.getNext();
+            } while (cursor != null);
+            return ids;
+        }
+
+        // expired jobs leave the jobs table (and search) in batches, earliest deadline first, and
+        // includeArchived lists them again, in the order of the sort
+        @Test
+        public void testArchivesExpiredJobs() throws SQLException {
+            JobFilter all = new JobFilter();
+            List<Integer> byPay = readAllPages(all, JobSort.PAY_AMOUNT);
+            Date cutoff = new Date(1_700_000_000_000L + 6 * 60_000L);
+            assertEquals(4, jobs.archiveExpired(cutoff, 4));
+            assertEquals(2, jobs.archiveExpired(cutoff, 4));
+            assertEquals(0, jobs.archiveExpired(cutoff, 4));
+
+            assertEquals(4, database.getJobDao().countOf());
+            assertEquals(6, database.getJobArchiveDao().countOf());
+            assertEquals(byPay.subList(6, 10), readAllPages(all, JobSort.PAY_AMOUNT));
+            assertEquals(4, jobs.search("Archived", null, 20).getItems().size());
+
+            JobFilter withArchived = new JobFilter();
+            withArchived.setIncludeArchived(true);
+            assertEquals(byPay, readAllPages(withArchived, JobSort.PAY_AMOUNT));
+            List<Integer> byId = readAllPages(withArchived, JobSort.ID);
+            assertEquals(10, byId.size());
+            for (int i = 1; i < byId.size(); i++) {
+                Assertions.assertTrue(byId.get(i - 1) < byId.get(i));
+            }
+            withArchived.setDeadlineBefore(new Date(1_700_000_000_000L + 2 * 60_000L));
+            assertEquals(byPay.subList(0, 2), readAllPages(withArchived, JobSort.PAY_AMOUNT));
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class AutocompleteTest {
+
+        private File dbFile;
+        private Database database;
+        private AutocompleteIndex index;
+        private JobRepository jobs;
+        private EmployerRepository employers;
+        private Employer acme;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-autocomplete", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            acme = new Employer("Acme Software", "Tech", "Summary");
+            Employer soft = new Employer("Softworks", "Tech", "Summary");
+            database.getEmployerDao().create(acme);
+            database.getEmployerDao().create(soft);
+            Date d = new Date(1_600_000_000_000L);
+            String[] titles = {"Software Engineer", "Software Engineer", "Software Engineer", "Senior Engineer",
+                    "Senior Engineer", "Sales Associate"};
+            for (int i = 0; i < titles.length; i++) {
+                database.getJobDao().create(new Job(titles[i], d, d, "eng", i < 4 ? "San Francisco" : "Seattle",
+                        true, true, "none", 10, i < 2 ? acme : soft));
+            }
+            index = AutocompleteIndex.load(database);
+            EntityCaches caches = new EntityCaches(CacheConfig.disabled());
+            jobs = new JobRepository(database, caches, index);
+            employers = new EmployerRepository(database, caches, index);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            database.close();
+            dbFile.delete();
+        }
+
+        private List<String> complete(AutocompleteIndex.Field field, String prefix, int limit) {
+            List<String> values = new ArrayList<>();
+            for (AutocompleteIndex.Completion completion : index.complete(field, prefix, limit)) {
+                values.add(completion.getValue() + "=" + completion.getCount());
+            }
+            return values;
+        }
+
+        // any word of a value may start with the prefix, in any case; the most frequent values come first
+        @Test
+        public void testRanksByFrequency() {
+            assertEquals(Arrays.asList("Software Engineer=3", "Senior Engineer=2", "Sales Associate=1"),
+                    complete(AutocompleteIndex.Field.TITLE, "S", 10));
+            assertEquals(Arrays.asList("Software Engineer=3", "Senior Engineer=2"),
+                    complete(AutocompleteIndex.Field.TITLE, "eng", 10));
+            assertEquals(Arrays.asList("Software Engineer=3"), complete(AutocompleteIndex.Field.TITLE, "s", 1));
+            assertEquals(Arrays.asList("San Francisco=4"), complete(AutocompleteIndex.Field.LOCATION, "fran", 10));
+            // employers by their number of jobs
+            assertEquals(Arrays.asList("Softworks=4", "Acme Software=2"),
+                    complete(AutocompleteIndex.Field.EMPLOYER, "soft", 10));
+            assertEquals(0, complete(AutocompleteIndex.Field.TITLE, "x", 10).size());
+        }
+
+        // creates, updates and deletes of jobs, and renamed employers, show up right away
+        @Test
+        public void testFollowsWrites() throws SQLException {
+            Date d = new Date(1_600_000_000_000L);
+            Job created = new Job("Data Scientist", d, d, "eng", "Denver", true, true, "none", 10, acme);
+            jobs.create(created);
+            assertEquals(Arrays.asList("Data Scientist=1"), complete(AutocompleteIndex.Field.TITLE, "sci", 10));
+            created.setTitle("Data Analyst");
+            jobs.update(created);
+            assertEquals(0, complete(AutocompleteIndex.Field.TITLE, "sci", 10).size());
+            assertEquals(Arrays.asList("Acme Software=3"), complete(AutocompleteIndex.Field.EMPLOYER, "acme", 10));
+            jobs.delete(created.getId());
+            assertEquals(0, complete(AutocompleteIndex.Field.TITLE, "data", 10).size());
+            assertEquals(0, complete(AutocompleteIndex.Field.LOCATION, "den", 10).size());
+
+            acme.setName("Acme Robotics");
+            employers.update(acme);
+            assertEquals(Arrays.asList("Acme Robotics=2"), complete(AutocompleteIndex.Field.EMPLOYER, "acme", 10));
+            assertEquals(Arrays.asList("Softworks=4"), complete(AutocompleteIndex.Field.EMPLOYER, "soft", 10));
+            acme.setName("Acme Software");
+            employers.update(acme);
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class WriteBehindTest {
+
+        private File dbFile;
+        private Database database;
+        private WriteBehindQueue writeBehind;
+        private EmployerRepository employers;
+        private JobRepository jobs;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            dbFile = File.createTempFile("jbapp-write-behind", ".db");
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            // a long window, so that rows queued one after another end up in the same transaction
+            writeBehind = new WriteBehindQueue(database, 100, 50, 200L, 4);
+            EntityCaches caches = new EntityCaches(CacheConfig.disabled());
+            employers = new EmployerRepository(database, caches, WriteListener.NONE, writeBehind);
+            jobs = new JobRepository(database, caches, WriteListener.NONE, null, writeBehind);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            writeBehind.close();
+            database.close();
+            dbFile.delete();
+        }
+
+        // queued jobs have their ids before they are written, are committed together, and the ids the database
+        // gives out afterwards come after them
+        @Test
+        public void testGroupCommitsQueuedJobs() throws Exception {
+            Employer e = new Employer("Queued Inc", "Tech", "Summary");
+            employers.submitCreate(e).get();
+            long flushes = writeBehind.getFlushCount();
+            Date d = new Date();
+            List<Job> queued = new ArrayList<>();
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                Job job = new Job("Queued " + i, d, d, "eng", "Baltimore", true, true, "none", i, e);
+                written.add(jobs.submitCreate(job));
+                queued.add(job);
+                Assertions.assertTrue(job.getId() > 0);
+            }
+            // a job still queued can be updated; the update is written after the create
+            queued.get(0).setTitle("Queued and updated");
+            Assertions.assertTrue(jobs.exists(queued.get(0).getId()));
+            written.add(jobs.submitUpdate(queued.get(0)));
+            CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).get();
+
+            Assertions.assertTrue(writeBehind.getFlushCount() - flushes < written.size());
+            for (Job job : queued) {
+                assertEquals(job.getTitle(), jobs.findById(job.getId()).getTitle());
+            }
+            Job later = new Job("Later", d, d, "eng", "Baltimore", true, true, "none", 0, e);
+            jobs.create(later);
+            Assertions.assertTrue(later.getId() > queued.get(queued.size() - 1).getId());
+
+            Job invalid = new Job(null, d, d, "eng", "Baltimore", true, true, "none", 0, e);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> jobs.submitCreate(invalid));
+        }
+
+        // a row that fails when it is committed fails on its own; the rest of its batch is written
+        @Test
+        public void testFailedRowDoesNotFailItsBatch() throws Exception {
+            long failed = writeBehind.getFailedCount();
+            // both pass the checks, as neither is written yet, but the name is unique
+            CompletableFuture<Void> first = employers.submitCreate(new Employer("Twice", "Tech", "Summary"));
+            Employer second = new Employer("Twice", "Energy", "Summary");
+            CompletableFuture<Void> duplicate = employers.submitCreate(second);
+            CompletableFuture<Void> other = employers.submitCreate(new Employer("Once", "Tech", "Summary"));
+            first.get();
+            other.get();
+            Assertions.assertThrows(ExecutionException.class, duplicate::get);
+            assertEquals(failed + 1, writeBehind.getFailedCount());
+            Assertions.assertFalse(employers.exists(second.getId()));
+        }
+    }
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class ShardedTest {
+
+        private static final int SHARDS = 3;
+
+        private final List<File> files = new ArrayList<>();
+        private Database database;
+        private JobShards shards;
+        private ChangeLog changes;
+        private EmployerRepository employers;
+        private JobRepository jobs;
+        private final List<Employer> owners = new ArrayList<>();
+
+        @BeforeAll
+        public void setUpAll() throws IOException, SQLException {
+            File dbFile = File.createTempFile("jbapp-sharded", ".db");
+            files.add(dbFile);
+            for (int i = 0; i < SHARDS; i++) {
+                files.add(new File(dbFile.getPath().replace(".db", "-shard-" + i + ".db")));
+            }
+            database = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2, 60_000L, 5_000L));
+            changes = ChangeLog.install(database, 1_000);
+            // blocks of 2 ids, so that a few writes already take several blocks
+            shards = JobShards.open(database, SHARDS, 2, DatabaseListener.NONE);
+            EntityCaches caches = new EntityCaches(CacheConfig.disabled());
+            employers = new EmployerRepository(shards, caches, WriteListener.NONE);
+            jobs = new JobRepository(shards, caches, WriteListener.NONE, changes);
+            // enough employers that every shard gets some
+            for (int i = 0; i < 12; i++) {
+                Employer e = new Employer("Owner " + i, i % 2 == 0 ? "Tech" : "Energy", "Summary");
+                employers.create(e);
+                owners.add(e);
+            }
+        }
+
+        @AfterAll
+        public void tearDownAll() throws IOException {
+            shards.close();
+            database.close();
+            for (File file : files) {
+                file.delete();
+                new File(file.getPath() + "-wal").delete();
+                new File(file.getPath() + "-shm").delete();
+            }
+        }
+
+        private List<Job> createJobs(String location, int count) throws SQLException {
+            List<Job> created = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                // a few share a datePosted, across shards
+                Date posted = new Date(1_600_000_000_000L + (i / 3) * 60_000L);
+                Job job = new Job(location + " job " + i, posted, posted, "eng", location, true, true, "none", i,
+                        owners.get(i % owners.size()));
+                jobs.create(job);
+                created.add(job);
+            }
+            return created;
+        }
+
+        private List<Job> readAllPages(JobFilter filter, JobSort sort, int limit) throws SQLException {
+            List<Job> all = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<Job> page = jobs.page(filter, sort, cursor, limit);
+                all.addAll(page.getItems());
+                cursor = page.getNext();
+            } while (cursor != null);
+            return all;
+        }
+
+        // a job is written to its employer's shard, its id tells which one, and it is read back from there
+        @Test
+        public void testJobsGoToTheirEmployersShard() throws SQLException {
+            for (Job job : createJobs("Routing", 12)) {
+                int shard = shards.shardOfEmployer(job.getEmployer().getId());
+                assertEquals(shard, shards.shardOf(job.getId()));
+                Assertions.assertTrue(shards.getShards().get(shard).getJobDao().idExists(job.getId()));
+                assertEquals(job.getTitle(), jobs.findById(job.getId()).getTitle());
+            }
+            assertEquals(0, database.getJobDao().countOf());
+        }
+
+        // paging by id and by datePosted visits the jobs of every shard once, in the order of the sort
+        @Test
+        public void testPagesMergeTheShards() throws SQLException {
+            createJobs("Paging", 20);
+            JobFilter filter = new JobFilter();
+            filter.setLocation("Paging");
+            List<Job> byId = readAllPages(filter, JobSort.ID, 3);
+            assertEquals(20, byId.size());
+            for (int i = 1; i < byId.size(); i++) {
+                Assertions.assertTrue(byId.get(i - 1).getId() < byId.get(i).getId());
+            }
+            List<Job> byDate = readAllPages(filter, JobSort.DATE_POSTED, 4);
+            assertEquals(20, byDate.stream().map(Job::getId).distinct().count());
+            for (int i = 1; i < byDate.size(); i++) {
+                Assertions.assertFalse(byDate.get(i - 1).getDatePosted().before(byDate.get(i).getDatePosted()));
+            }
+        }
+
+        // a batch is split over the shards; the invalid rows are still reported by their position in it
+        @Test
+        public void testBatchReportsErrorsByPosition() throws SQLException {
+            Date d = new Date();
+            List<Job> batch = new ArrayList<>();
+            for (int i = 0; i < 9; i++) {
+                batch.add(new Job("Batch " + i, d, d, "eng", "Batching", true, true, "none", i,
+                        owners.get(i)));
+            }
+            batch.get(3).setLocation(null);
+            batch.get(7).setEmployer(new Employer("Ghost", "Tech", "Summary"));
+            batch.get(7).getEmployer().setId(10_000);
+            BatchResult result = jobs.createAll(batch);
+            assertEquals(Set.of(3, 7), result.getErrors().keySet());
+            assertEquals(7, result.getIds().size());
+            for (Integer id : result.getIds()) {
+                Job job = jobs.findById(id);
+                assertEquals(shards.shardOfEmployer(job.getEmployer().getId()), shards.shardOf(id));
+            }
+        }
+
+        // an employer written through the repository is copied to every shard, so the sector filter and the
+        // search, which join the shard's own copy, see the change
+        @Test
+        public void testEmployerWritesReachEveryShard() throws SQLException {
+            Employer e = new Employer("Moving Co", "Tech", "Summary");
+            employers.create(e);
+            Date d = new Date();
+            jobs.create(new Job("Mover", d, d, "eng", "Moving", true, true, "none", 1, e));
+            e.setName("Relocated Co");
+            e.setSector("Logistics");
+            employers.update(e);
+            for (Database shard : shards.getShards()) {
+                assertEquals("Relocated Co", shard.getEmployerDao().queryForId(e.getId()).getName());
+            }
+            JobFilter filter = new JobFilter();
+            filter.setSector("Logistics");
+            assertEquals(1, jobs.page(filter, JobSort.ID, null, 10).getItems().size());
+            assertEquals(1, jobs.search("relocated", null, 10).getItems().size());
+        }
+
+        // updates of one employer racing each other leave every shard with the row the catalog ends up with
+        @Test
+        public void testConcurrentEmployerUpdatesAgreeWithTheCatalog() throws Exception {
+            Employer e = new Employer("Racing Co", "Tech", "Summary");
+            employers.create(e);
+            List<CompletableFuture<Void>> updates = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String sector = "Sector " + i;
+                updates.add(CompletableFuture.runAsync(() -> {
+                    Employer copy = new Employer("Racing Co", sector, "Summary");
+                    copy.setId(e.getId());
+                    for (int round = 0; round < 20; round++) {
+                        try {
+                            employers.update(copy);
+                        } catch (SQLException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }
+                }));
+            }
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0])).get();
+            String sector = database.getEmployerDao().queryForId(e.getId()).getSector();
+            for (Database shard : shards.getShards()) {
+                assertEquals(sector, shard.getEmployerDao().queryForId(e.getId()).getSector());
+            }
+        }
+
+        // the search asks every shard and returns the hits of all of them, each once
+        @Test
+        public void testSearchFindsJobsOfEveryShard() throws SQLException {
+            Date d = new Date();
+            Set<Integer> used = new HashSet<>();
+            for (Employer owner : owners) {
+                jobs.create(new Job("Zeppelin Pilot", d, d, "eng", "Sky", true, true, "none", 1, owner));
+                used.add(shards.shardOfEmployer(owner.getId()));
+            }
+            assertEquals(SHARDS, used.size());
+            List<Job> found = readSearch("zeppelin", 5);
+            assertEquals(owners.size(), found.size());
+            assertEquals(owners.size(), found.stream().map(Job::getId).distinct().count());
+        }
+
+        private List<Job> readSearch(String query, int limit) throws SQLException {
+            List<Job> all = new ArrayList<>();
+            String cursor = null;
+            do {
+                Page<Job> page = jobs.search(query, cursor, limit);
+                all.addAll(page.getItems());
+                cursor = page.getNext();
+            } while (cursor != null);
+            return all;
+        }
+
+        // a database that still holds jobs of its own is not sharded, as they would drop out of every listing
+        @Test
+        public void testRefusesCatalogWithJobs() throws IOException, SQLException {
+            File dbFile = File.createTempFile("jbapp-unsharded", ".db");
+            try (Database unsharded = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2,
+                    60_000L, 5_000L))) {
+                Employer e = new Employer("Old Co", "Tech", "Summary");
+                unsharded.getEmployerDao().create(e);
+                Date d = new Date();
+                unsharded.getJobDao().create(new Job("Old job", d, d, "eng", "Baltimore", true, true, "none", 1, e));
+                Assertions.assertThrows(IllegalArgumentException.class,
+                        () -> JobShards.open(unsharded, SHARDS, 2, DatabaseListener.NONE));
+                Assertions.assertFalse(new File(dbFile.getPath().replace(".db", "-shard-0.db")).exists());
+            } finally {
+                dbFile.delete();
+            }
+        }
+
+        // ids are routed by the shard count, so a catalog is only ever opened with the count it was first opened
+        // with, and never without shards again
+        @Test
+        public void testRefusesAnotherShardCount() throws IOException, SQLException {
+            File dbFile = File.createTempFile("jbapp-recount", ".db");
+            List<File> created = new ArrayList<>();
+            created.add(dbFile);
+            for (int i = 0; i <= SHARDS; i++) {
+                created.add(new File(dbFile.getPath().replace(".db", "-shard-" + i + ".db")));
+            }
+            try (Database catalog = Database.open(new DatabaseConfig("jdbc:sqlite:" + dbFile.getPath(), 2,
+                    60_000L, 5_000L))) {
+                JobShards.open(catalog, SHARDS, 2, DatabaseListener.NONE).close();
+                Assertions.assertThrows(IllegalArgumentException.class,
+                        () -> JobShards.open(catalog, SHARDS + 1, 2, DatabaseListener.NONE));
+                Assertions.assertFalse(created.get(SHARDS + 1).exists());
+                // shard 2 lies beyond a count of 2
+                Assertions.assertThrows(IllegalArgumentException.class,
+                        () -> JobShards.open(catalog, SHARDS - 1, 2, DatabaseListener.NONE));
+                Assertions.assertThrows(IllegalArgumentException.class, () -> JobShards.requireUnsharded(catalog));
+                JobShards.open(catalog, SHARDS, 2, DatabaseListener.NONE).close();
+            } finally {
+                for (File file : created) {
+                    file.delete();
+                    new File(file.getPath() + "-wal").delete();
+                    new File(file.getPath() + "-shm").delete();
+                }
+            }
+        }
+
+        // the triggers of the change feed only see the catalog, so the repository appends the shards' writes
+        @Test
+        public void testJobWritesAreInTheChangeFeed() throws SQLException {
+            long since = changes.latestSeq();
+            Job job = createJobs("Feed", 1).get(0);
+            jobs.delete(job.getId());
+            List<Change> written = changes.read(since, 10).getChanges();
+            assertEquals(2, written.size());
+            assertEquals(Change.JOB, written.get(0).getType());
+            assertEquals(job.getId(), written.get(0).getId());
+            assertEquals(Change.UPSERT, written.get(0).getOp());
+            assertEquals(Change.DELETE, written.get(1).getOp());
+        }
+    }
+}
@@ -1,3 +1,7 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
@@ -5,16 +9,21 @@ import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 import model.Employer;
 import model.Job;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.junit.jupiter.api.*;
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 public class JobTest {
@@ -252,6 +261,44 @@ public class JobTest {
             assertEquals(0, lsRead.size());
         }
 
+        // rows read back share one copy of each location and domain, however many copies were written
+        @Test
+        public void testReadRowsShareRepeatedStrings() throws SQLException {
+            Employer e = new Employer("Kraft Heinz", "Food", "A global food and beverage company!");
+            employerDao.create(e);
+            Date d = new Date();
+            for (int i = 0; i < 3; i++) {
+                jobDao.create(new Job("Ketchup taster " + i, d, d, new String("food"), new String("Pittsburgh"), true,
+                        true, "have good taste", 18, e));
+            }
+            List<Job> lsRead = jobDao.queryForAll();
+            assertEquals(3, lsRead.size());
+            for (Job job : lsRead) {
+                Assertions.assertSame(lsRead.get(0).getLocation(), job.getLocation());
+                Assertions.assertSame(lsRead.get(0).getDomain(), job.getDomain());
+            }
+        }
+
+        // the cached hash code follows the setters, and the id ORMLite assigns on create
+        @Test
+        public void testHashCodeFollowsWrites() throws SQLException {
+            Employer e = new Employer("Kraft Heinz", "Food", "A global food and beverage company!");
+            employerDao.create(e);
+            Date d = new Date();
+            Job job = new Job("Ketchup taster", d, d, "here", "Some dark alleyway", true, true, "have good taste", 18, e);
+            int beforeCreate = job.hashCode();
+            jobDao.create(job);
+            Job copy = new Job("Ketchup taster", d, d, "here", "Some dark alleyway", true, true, "have good taste", 18, e);
+            copy.setId(job.getId());
+            assertEquals(copy, job);
+            assertEquals(copy.hashCode(), job.hashCode());
+            Assertions.assertNotEquals(beforeCreate, job.hashCode());
+            copy.setTitle("Ketchup refiner");
+            job.setTitle("Ketchup refiner");
+            assertEquals(copy.hashCode(), job.hashCode());
+            Assertions.assertNotEquals(beforeCreate, copy.hashCode());
+        }
+
     }
 
 
@@ -282,4 +329,201 @@ public class JobTest {
         }
     }
 
+    // Tests for GET /jobs without a limit, which streams every job as one JSON array. They start a server of
+    // their own on a temporary database, like MultiInstanceTest, so the pool they look at serves nobody else.
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class JobStreamTest {
+
+        private static final int PORT = 7103;
+        // more than one page of /jobs?expand=employer (500 jobs) and one batch of the iterator
+        private static final int PAGED_JOBS = 1_200;
+
+        private final MediaType json = MediaType.get("application/json");
+        private final List<File> files = new ArrayList<>();
+        private OkHttpClient client;
+        private Process server;
+        private File dbFile;
+        private int employerId;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, InterruptedException {
+            client = new OkHttpClient.Builder().readTimeout(60, TimeUnit.SECONDS).build();
+            dbFile = File.createTempFile("jbapp-stream", ".db");
+            files.add(dbFile);
+            files.add(new File(dbFile.getPath() + "-wal"));
+            files.add(new File(dbFile.getPath() + "-shm"));
+            File log = File.createTempFile("jbapp-stream", ".log");
+            files.add(log);
+            server = new ProcessBuilder(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-Djbapp.db.url=jdbc:sqlite:" + dbFile.getPath(),
+                    "-Djbapp.http.port=" + PORT,
+                    "-cp", System.getProperty("java.class.path"),
+                    "Main")
+                    .redirectErrorStream(true)
+                    .redirectOutput(log)
+                    .start();
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (true) {
+                assertTrue(server.isAlive(), "the server stopped, see " + log);
+                try (Response response = client.newCall(new Request.Builder()
+                        .url("http://localhost:" + PORT + "/employers?limit=1").build()).execute()) {
+                    if (response.code() == 200) {
+                        break;
+                    }
+                } catch (IOException notYet) {
+                    // not listening yet
+                }
+                assertTrue(System.currentTimeMillis() < deadline, "the server did not start");
+                Thread.sleep(200);
+            }
+            employerId = send("/employers", "{\"name\": \"Streaming Co\", \"sector\": \"Tech\"}")
+                    .get("id").getAsInt();
+            createJobs("Paged", PAGED_JOBS, "eng", List.of(employerId));
+        }
+
+        @AfterAll
+        public void tearDownAll() throws InterruptedException {
+            server.destroy();
+            server.waitFor();
+            files.forEach(File::delete);
+        }
+
+        private JsonObject send(String path, String body) throws IOException {
+            try (Response response = client.newCall(new Request.Builder()
+                    .url("http://localhost:" + PORT + path).post(RequestBody.create(body, json)).build()).execute()) {
+                String text = response.body().string();
+                assertTrue(response.isSuccessful(), text);
+                return JsonParser.parseString(text).getAsJsonObject();
+            }
+        }
+
+        private String get(String path) throws IOException {
+            try (Response response = client.newCall(new Request.Builder()
+                    .url("http://localhost:" + PORT + path).build()).execute()) {
+                assertEquals(200, response.code());
+                return response.body().string();
+            }
+        }
+
+        // the jobs go to the employers in turn
+        private void createJobs(String location, int count, String requirements, List<Integer> employerIds)
+                throws IOException {
+            StringBuilder batch = new StringBuilder("[");
+            for (int i = 0; i < count; i++) {
+                batch.append(i == 0 ? "" : ",").append("{\"title\": \"").append(location).append(" job ").append(i)
+                        .append("\", \"datePosted\": 1700000000000, \"location\": \"").append(location)
+                        .append("\", \"requirements\": \"").append(requirements)
+                        .append("\", \"employer\": {\"id\": ").append(employerIds.get(i % employerIds.size()))
+                        .append("}}");
+            }
+            assertEquals(count, send("/jobs/batch", batch.append("]").toString()).getAsJsonArray("ids").size());
+        }
+
+        // the SELECTs run on the employers table so far
+        private double employerQueries() throws IOException {
+            for (String line : get("/metrics").split("\n")) {
+                if (line.startsWith("jbapp_db_statement_duration_seconds_count{") && line.contains("\"select\"")
+                        && line.contains("table=\"employers\"")) {
+                    return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                }
+            }
+            return 0;
+        }
+
+        private int activeConnections() throws IOException {
+            return JsonParser.parseString(get("/admin/db")).getAsJsonObject().get("activeConnections").getAsInt();
+        }
+
+        // every job once, in id order, in one array that parses: read through the iterator, and page by page
+        // with the employers expanded
+        @Test
+        public void testStreamsEveryJobAsOneArray() throws IOException {
+            for (String path : new String[]{"/jobs?location=Paged", "/jobs?location=Paged&expand=employer"}) {
+                JsonArray jobs = JsonParser.parseString(get(path)).getAsJsonArray();
+                assertEquals(PAGED_JOBS, jobs.size(), path);
+                int previous = 0;
+                for (JsonElement job : jobs) {
+                    int id = job.getAsJsonObject().get("id").getAsInt();
+                    assertTrue(id > previous, path);
+                    previous = id;
+                }
+                JsonObject employer = jobs.get(0).getAsJsonObject().getAsJsonObject("employer");
+                assertEquals(employerId, employer.get("id").getAsInt());
+                assertEquals(path.contains("expand"), employer.has("name"), path);
+            }
+        }
+
+        // each job gets its own employer, in the order of the jobs, while the employers are looked up once per
+        // page of jobs (an IN query) rather than once per job or per employer
+        @Test
+        public void testExpandsEmployersPerPage() throws IOException {
+            List<Integer> employerIds = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                employerIds.add(send("/employers", "{\"name\": \"Expanded " + i + "\", \"sector\": \"Tech\"}")
+                        .get("id").getAsInt());
+            }
+            createJobs("Expanded", PAGED_JOBS, "eng", employerIds);
+            double before = employerQueries();
+            JsonArray jobs = JsonParser.parseString(get("/jobs?location=Expanded&expand=employer")).getAsJsonArray();
+            // 1200 jobs are 3 pages
+            assertTrue(employerQueries() - before <= 3);
+            assertEquals(PAGED_JOBS, jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                JsonObject employer = jobs.get(i).getAsJsonObject().getAsJsonObject("employer");
+                assertEquals((int) employerIds.get(i % 6), employer.get("id").getAsInt());
+                assertEquals("Expanded " + (i % 6), employer.get("name").getAsString());
+            }
+        }
+
+        // a job whose employer is gone keeps the id-only employer it has without expand
+        @Test
+        public void testExpandKeepsDanglingEmployerId() throws Exception {
+            // the API does not take a job of an unknown employer, so the row is written to the file directly
+            ConnectionSource source = new JdbcConnectionSource("jdbc:sqlite:" + dbFile.getPath());
+            try {
+                Employer gone = new Employer("Gone", "Tech", "Summary");
+                gone.setId(999_999);
+                Date d = new Date();
+                DaoManager.createDao(source, Job.class).create(new Job("Orphan", d, d, "eng", "Dangling", true, true,
+                        "none", 1, gone));
+            } finally {
+                source.close();
+            }
+            JsonArray jobs = JsonParser.parseString(get("/jobs?location=Dangling&expand=employer")).getAsJsonArray();
+            assertEquals(1, jobs.size());
+            JsonObject employer = jobs.get(0).getAsJsonObject().getAsJsonObject("employer");
+            assertEquals(999_999, employer.get("id").getAsInt());
+            assertEquals(1, employer.size());
+        }
+
+        // no jobs is an empty array, not an empty body
+        @Test
+        public void testStreamsEmptyArray() throws IOException {
+            assertEquals("[]", get("/jobs?location=Nowhere"));
+            assertEquals("[]", get("/jobs?location=Nowhere&expand=employer"));
+        }
+
+        // a client that goes away mid-stream closes the iterator, and with it the connection it held
+        @Test
+        public void testAbortedStreamReleasesConnection() throws Exception {
+            // a body of a few tens of MB, more than the socket buffers hold, so the server is still writing it
+            // when the client goes away
+            String requirements = "x".repeat(2_000);
+            createJobs("Bulk", 10_000, requirements, List.of(employerId));
+            Request request = new Request.Builder().url("http://localhost:" + PORT + "/jobs?location=Bulk")
+                    .header("Accept-Encoding", "identity").build();
+            try (Response response = client.newCall(request).execute()) {
+                assertEquals(200, response.code());
+                assertEquals('[', response.body().byteStream().read());
+                assertEquals(1, activeConnections());
+            }
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (activeConnections() != 0) {
+                assertTrue(System.currentTimeMillis() < deadline, "the aborted stream kept its connection");
+                Thread.sleep(20);
+            }
+        }
+    }
 }
@@ -0,0 +1,61 @@
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Tests for the metrics registry and its Prometheus text output.
+public class MetricsTest {
+
+    @Nested
+    class MetricsRegistryTest {
+
+        // the same name and labels give the same counter, and it is written with its labels
+        @Test
+        public void testCounterWithLabels() {
+            MetricsRegistry registry = new MetricsRegistry();
+            registry.counter("requests_total", "Requests", "route", "GET /jobs").inc();
+            registry.counter("requests_total", "Requests", "route", "GET /jobs").add(2);
+            assertSame(registry.counter("requests_total", "Requests", "route", "GET /jobs"),
+                    registry.counter("requests_total", "Requests", "route", "GET /jobs"));
+            String text = registry.scrape();
+            assertTrue(text.contains("# TYPE requests_total counter\n"));
+            assertTrue(text.contains("requests_total{route=\"GET /jobs\"} 3\n"));
+        }
+
+        // buckets are written cumulatively, with +Inf, _sum and _count
+        @Test
+        public void testHistogramBuckets() {
+            MetricsRegistry registry = new MetricsRegistry();
+            Histogram histogram = registry.histogram("latency_seconds", "Latency", new double[]{0.001, 0.01});
+            histogram.observe(0.0005);
+            histogram.observe(0.005);
+            histogram.observe(5);
+            String text = registry.scrape();
+            assertTrue(text.contains("latency_seconds_bucket{le=\"0.001\"} 1\n"));
+            assertTrue(text.contains("latency_seconds_bucket{le=\"0.01\"} 2\n"));
+            assertTrue(text.contains("latency_seconds_bucket{le=\"+Inf\"} 3\n"));
+            assertTrue(text.contains("latency_seconds_count 3\n"));
+            assertEquals(5.0055, histogram.getSum(), 1e-9);
+        }
+
+        // quotes and backslashes in label values are escaped
+        @Test
+        public void testEscapesLabelValues() {
+            MetricsRegistry registry = new MetricsRegistry();
+            registry.gauge("g", "Gauge", () -> 1.5, "path", "a\"b\\c");
+            assertTrue(registry.scrape().contains("g{path=\"a\\\"b\\\\c\"} 1.5\n"));
+        }
+
+        // one name cannot be both a counter and a histogram
+        @Test
+        public void testRejectsTypeClash() {
+            MetricsRegistry registry = new MetricsRegistry();
+            registry.counter("x", "X");
+            assertThrows(IllegalArgumentException.class, () -> registry.histogram("x", "X", Histogram.LATENCY_BUCKETS));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Tests for running several instances against one database file. They start two servers of their own, on
+// ports of their own, sharing a temporary database file, so they do not interfere with ./JBApp.db or a
+// server on port 7000.
+public class MultiInstanceTest {
+
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class ReadAfterWriteTest {
+
+        private static final int PORT_A = 7101;
+        private static final int PORT_B = 7102;
+        // how long a write may take to show on the other instance: a few polls of the change feed
+        private static final long VISIBLE_WITHIN_MILLIS = 5_000;
+
+        private final MediaType json = MediaType.get("application/json");
+        private final List<Process> servers = new ArrayList<>();
+        private final List<File> files = new ArrayList<>();
+        private OkHttpClient client;
+        private File dbFile;
+
+        @BeforeAll
+        public void setUpAll() throws IOException, InterruptedException {
+            client = new OkHttpClient();
+            dbFile = File.createTempFile("jbapp-instances", ".db");
+            files.add(dbFile);
+            files.add(new File(dbFile.getPath() + "-wal"));
+            files.add(new File(dbFile.getPath() + "-shm"));
+            // one after the other: the first one creates the schema
+            start(PORT_A);
+            start(PORT_B);
+        }
+
+        @AfterAll
+        public void tearDownAll() throws InterruptedException {
+            for (Process server : servers) {
+                server.destroy();
+                server.waitFor();
+            }
+            files.forEach(File::delete);
+        }
+
+        private void start(int port) throws IOException, InterruptedException {
+            File log = File.createTempFile("jbapp-instance-" + port, ".log");
+            files.add(log);
+            Process server = new ProcessBuilder(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-Djbapp.db.url=jdbc:sqlite:" + dbFile.getPath(),
+                    "-Djbapp.http.port=" + port,
+                    "-Djbapp.multiInstance.enabled=true",
+                    "-Djbapp.multiInstance.pollMillis=100",
+                    // the listings are served from memory, so they go stale unless the watcher reloads them
+                    "-Djbapp.jobs.snapshot.enabled=true",
+                    "-cp", System.getProperty("java.class.path"),
+                    "Main")
+                    .redirectErrorStream(true)
+                    .redirectOutput(log)
+                    .start();
+            servers.add(server);
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (true) {
+                assertTrue(server.isAlive(), "the server on port " + port + " stopped, see " + log);
+                try (Response response = client.newCall(new Request.Builder()
+                        .url("http://localhost:" + port + "/employers?limit=1").build()).execute()) {
+                    if (response.code() == 200) {
+                        return;
+                    }
+                } catch (IOException notYet) {
+                    // not listening yet
+                }
+                assertTrue(System.currentTimeMillis() < deadline, "the server on port " + port + " did not start");
+                Thread.sleep(200);
+            }
+        }
+
+        private String get(int port, String path) throws IOException {
+            try (Response response = client.newCall(new Request.Builder()
+                    .url("http://localhost:" + port + path).build()).execute()) {
+                assertEquals(200, response.code());
+                return response.body().string();
+            }
+        }
+
+        private JsonObject send(int port, String method, String path, String body) throws IOException {
+            try (Response response = client.newCall(new Request.Builder()
+                    .url("http://localhost:" + port + path).method(method, RequestBody.create(body, json))
+                    .build()).execute()) {
+                String text = response.body().string();
+                assertTrue(response.isSuccessful(), text);
+                return JsonParser.parseString(text).getAsJsonObject();
+            }
+        }
+
+        // poll the path on the instance until the body matches
+        private void awaitVisible(int port, String path, Predicate<String> visible) throws Exception {
+            long start = System.currentTimeMillis();
+            while (!visible.test(get(port, path))) {
+                assertTrue(System.currentTimeMillis() - start < VISIBLE_WITHIN_MILLIS,
+                        path + " on port " + port + " did not show the write");
+                Thread.sleep(20);
+            }
+        }
+
+        // an employer created on one instance shows up in the (cached) employer pages of the other
+        @Test
+        public void testCreateVisibleOnOtherInstance() throws Exception {
+            String page = "/employers?limit=500";
+            assertFalse(get(PORT_B, page).contains("Created on A"));
+            send(PORT_A, "POST", "/employers", "{\"name\": \"Created on A\", \"sector\": \"Tech\"}");
+            awaitVisible(PORT_B, page, body -> body.contains("Created on A"));
+        }
+
+        // jobs written on one instance show up in the other's in-memory listings and autocomplete, and so do
+        // their updates
+        @Test
+        public void testJobWritesVisibleOnOtherInstance() throws Exception {
+            int employer = send(PORT_B, "POST", "/employers", "{\"name\": \"Coherent Co\", \"sector\": \"Tech\"}")
+                    .get("id").getAsInt();
+            String listing = "/jobs?location=Coherence&limit=50";
+            assertEquals(0, JsonParser.parseString(get(PORT_B, listing)).getAsJsonObject()
+                    .getAsJsonArray("items").size());
+            String job = "{\"title\": \"Coherence Engineer\", \"datePosted\": 1700000000000,"
+                    + " \"location\": \"Coherence\", \"employer\": {\"id\": " + employer + "}}";
+            int id = send(PORT_A, "POST", "/jobs", job).get("id").getAsInt();
+            awaitVisible(PORT_B, listing, body -> body.contains("Coherence Engineer"));
+            awaitVisible(PORT_B, "/autocomplete?field=title&prefix=coherence",
+                    body -> body.contains("Coherence Engineer"));
+
+            send(PORT_A, "PUT", "/jobs/" + id, job.replace("Coherence Engineer", "Coherence Lead"));
+            awaitVisible(PORT_B, listing, body -> body.contains("Coherence Lead")
+                    && !body.contains("Coherence Engineer"));
+        }
+    }
+}